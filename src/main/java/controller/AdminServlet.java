@@ -6,14 +6,49 @@ import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import db_config.PoolConfig;
+import implementor.CachingProductImplementor;
+import implementor.DeliveryImplementor;
+import implementor.OrderImplementor;
+import implementor.PaymentImplementor;
+import implementor.ReturnImplementor;
+import implementor.UserImplementor;
+import model.ChangeFeed;
+import model.ImportReport;
+import model.Product;
+import model.Return;
+import model.User;
+import operation.DeliveryOperations;
+import operation.OrderOperations;
+import operation.PaymentOperations;
+import operation.ProductOperations;
+import operation.ReturnOperations;
+import operation.UserOperations;
+import util.IntDoubleMap;
 
 /**
  * Servlet implementation class AdminServlet
+ *
+ * The admin dashboard's JSON API, selected by the action parameter; see
+ * {@link VendorServlet} for the conventions. An admin reads a vendor's cart,
+ * orders, payments and returns through VendorServlet with vendorId.
  */
 @WebServlet("/AdminServlet")
 public class AdminServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
-       
+	private static final int MAX_FEED_ROWS = PoolConfig.getInt("api.maxItemsPerRequest", 1000);
+
+	private final ProductOperations productOperations = CachingProductImplementor.shared();
+	private final OrderOperations orderOperations = new OrderImplementor();
+	private final PaymentOperations paymentOperations = new PaymentImplementor();
+	private final ReturnOperations returnOperations = new ReturnImplementor();
+	private final DeliveryOperations deliveryOperations = new DeliveryImplementor();
+	private final UserOperations userOperations = new UserImplementor();
+
     /**
      * @see HttpServlet#HttpServlet()
      */
@@ -23,19 +58,215 @@ public class AdminServlet extends HttpServlet {
     }
 
 	/**
+	 * action=products: the active catalog. action=pendingReturns: returns
+	 * awaiting a decision. action=returnChanges (optional since, sinceId,
+	 * limit): returns changed after the watermark, with the next watermark.
+	 * action=dues: every vendor's due amount. action=users (role): users
+	 * without their password hashes.
+	 *
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-		response.getWriter().append("Served at: ").append(request.getContextPath());
+		String action = request.getParameter("action");
+		try {
+			switch (action == null ? "" : action) {
+				case "products": {
+					List<Product> products = productOperations.getAllActiveProducts();
+					JsonResponse.stream(request, response, out -> {
+						out.beginArray();
+						for (Product p : products) {
+							JsonRows.product(out, p);
+						}
+						out.endArray();
+					});
+					break;
+				}
+				case "pendingReturns": {
+					List<Return> returns = returnOperations.getPendingReturns();
+					JsonResponse.stream(request, response, out -> {
+						out.beginArray();
+						for (Return r : returns) {
+							JsonRows.returnRow(out, r);
+						}
+						out.endArray();
+					});
+					break;
+				}
+				case "returnChanges": {
+					Timestamp since = RequestParams.timestamp(request, "since");
+					int sinceId = RequestParams.intValue(request, "sinceId", 0);
+					int limit = Math.min(Math.max(RequestParams.intValue(request, "limit", MAX_FEED_ROWS), 1), MAX_FEED_ROWS);
+					ChangeFeed<Return> feed = returnOperations.getReturnChanges(since, sinceId, limit);
+					if (feed == null) {
+						JsonResponse.message(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "error", "Returns are unavailable");
+						return;
+					}
+					JsonResponse.stream(request, response, out -> {
+						out.beginObject();
+						out.name("rows").beginArray();
+						for (Return r : feed.getRows()) {
+							JsonRows.returnRow(out, r);
+						}
+						out.endArray();
+						JsonRows.date(out, "since", feed.getWatermarkUpdatedAt());
+						out.field("sinceId", feed.getWatermarkId())
+							.field("hasMore", feed.hasMore())
+							.endObject();
+					});
+					break;
+				}
+				case "dues": {
+					IntDoubleMap dues = paymentOperations.getAllDueAmounts();
+					JsonResponse.stream(request, response, out -> {
+						out.beginArray();
+						dues.forEach((vendorId, due) -> {
+							try {
+								out.beginObject().field("vendorId", vendorId).field("due", due).endObject();
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						});
+						out.endArray();
+					});
+					break;
+				}
+				case "users": {
+					List<User> users = userOperations.getAllUsersByRole(RequestParams.string(request, "role"));
+					JsonResponse.stream(request, response, out -> {
+						out.beginArray();
+						for (User u : users) {
+							JsonRows.user(out, u);
+						}
+						out.endArray();
+					});
+					break;
+				}
+				default:
+					JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error",
+							"action must be products, pendingReturns, returnChanges, dues or users");
+			}
+		} catch (IllegalArgumentException e) {
+			JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error", e.getMessage());
+		}
 	}
 
 	/**
+	 * action=addProduct and action=updateProduct (productId, name, unitPrice,
+	 * boxPrice, qtyPerBox, optional imageUrl, active, stockQuantity). The
+	 * stock, in units, replaces the stored one; it is required on update so a
+	 * missing value cannot empty the stock, and defaults to 0 on add.
+	 * action=deleteProduct (productId). action=importProducts: a CSV body, as
+	 * ProductOperations.importProducts reads it; answers with the import report.
+	 * action=approveReturn (returnId), action=rejectReturn (returnId, reason),
+	 * action=updateOrderStatus (orderId, status) and action=assignDelivery
+	 * (orderId, deliveryPartnerId).
+	 *
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-		doGet(request, response);
+		String action = request.getParameter("action");
+		try {
+			switch (action == null ? "" : action) {
+				case "addProduct":
+					if (!productOperations.addProduct(readProduct(request, 0, RequestParams.intValue(request, "stockQuantity", 0)))) {
+						fail(response, "The product was not added");
+						return;
+					}
+					JsonResponse.message(response, HttpServletResponse.SC_CREATED, "status", "Product added");
+					break;
+				case "updateProduct":
+					if (!productOperations.updateProduct(readProduct(request, RequestParams.intValue(request, "productId"),
+							RequestParams.intValue(request, "stockQuantity")))) {
+						fail(response, "The product was not updated");
+						return;
+					}
+					JsonResponse.message(response, HttpServletResponse.SC_OK, "status", "Product updated");
+					break;
+				case "deleteProduct":
+					if (!productOperations.deleteProduct(RequestParams.intValue(request, "productId"))) {
+						fail(response, "The product was not deleted");
+						return;
+					}
+					JsonResponse.message(response, HttpServletResponse.SC_OK, "status", "Product deleted");
+					break;
+				case "importProducts": {
+					ImportReport report = productOperations.importProducts(request.getInputStream());
+					JsonResponse.stream(request, response, out -> {
+						out.beginObject()
+							.field("totalRows", report.getTotalRows())
+							.field("importedRows", report.getImportedRows());
+						out.name("errors").beginArray();
+						for (ImportReport.RowError error : report.getErrors()) {
+							out.beginObject().field("row", error.getRow()).field("message", error.getMessage()).endObject();
+						}
+						out.endArray().endObject();
+					});
+					break;
+				}
+				case "approveReturn":
+					if (!returnOperations.approveReturn(RequestParams.intValue(request, "returnId"))) {
+						fail(response, "The return was not approved");
+						return;
+					}
+					JsonResponse.message(response, HttpServletResponse.SC_OK, "status", "Return approved");
+					break;
+				case "rejectReturn":
+					if (!returnOperations.rejectReturn(RequestParams.intValue(request, "returnId"), request.getParameter("reason"))) {
+						fail(response, "The return was not rejected");
+						return;
+					}
+					JsonResponse.message(response, HttpServletResponse.SC_OK, "status", "Return rejected");
+					break;
+				case "updateOrderStatus": {
+					int orderId = RequestParams.intValue(request, "orderId");
+					String status = RequestParams.string(request, "status");
+					if (!"Pending".equals(status) && !"Confirmed".equals(status) && !"Delivered".equals(status)) {
+						throw new IllegalArgumentException("status must be Pending, Confirmed or Delivered");
+					}
+					if (!orderOperations.updateOrderStatus(orderId, status)) {
+						fail(response, "The order was not updated");
+						return;
+					}
+					JsonResponse.message(response, HttpServletResponse.SC_OK, "status", "Order updated");
+					break;
+				}
+				case "assignDelivery":
+					if (!deliveryOperations.assignDelivery(RequestParams.intValue(request, "orderId"),
+							RequestParams.intValue(request, "deliveryPartnerId"))) {
+						fail(response, "The delivery was not assigned");
+						return;
+					}
+					JsonResponse.message(response, HttpServletResponse.SC_OK, "status", "Delivery assigned");
+					break;
+				default:
+					JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error",
+							"action must be addProduct, updateProduct, deleteProduct, importProducts, approveReturn, "
+							+ "rejectReturn, updateOrderStatus or assignDelivery");
+			}
+		} catch (IllegalArgumentException e) {
+			JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error", e.getMessage());
+		}
+	}
+
+	private static Product readProduct(HttpServletRequest request, int productId, int stockQuantity) {
+		if (stockQuantity < 0) {
+			throw new IllegalArgumentException("stockQuantity cannot be negative");
+		}
+		Product p = new Product();
+		p.setProductId(productId);
+		p.setName(RequestParams.string(request, "name"));
+		p.setUnitPrice(RequestParams.doubleValue(request, "unitPrice"));
+		p.setBoxPrice(RequestParams.doubleValue(request, "boxPrice"));
+		p.setQtyPerBox(RequestParams.intValue(request, "qtyPerBox"));
+		p.setImageUrl(request.getParameter("imageUrl"));
+		p.setActive(!"false".equals(request.getParameter("active")));
+		p.setStockQuantity(stockQuantity);
+		return p;
+	}
+
+	// The operation refused the change or the database failed; the details are in the server log
+	private static void fail(HttpServletResponse response, String message) throws IOException {
+		JsonResponse.message(response, HttpServletResponse.SC_CONFLICT, "error", message);
 	}
 
 }
@@ -0,0 +1,46 @@
+package controller;
+
+import com.mysql.cj.jdbc.AbandonedConnectionCleanupThread;
+
+import db_config.GetConnection;
+import implementor.CalculatorHistoryWriter;
+import implementor.CartStore;
+import implementor.DeliveryScheduler;
+import implementor.DeliveryStatusWriter;
+import implementor.RevokedSessions;
+import implementor.StockReservations;
+import implementor.VendorDueLedger;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+import util.MessageBundles;
+
+/**
+ * Starts application-wide background work on deployment and releases it,
+ * with the other shared resources, when the web application is undeployed.
+ */
+@WebListener
+public class AppContextListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        MessageBundles.init();
+        VendorDueLedger.shared().start();
+        RevokedSessions.shared().start();
+        CartStore.shared().start();
+        StockReservations.shared().start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        DeliveryScheduler.shared().shutdown();
+        DeliveryStatusWriter.shared().shutdown();
+        CalculatorHistoryWriter.shared().shutdown();
+        CartStore.shared().shutdown();
+        StockReservations.shared().shutdown();
+        VendorDueLedger.shared().shutdown();
+        RevokedSessions.shared().shutdown();
+        GetConnection.shutdown();
+        AbandonedConnectionCleanupThread.checkedShutdown();
+    }
+}
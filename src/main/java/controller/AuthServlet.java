@@ -6,6 +6,21 @@ import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+
+import filter.AuthFilter;
+import filter.AuthTokens;
+import filter.CsrfFilter;
+import implementor.CachingLanguageImplementor;
+import implementor.RevokedSessions;
+import implementor.UserImplementor;
+import model.User;
+import operation.LanguageOperations;
+import operation.UserOperations;
+import util.JsonWriter;
+import util.MessageBundles;
 
 /**
  * Servlet implementation class AuthServlet
@@ -13,6 +28,9 @@ import java.io.IOException;
 @WebServlet("/AuthServlet")
 public class AuthServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
+
+	private final UserOperations userOperations = new UserImplementor();
+	private final LanguageOperations languageOperations = CachingLanguageImplementor.shared();
        
     /**
      * @see HttpServlet#HttpServlet()
@@ -23,19 +41,102 @@ public class AuthServlet extends HttpServlet {
     }
 
 	/**
+	 * The current session, from the cookie or the Authorization header:
+	 * {"userId", "role", "expiresAt", "language", "messages"}, messages being
+	 * every label in the user's language; or 401 if there is none.
+	 *
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-		response.getWriter().append("Served at: ").append(request.getContextPath());
+		AuthTokens.Claims claims = AuthTokens.verify(AuthFilter.readToken(request));
+		if (claims == null || RevokedSessions.shared().isRevoked(claims.getUserId(), claims.getIssuedAt())) {
+			JsonResponse.message(response, HttpServletResponse.SC_UNAUTHORIZED, "error",
+					MessageBundles.message(requestLanguage(request), "error.session_expired"));
+			return;
+		}
+		String language = languageOperations.getLanguagePreference(claims.getUserId());
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		JsonWriter out = new JsonWriter(response.getWriter());
+		out.beginObject()
+			.field("userId", claims.getUserId())
+			.field("role", claims.getRole())
+			.field("expiresAt", claims.getExpiresAt())
+			.field("language", language);
+		out.name("messages").beginObject();
+		for (Map.Entry<String, String> label : MessageBundles.bundle(language).entrySet()) {
+			out.field(label.getKey(), label.getValue());
+		}
+		out.endObject().endObject();
+		out.flush();
 	}
 
 	/**
+	 * action=login (username, passwordHash): returns a session token and sets
+	 * it as the HttpOnly vmms_auth cookie, with the CSRF token that cookie
+	 * requests must send in X-CSRF-Token. action=logout clears the cookie;
+	 * action=logoutAll also ends the user's sessions on every device.
+	 *
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-		doGet(request, response);
+		String action = request.getParameter("action");
+		if ("login".equals(action)) {
+			User user = userOperations.authenticate(request.getParameter("username"), request.getParameter("passwordHash"));
+			if (user == null) {
+				JsonResponse.message(response, HttpServletResponse.SC_UNAUTHORIZED, "error",
+						MessageBundles.message(requestLanguage(request), "error.login_failed"));
+				return;
+			}
+			String token = AuthTokens.issue(user.getUserId(), user.getRole());
+			setAuthCookie(request, response, token, AuthTokens.TTL_MILLIS / 1000);
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.setContentType("application/json");
+			response.setCharacterEncoding("UTF-8");
+			JsonWriter out = new JsonWriter(response.getWriter());
+			out.beginObject()
+				.field("token", token)
+				.field("csrfToken", CsrfFilter.tokenFor(token))
+				.field("userId", user.getUserId())
+				.field("role", user.getRole())
+				.field("expiresIn", AuthTokens.TTL_MILLIS / 1000)
+				.field("language", languageOperations.getLanguagePreference(user.getUserId()))
+				.endObject();
+			out.flush();
+		} else if ("logout".equals(action) || "logoutAll".equals(action)) {
+			if ("logoutAll".equals(action)) {
+				AuthTokens.Claims claims = AuthTokens.verify(AuthFilter.readToken(request));
+				if (claims == null) {
+					JsonResponse.message(response, HttpServletResponse.SC_UNAUTHORIZED, "error", "Not signed in");
+					return;
+				}
+				userOperations.revokeSessions(claims.getUserId());
+			}
+			setAuthCookie(request, response, "", 0);
+			JsonResponse.message(response, HttpServletResponse.SC_OK, "status", "Logged out");
+		} else {
+			JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error", "action must be login, logout or logoutAll");
+		}
+	}
+
+	// The first supported language the browser asks for; messages before sign-in have no user to go by
+	private static String requestLanguage(HttpServletRequest request) {
+		Enumeration<Locale> locales = request.getLocales();
+		while (locales != null && locales.hasMoreElements()) {
+			String code = locales.nextElement().getLanguage();
+			if (MessageBundles.isSupported(code)) {
+				return MessageBundles.canonical(code);
+			}
+		}
+		return MessageBundles.DEFAULT_LANGUAGE;
+	}
+
+	// Set by hand: Cookie has no SameSite attribute in Servlet 5
+	private static void setAuthCookie(HttpServletRequest request, HttpServletResponse response, String value, long maxAgeSeconds) {
+		String path = request.getContextPath().isEmpty() ? "/" : request.getContextPath();
+		response.addHeader("Set-Cookie", AuthFilter.COOKIE_NAME + "=" + value + "; Max-Age=" + maxAgeSeconds
+				+ "; Path=" + path + "; HttpOnly; SameSite=Strict" + (request.isSecure() ? "; Secure" : ""));
 	}
 
 }
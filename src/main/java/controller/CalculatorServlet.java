@@ -6,6 +6,13 @@ import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.List;
+
+import filter.AuthFilter;
+import implementor.CalculatorImplementor;
+import model.CalculatorHistory;
+import operation.CalculatorOperations;
+import util.Expression;
 
 /**
  * Servlet implementation class CalculatorServlet
@@ -13,6 +20,8 @@ import java.io.IOException;
 @WebServlet("/CalculatorServlet")
 public class CalculatorServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
+
+	private final CalculatorOperations calculatorOperations = new CalculatorImplementor();
        
     /**
      * @see HttpServlet#HttpServlet()
@@ -23,19 +32,50 @@ public class CalculatorServlet extends HttpServlet {
     }
 
 	/**
+	 * Returns the signed-in user's calculator history as a JSON array,
+	 * compressed when the client accepts gzip.
+	 *
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-		response.getWriter().append("Served at: ").append(request.getContextPath());
+		int userId = (Integer) request.getAttribute(AuthFilter.ATTR_USER_ID);
+		List<CalculatorHistory> history = calculatorOperations.getCalculatorHistory(userId);
+		JsonResponse.stream(request, response, out -> {
+			out.beginArray();
+			for (CalculatorHistory entry : history) {
+				out.beginObject()
+					.field("calcId", entry.getCalcId())
+					.field("mode", entry.getMode())
+					.field("expression", entry.getInputExpression())
+					.field("result", entry.getResult());
+				JsonRows.date(out, "timestamp", entry.getTimestamp());
+				out.endObject();
+			}
+			out.endArray();
+		});
 	}
 
 	/**
+	 * Evaluates the expression parameter in the given mode ("Normal" or
+	 * "Billing", where unit(productId, qty) and box(productId, qty) price
+	 * products) and records it in the user's history. Responds
+	 * {"result": "..."}, or 400 with {"error": "..."} for an invalid expression.
+	 *
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-		doGet(request, response);
+		int userId = (Integer) request.getAttribute(AuthFilter.ATTR_USER_ID);
+		String mode = request.getParameter("mode") == null ? "Normal" : request.getParameter("mode");
+		String expression = request.getParameter("expression");
+		String result;
+		try {
+			result = calculatorOperations.evaluate(mode, expression);
+		} catch (Expression.ExpressionException e) {
+			JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error", e.getMessage());
+			return;
+		}
+		calculatorOperations.addCalculatorEntry(userId, mode, expression, result);
+		JsonResponse.message(response, HttpServletResponse.SC_OK, "result", result);
 	}
 
 }
@@ -6,6 +6,22 @@ import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import db_config.PoolConfig;
+import filter.AuthFilter;
+import implementor.DeliveryImplementor;
+import implementor.UserImplementor;
+import model.ChangeFeed;
+import model.DeliveryLog;
+import operation.DeliveryOperations;
+import operation.UserOperations;
+import util.JsonReader;
+import util.JsonWriter;
 
 /**
  * Servlet implementation class DeliveryServlet
@@ -13,6 +29,13 @@ import java.io.IOException;
 @WebServlet("/DeliveryServlet")
 public class DeliveryServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
+	private static final int MAX_UPDATES = PoolConfig.getInt("delivery.ingest.maxUpdatesPerRequest", 1000);
+	private static final long MAX_BODY_CHARS = PoolConfig.getLong("delivery.ingest.maxBodyChars", 1_000_000L);
+
+	private static final int MAX_FEED_ROWS = PoolConfig.getInt("api.maxItemsPerRequest", 1000);
+
+	private final DeliveryOperations deliveryOperations = new DeliveryImplementor();
+	private final UserOperations userOperations = new UserImplementor();
        
     /**
      * @see HttpServlet#HttpServlet()
@@ -23,19 +46,208 @@ public class DeliveryServlet extends HttpServlet {
     }
 
 	/**
+	 * The signed-in delivery partner's deliveries (an admin names the partner
+	 * in deliveryPartnerId) as a JSON array, compressed when the client
+	 * accepts gzip. With action=changes (optional since, sinceId, limit) only
+	 * deliveries changed after the watermark, with the next watermark.
+	 *
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-		response.getWriter().append("Served at: ").append(request.getContextPath());
+		try {
+			int partnerId = "Admin".equals(request.getAttribute(AuthFilter.ATTR_ROLE))
+					? RequestParams.intValue(request, "deliveryPartnerId")
+					: userOperations.getDeliveryPartnerId((Integer) request.getAttribute(AuthFilter.ATTR_USER_ID));
+			if (partnerId <= 0) {
+				JsonResponse.message(response, HttpServletResponse.SC_FORBIDDEN, "error", "No delivery partner for this account");
+				return;
+			}
+			if (!"changes".equals(request.getParameter("action"))) {
+				List<DeliveryLog> deliveries = deliveryOperations.getDeliveriesByPartner(partnerId);
+				JsonResponse.stream(request, response, out -> {
+					out.beginArray();
+					for (DeliveryLog d : deliveries) {
+						JsonRows.delivery(out, d);
+					}
+					out.endArray();
+				});
+				return;
+			}
+			Timestamp since = RequestParams.timestamp(request, "since");
+			int sinceId = RequestParams.intValue(request, "sinceId", 0);
+			int limit = Math.min(Math.max(RequestParams.intValue(request, "limit", MAX_FEED_ROWS), 1), MAX_FEED_ROWS);
+			ChangeFeed<DeliveryLog> feed = deliveryOperations.getDeliveryChangesByPartner(partnerId, since, sinceId, limit);
+			if (feed == null) {
+				JsonResponse.message(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "error", "Deliveries are unavailable");
+				return;
+			}
+			JsonResponse.stream(request, response, out -> {
+				out.beginObject();
+				out.name("rows").beginArray();
+				for (DeliveryLog d : feed.getRows()) {
+					JsonRows.delivery(out, d);
+				}
+				out.endArray();
+				JsonRows.date(out, "since", feed.getWatermarkUpdatedAt());
+				out.field("sinceId", feed.getWatermarkId())
+					.field("hasMore", feed.hasMore())
+					.endObject();
+			});
+		} catch (IllegalArgumentException e) {
+			JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error", e.getMessage());
+		}
 	}
 
 	/**
+	 * Accepts delivery status updates, one object or an array of them:
+	 * {"deliveryId": 12, "status": "Delivered", "deliveredOn": "2025-06-01T10:15:00",
+	 *  "confirmedByVendor": false}. deliveredOn may also be epoch milliseconds or null.
+	 * A delivery partner may only update deliveries assigned to them, and
+	 * confirmedByVendor is ignored for them; an admin may update any delivery.
+	 * The whole body is read and checked before anything is queued, so a 400
+	 * or 413 means no update was taken. Updates are queued and written in
+	 * batches; the response (202) lists the positions of updates that were
+	 * invalid or could not be queued, which the client should fix or resend.
+	 *
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-		doGet(request, response);
+		List<StatusUpdate> updates = new ArrayList<>();
+		try (JsonReader json = new JsonReader(request.getReader(), MAX_BODY_CHARS)) {
+			boolean array = json.peek() == JsonReader.Token.BEGIN_ARRAY;
+			if (array) {
+				json.beginArray();
+			}
+			while (array ? json.hasNext() : updates.isEmpty()) {
+				if (updates.size() == MAX_UPDATES) {
+					JsonResponse.message(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "error",
+							"At most " + MAX_UPDATES + " updates per request");
+					return;
+				}
+				updates.add(read(json));
+			}
+			if (array) {
+				json.endArray();
+			}
+		} catch (JsonReader.MalformedJsonException e) {
+			JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error", e.getMessage());
+			return;
+		}
+
+		boolean admin = "Admin".equals(request.getAttribute(AuthFilter.ATTR_ROLE));
+		if (!admin) {
+			int partnerId = userOperations.getDeliveryPartnerId((Integer) request.getAttribute(AuthFilter.ATTR_USER_ID));
+			if (partnerId <= 0) {
+				JsonResponse.message(response, HttpServletResponse.SC_FORBIDDEN, "error", "No delivery partner for this account");
+				return;
+			}
+			List<Integer> deliveryIds = new ArrayList<>(updates.size());
+			for (StatusUpdate u : updates) {
+				if (u.problem == null) {
+					deliveryIds.add(u.deliveryId);
+				}
+			}
+			Map<Integer, Integer> owners = deliveryOperations.getDeliveryPartnerIds(deliveryIds);
+			if (owners == null) {
+				JsonResponse.message(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "error", "Deliveries are unavailable");
+				return;
+			}
+			for (StatusUpdate u : updates) {
+				if (u.problem == null && !Integer.valueOf(partnerId).equals(owners.get(u.deliveryId))) {
+					u.problem = "delivery " + u.deliveryId + " is not assigned to you";
+				}
+				// Only the vendor (or an admin) confirms a delivery
+				u.confirmedByVendor = null;
+			}
+		}
+
+		List<String> invalid = new ArrayList<>();
+		List<Integer> rejected = new ArrayList<>();
+		for (int index = 0; index < updates.size(); index++) {
+			StatusUpdate u = updates.get(index);
+			if (u.problem != null) {
+				invalid.add(index + ": " + u.problem);
+			} else if (!deliveryOperations.queueDeliveryStatus(u.deliveryId, u.status, u.deliveredOn, u.confirmedByVendor)) {
+				rejected.add(index);
+			}
+		}
+
+		int received = updates.size();
+		boolean nothingQueued = !rejected.isEmpty() && rejected.size() + invalid.size() == received;
+		if (nothingQueued) {
+			response.setHeader("Retry-After", "1");
+		}
+		response.setStatus(nothingQueued ? HttpServletResponse.SC_SERVICE_UNAVAILABLE : HttpServletResponse.SC_ACCEPTED);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		JsonWriter out = new JsonWriter(response.getWriter());
+		out.beginObject()
+			.field("received", received)
+			.field("accepted", received - invalid.size() - rejected.size());
+		out.name("invalid").beginArray();
+		for (String problem : invalid) {
+			out.value(problem);
+		}
+		out.endArray();
+		out.name("rejected").beginArray();
+		for (int index : rejected) {
+			out.value(index);
+		}
+		out.endArray().endObject();
+		out.flush();
+	}
+
+	// Reads one update object; problem says why it is invalid
+	private static StatusUpdate read(JsonReader json) throws IOException {
+		StatusUpdate u = new StatusUpdate();
+		json.beginObject();
+		while (json.hasNext()) {
+			String name = json.nextName();
+			switch (name) {
+				case "deliveryId":
+					u.deliveryId = json.nextInt();
+					break;
+				case "status":
+					u.status = json.nextString();
+					break;
+				case "deliveredOn":
+					JsonReader.Token token = json.peek();
+					if (token == JsonReader.Token.NULL) {
+						json.nextNull();
+					} else if (token == JsonReader.Token.NUMBER) {
+						u.deliveredOn = new Date(json.nextLong());
+					} else {
+						String text = json.nextString();
+						try {
+							u.deliveredOn = Timestamp.valueOf(text.replace('T', ' '));
+						} catch (IllegalArgumentException e) {
+							u.problem = "deliveredOn must be yyyy-MM-ddTHH:mm:ss or epoch milliseconds";
+						}
+					}
+					break;
+				case "confirmedByVendor":
+					u.confirmedByVendor = json.nextBoolean();
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+		json.endObject();
+		if (u.problem == null && u.deliveryId <= 0) {
+			u.problem = "deliveryId is required";
+		} else if (u.problem == null && !"Pending".equals(u.status) && !"Delivered".equals(u.status) && !"Failed".equals(u.status)) {
+			u.problem = "status must be Pending, Delivered or Failed";
+		}
+		return u;
+	}
+
+	private static final class StatusUpdate {
+		int deliveryId = -1;
+		String status;
+		Date deliveredOn;
+		// Absent means the flag is left as it is
+		Boolean confirmedByVendor;
+		String problem;
 	}
 
 }
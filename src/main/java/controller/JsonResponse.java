@@ -0,0 +1,146 @@
+package controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+import operation.DataAccessException;
+import util.JsonWriter;
+
+/**
+ * A JSON response body written while it is produced.
+ *
+ * Everything goes through a {@link JsonWriter}, which hands its few-KB
+ * buffer to the response each time it fills, so rows can be written as they
+ * are read from the database and a response of any length needs the same
+ * small, fixed amount of memory. The body is gzip-compressed on the way out
+ * when the request accepts it. Closing finishes the body.
+ */
+final class JsonResponse implements Closeable {
+	private static final int GZIP_BUFFER = 8 * 1024;
+
+	/** Writes a whole body. */
+	interface Body {
+		void write(JsonWriter out) throws IOException;
+	}
+
+	/** Writes one row. */
+	interface RowWriter<T> {
+		void write(JsonWriter out, T row) throws IOException;
+	}
+
+	private final Writer writer;
+	private final JsonWriter json;
+
+	private JsonResponse(Writer writer) {
+		this.writer = writer;
+		this.json = new JsonWriter(writer);
+	}
+
+	/** Starts a JSON body with the given status. */
+	static JsonResponse open(HttpServletRequest request, HttpServletResponse response, int status) throws IOException {
+		response.setStatus(status);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.addHeader("Vary", "Accept-Encoding");
+		if (acceptsGzip(request.getHeader("Accept-Encoding"))) {
+			response.setHeader("Content-Encoding", "gzip");
+			return new JsonResponse(new OutputStreamWriter(
+					new GZIPOutputStream(response.getOutputStream(), GZIP_BUFFER), StandardCharsets.UTF_8));
+		}
+		return new JsonResponse(response.getWriter());
+	}
+
+	/**
+	 * Writes a 200 body. If the client goes away mid-response the write fails,
+	 * any database read feeding it is abandoned, and nothing more is sent.
+	 *
+	 * If the database read fails, the body is never finished: before anything
+	 * has been sent the response becomes a 500, and after that the exception
+	 * is rethrown so the container cuts the connection. The client then sees a
+	 * failed response rather than a well-formed but truncated array.
+	 */
+	static void stream(HttpServletRequest request, HttpServletResponse response, Body body) throws IOException {
+		JsonResponse out = open(request, response, HttpServletResponse.SC_OK);
+		try {
+			body.write(out.json());
+		} catch (UncheckedIOException e) {
+			return;   // Client disconnected; the response is already committed
+		} catch (DataAccessException e) {
+			if (response.isCommitted()) {
+				throw e;
+			}
+			response.reset();   // drops the partial body, Content-Encoding included
+			message(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "error", "Could not read the data; try again");
+			return;
+		}
+		out.close();
+	}
+
+	/**
+	 * A consumer for the forEach... operations that writes each row as it is
+	 * read; a write failure is rethrown unchecked to stop the read.
+	 */
+	static <T> Consumer<T> rows(JsonWriter out, RowWriter<T> rowWriter) {
+		return row -> {
+			try {
+				rowWriter.write(out, row);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+	}
+
+	/** A one-member object such as {"error": "..."}; too small to be worth compressing. */
+	static void message(HttpServletResponse response, int status, String name, String message) throws IOException {
+		response.setStatus(status);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		JsonWriter out = new JsonWriter(response.getWriter());
+		out.beginObject().field(name, message).endObject();
+		out.flush();
+	}
+
+	JsonWriter json() {
+		return json;
+	}
+
+	@Override
+	public void close() throws IOException {
+		json.flush();
+		writer.close();   // finishes the gzip stream
+	}
+
+	// True unless gzip is missing from Accept-Encoding or given q=0
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			String name = parts[0].trim();
+			if (!"gzip".equalsIgnoreCase(name) && !"*".equals(name)) {
+				continue;
+			}
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						return Double.parseDouble(param.substring(2)) > 0;
+					} catch (NumberFormatException e) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+}
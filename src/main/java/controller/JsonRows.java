@@ -0,0 +1,116 @@
+package controller;
+
+import java.io.IOException;
+import java.util.Date;
+
+import model.CartItem;
+import model.DeliveryLog;
+import model.Order;
+import model.Payment;
+import model.Product;
+import model.Return;
+import model.User;
+import util.JsonWriter;
+
+/**
+ * The JSON form of each model object the servlets return, one object per
+ * row. Dates are epoch milliseconds or null.
+ */
+final class JsonRows {
+
+	private JsonRows() {
+	}
+
+	static void product(JsonWriter out, Product p) throws IOException {
+		out.beginObject()
+			.field("productId", p.getProductId())
+			.field("name", p.getName())
+			.field("unitPrice", p.getUnitPrice())
+			.field("boxPrice", p.getBoxPrice())
+			.field("qtyPerBox", p.getQtyPerBox())
+			.field("imageUrl", p.getImageUrl())
+			.field("active", p.isActive())
+			.field("stockQuantity", p.getStockQuantity())
+			.endObject();
+	}
+
+	static void cartItem(JsonWriter out, CartItem item) throws IOException {
+		out.beginObject()
+			.field("cartId", item.getCartId())
+			.field("productId", item.getProductId())
+			.field("qty", item.getQty())
+			.field("mode", item.getMode())
+			.field("price", item.getPrice())
+			.endObject();
+	}
+
+	static void order(JsonWriter out, Order o) throws IOException {
+		out.beginObject()
+			.field("orderId", o.getOrderId())
+			.field("vendorId", o.getVendorId());
+		date(out, "orderDate", o.getOrderDate());
+		out.field("status", o.getStatus())
+			.field("totalAmount", o.getTotalAmount())
+			.endObject();
+	}
+
+	static void payment(JsonWriter out, Payment p) throws IOException {
+		out.beginObject()
+			.field("paymentId", p.getPaymentId())
+			.field("vendorId", p.getVendorId())
+			.field("orderId", p.getOrderId())
+			.field("amountPaid", p.getAmountPaid())
+			.field("mode", p.getMode());
+		date(out, "paidOn", p.getPaidOn());
+		out.endObject();
+	}
+
+	static void returnRow(JsonWriter out, Return r) throws IOException {
+		out.beginObject()
+			.field("returnId", r.getReturnId())
+			.field("orderId", r.getOrderId());
+		date(out, "returnDate", r.getReturnDate());
+		out.field("returnStatus", r.getReturnStatus())
+			.field("overallReason", r.getOverallReason());
+		date(out, "updatedAt", r.getUpdatedAt());
+		out.endObject();
+	}
+
+	static void delivery(JsonWriter out, DeliveryLog d) throws IOException {
+		out.beginObject()
+			.field("deliveryId", d.getDeliveryId())
+			.field("orderId", d.getOrderId())
+			.field("vendorId", d.getVendorId());
+		out.name("deliveryPartnerId");
+		if (d.getDeliveryPartnerId() == null) {
+			out.nullValue();
+		} else {
+			out.value(d.getDeliveryPartnerId());
+		}
+		out.field("status", d.getStatus());
+		date(out, "deliveredOn", d.getDeliveredOn());
+		out.field("confirmedByVendor", d.isConfirmedByVendor());
+		date(out, "updatedAt", d.getUpdatedAt());
+		out.endObject();
+	}
+
+	// Never the password hash
+	static void user(JsonWriter out, User u) throws IOException {
+		out.beginObject()
+			.field("userId", u.getUserId())
+			.field("username", u.getUsername())
+			.field("role", u.getRole())
+			.field("contact", u.getContact());
+		date(out, "lastLogin", u.getLastLogin());
+		out.endObject();
+	}
+
+	static void date(JsonWriter out, String name, Date date) throws IOException {
+		out.name(name);
+		if (date == null) {
+			out.nullValue();
+		} else {
+			out.value(date.getTime());
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.sql.Timestamp;
+
+/**
+ * Typed request parameters. A value that does not parse throws
+ * IllegalArgumentException with a message meant for the client, which the
+ * servlets answer with 400.
+ */
+final class RequestParams {
+
+	private RequestParams() {
+	}
+
+	static String string(HttpServletRequest request, String name) {
+		String value = request.getParameter(name);
+		if (value == null || value.trim().isEmpty()) {
+			throw new IllegalArgumentException(name + " is required");
+		}
+		return value.trim();
+	}
+
+	static int intValue(HttpServletRequest request, String name) {
+		String value = string(request, name);
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be a whole number");
+		}
+	}
+
+	static int intValue(HttpServletRequest request, String name, int defaultValue) {
+		return request.getParameter(name) == null ? defaultValue : intValue(request, name);
+	}
+
+	static double doubleValue(HttpServletRequest request, String name) {
+		String value = string(request, name);
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be a number");
+		}
+	}
+
+	/** yyyy-MM-dd, yyyy-MM-ddTHH:mm:ss or epoch milliseconds; null if absent. */
+	static Timestamp timestamp(HttpServletRequest request, String name) {
+		String value = request.getParameter(name);
+		if (value == null || value.trim().isEmpty()) {
+			return null;
+		}
+		value = value.trim();
+		try {
+			if (value.chars().allMatch(Character::isDigit)) {
+				return new Timestamp(Long.parseLong(value));
+			}
+			return Timestamp.valueOf(value.length() == 10 ? value + " 00:00:00" : value.replace('T', ' '));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(name + " must be yyyy-MM-dd, yyyy-MM-ddTHH:mm:ss or epoch milliseconds");
+		}
+	}
+
+	/** "unit" or "box". */
+	static String mode(HttpServletRequest request) {
+		String mode = string(request, "mode");
+		if (!"unit".equals(mode) && !"box".equals(mode)) {
+			throw new IllegalArgumentException("mode must be unit or box");
+		}
+		return mode;
+	}
+}
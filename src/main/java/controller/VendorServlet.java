@@ -6,14 +6,55 @@ import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import db_config.PoolConfig;
+import filter.AuthFilter;
+import implementor.CachingProductImplementor;
+import implementor.CartImplementor;
+import implementor.OrderImplementor;
+import implementor.PaymentImplementor;
+import implementor.PricingEngine;
+import implementor.ReturnImplementor;
+import implementor.UserImplementor;
+import model.CartChange;
+import model.CartItem;
+import model.Order;
+import model.Product;
+import model.Return;
+import model.ReturnItem;
+import operation.CartOperation;
+import operation.OrderOperations;
+import operation.OutOfStockException;
+import operation.PaymentOperations;
+import operation.ProductOperations;
+import operation.ReturnOperations;
+import operation.UserOperations;
+import util.JsonReader;
 
 /**
  * Servlet implementation class VendorServlet
+ *
+ * The vendor dashboard's JSON API, selected by the action parameter. It acts
+ * for the signed-in vendor; an admin names the vendor in vendorId. Lists are
+ * written row by row as they are read and gzip-compressed when the client
+ * accepts it. Errors are {"error": "..."} with a 4xx status.
  */
 @WebServlet("/VendorServlet")
 public class VendorServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
-       
+	private static final long MAX_BODY_CHARS = PoolConfig.getLong("api.maxBodyChars", 1_000_000L);
+	private static final int MAX_CHANGES = PoolConfig.getInt("api.maxItemsPerRequest", 1000);
+
+	private final ProductOperations productOperations = CachingProductImplementor.shared();
+	private final CartOperation cartOperations = new CartImplementor();
+	private final OrderOperations orderOperations = new OrderImplementor();
+	private final PaymentOperations paymentOperations = new PaymentImplementor();
+	private final ReturnOperations returnOperations = new ReturnImplementor();
+	private final UserOperations userOperations = new UserImplementor();
+
     /**
      * @see HttpServlet#HttpServlet()
      */
@@ -23,19 +64,397 @@ public class VendorServlet extends HttpServlet {
     }
 
 	/**
+	 * action=catalog: active products. action=cart: the cart's lines and
+	 * their total at catalog prices. action=orders (optional status, from,
+	 * to), action=payments (optional from, to) and action=returns: newest
+	 * first. action=order (orderId) and action=return (returnId): one row.
+	 * action=due: the amount the vendor owes.
+	 *
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-		response.getWriter().append("Served at: ").append(request.getContextPath());
+		int vendorId = vendorId(request);
+		if (vendorId <= 0) {
+			JsonResponse.message(response, HttpServletResponse.SC_FORBIDDEN, "error", "No vendor for this account");
+			return;
+		}
+		String action = request.getParameter("action");
+		try {
+			switch (action == null ? "" : action) {
+				case "catalog":
+					List<Product> products = productOperations.getAllActiveProducts();
+					JsonResponse.stream(request, response, out -> {
+						out.beginArray();
+						for (Product p : products) {
+							JsonRows.product(out, p);
+						}
+						out.endArray();
+					});
+					break;
+				case "cart":
+					writeCart(request, response, cartOperations.getCartItems(vendorId));
+					break;
+				case "orders": {
+					String status = request.getParameter("status");
+					Timestamp from = RequestParams.timestamp(request, "from");
+					Timestamp to = RequestParams.timestamp(request, "to");
+					JsonResponse.stream(request, response, out -> {
+						out.beginArray();
+						orderOperations.forEachOrderByVendor(vendorId, status, from, to, JsonResponse.rows(out, JsonRows::order));
+						out.endArray();
+					});
+					break;
+				}
+				case "order": {
+					Order order = ownOrder(vendorId, RequestParams.intValue(request, "orderId"));
+					if (order == null) {
+						JsonResponse.message(response, HttpServletResponse.SC_NOT_FOUND, "error", "No such order");
+						return;
+					}
+					JsonResponse.stream(request, response, out -> JsonRows.order(out, order));
+					break;
+				}
+				case "payments": {
+					Timestamp from = RequestParams.timestamp(request, "from");
+					Timestamp to = RequestParams.timestamp(request, "to");
+					JsonResponse.stream(request, response, out -> {
+						out.beginArray();
+						paymentOperations.forEachPaymentByVendor(vendorId, from, to, JsonResponse.rows(out, JsonRows::payment));
+						out.endArray();
+					});
+					break;
+				}
+				case "due":
+					JsonResponse.stream(request, response, out -> out.beginObject()
+							.field("vendorId", vendorId)
+							.field("due", paymentOperations.calculateDueAmount(vendorId))
+							.endObject());
+					break;
+				case "returns":
+					JsonResponse.stream(request, response, out -> {
+						out.beginArray();
+						returnOperations.forEachReturnByVendor(vendorId, JsonResponse.rows(out, JsonRows::returnRow));
+						out.endArray();
+					});
+					break;
+				case "return": {
+					Return ret = returnOperations.getReturnDetails(RequestParams.intValue(request, "returnId"));
+					if (ret == null || ownOrder(vendorId, ret.getOrderId()) == null) {
+						JsonResponse.message(response, HttpServletResponse.SC_NOT_FOUND, "error", "No such return");
+						return;
+					}
+					double amount = returnOperations.calculateReturnAmount(ret.getReturnId());
+					JsonResponse.stream(request, response, out -> {
+						out.beginObject()
+							.field("returnId", ret.getReturnId())
+							.field("orderId", ret.getOrderId());
+						JsonRows.date(out, "returnDate", ret.getReturnDate());
+						out.field("returnStatus", ret.getReturnStatus())
+							.field("overallReason", ret.getOverallReason())
+							.field("amount", amount)
+							.endObject();
+					});
+					break;
+				}
+				default:
+					JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error",
+							"action must be catalog, cart, orders, order, payments, due, returns or return");
+			}
+		} catch (IllegalArgumentException e) {
+			JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error", e.getMessage());
+		}
 	}
 
 	/**
+	 * Cart edits, each answered with the cart afterwards: action=addToCart
+	 * (productId, qty, mode), action=updateCart (cartId, qty, mode),
+	 * action=removeFromCart (cartId), and action=applyCart with a JSON array
+	 * body of {"action", "cartId", "productId", "qty", "mode", "price"}
+	 * applied all or none. Lines are priced from the catalog; an edit needing
+	 * more stock than is free is refused with 409, and applyCart answers 503
+	 * if the changes could not be written (they are then undone).
+	 *
+	 * action=placeOrder checks out the cart (201). action=pay (orderId,
+	 * amount, mode Cash or UPI) records a payment. action=raiseReturn takes a
+	 * JSON body {"orderId", "reason", "items": [{"productId", "qty", "mode",
+	 * "reason"}]}; mode (unit or box) picks the order line an item returns.
+	 *
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		// TODO Auto-generated method stub
-		doGet(request, response);
+		int vendorId = vendorId(request);
+		if (vendorId <= 0) {
+			JsonResponse.message(response, HttpServletResponse.SC_FORBIDDEN, "error", "No vendor for this account");
+			return;
+		}
+		String action = request.getParameter("action");
+		try {
+			switch (action == null ? "" : action) {
+				case "addToCart": {
+					int productId = RequestParams.intValue(request, "productId");
+					int qty = RequestParams.intValue(request, "qty");
+					String mode = RequestParams.mode(request);
+					if (qty <= 0) {
+						throw new IllegalArgumentException("qty must be positive");
+					}
+					Product product = productOperations.getProductById(productId);
+					if (product == null || !product.isActive()) {
+						JsonResponse.message(response, HttpServletResponse.SC_NOT_FOUND, "error", "No such product");
+						return;
+					}
+					double price = "box".equals(mode) ? product.getBoxPrice() : product.getUnitPrice();
+					if (!cartOperations.addToCart(vendorId, productId, qty, mode, price)) {
+						JsonResponse.message(response, HttpServletResponse.SC_CONFLICT, "error", "Not enough stock");
+						return;
+					}
+					writeCart(request, response, cartOperations.getCartItems(vendorId));
+					break;
+				}
+				case "updateCart": {
+					int cartId = RequestParams.intValue(request, "cartId");
+					int qty = RequestParams.intValue(request, "qty");
+					String mode = RequestParams.mode(request);
+					if (qty <= 0) {
+						throw new IllegalArgumentException("qty must be positive");
+					}
+					if (!ownsLine(vendorId, cartId)) {
+						JsonResponse.message(response, HttpServletResponse.SC_NOT_FOUND, "error", "No such cart line");
+						return;
+					}
+					if (!cartOperations.updateCartItem(cartId, qty, mode)) {
+						JsonResponse.message(response, HttpServletResponse.SC_CONFLICT, "error", "Not enough stock");
+						return;
+					}
+					writeCart(request, response, cartOperations.getCartItems(vendorId));
+					break;
+				}
+				case "removeFromCart": {
+					int cartId = RequestParams.intValue(request, "cartId");
+					if (!ownsLine(vendorId, cartId) || !cartOperations.removeCartItem(cartId)) {
+						JsonResponse.message(response, HttpServletResponse.SC_NOT_FOUND, "error", "No such cart line");
+						return;
+					}
+					writeCart(request, response, cartOperations.getCartItems(vendorId));
+					break;
+				}
+				case "applyCart": {
+					List<CartItem> cart;
+					try {
+						cart = cartOperations.applyCartChanges(vendorId, readChanges(request));
+					} catch (OutOfStockException e) {
+						JsonResponse.message(response, HttpServletResponse.SC_CONFLICT, "error", e.getMessage());
+						return;
+					}
+					if (cart == null) {
+						JsonResponse.message(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "error", "Cart is unavailable");
+						return;
+					}
+					writeCart(request, response, cart);
+					break;
+				}
+				case "placeOrder":
+					if (cartOperations.getCartItems(vendorId).isEmpty()) {
+						throw new IllegalArgumentException("The cart is empty");
+					}
+					if (!orderOperations.placeOrder(vendorId, null)) {
+						JsonResponse.message(response, HttpServletResponse.SC_CONFLICT, "error",
+								"The order could not be placed; some products may be out of stock");
+						return;
+					}
+					JsonResponse.message(response, HttpServletResponse.SC_CREATED, "status", "Order placed");
+					break;
+				case "pay": {
+					int orderId = RequestParams.intValue(request, "orderId");
+					double amount = RequestParams.doubleValue(request, "amount");
+					String mode = RequestParams.string(request, "mode");
+					if (amount <= 0) {
+						throw new IllegalArgumentException("amount must be positive");
+					}
+					if (!"Cash".equals(mode) && !"UPI".equals(mode)) {
+						throw new IllegalArgumentException("mode must be Cash or UPI");
+					}
+					if (ownOrder(vendorId, orderId) == null) {
+						JsonResponse.message(response, HttpServletResponse.SC_NOT_FOUND, "error", "No such order");
+						return;
+					}
+					if (!paymentOperations.makePayment(vendorId, orderId, amount, mode, new Timestamp(System.currentTimeMillis()))) {
+						JsonResponse.message(response, HttpServletResponse.SC_CONFLICT, "error", "The payment was not recorded");
+						return;
+					}
+					JsonResponse.message(response, HttpServletResponse.SC_CREATED, "status", "Payment recorded");
+					break;
+				}
+				case "raiseReturn":
+					raiseReturn(request, response, vendorId);
+					break;
+				default:
+					JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error",
+							"action must be addToCart, updateCart, removeFromCart, applyCart, placeOrder, pay or raiseReturn");
+			}
+		} catch (JsonReader.MalformedJsonException e) {
+			JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error", e.getMessage());
+		} catch (IllegalArgumentException e) {
+			JsonResponse.message(response, HttpServletResponse.SC_BAD_REQUEST, "error", e.getMessage());
+		}
+	}
+
+	private void raiseReturn(HttpServletRequest request, HttpServletResponse response, int vendorId) throws IOException {
+		int orderId = 0;
+		String reason = null;
+		List<ReturnItem> items = new ArrayList<>();
+		try (JsonReader json = new JsonReader(request.getReader(), MAX_BODY_CHARS)) {
+			json.beginObject();
+			while (json.hasNext()) {
+				switch (json.nextName()) {
+					case "orderId":
+						orderId = json.nextInt();
+						break;
+					case "reason":
+						reason = json.nextString();
+						break;
+					case "items":
+						json.beginArray();
+						while (json.hasNext()) {
+							if (items.size() == MAX_CHANGES) {
+								throw new IllegalArgumentException("At most " + MAX_CHANGES + " items per return");
+							}
+							items.add(readReturnItem(json));
+						}
+						json.endArray();
+						break;
+					default:
+						json.skipValue();
+				}
+			}
+			json.endObject();
+		}
+		if (items.isEmpty()) {
+			throw new IllegalArgumentException("items is required");
+		}
+		for (ReturnItem item : items) {
+			if (item.getProductId() <= 0 || item.getQty() <= 0) {
+				throw new IllegalArgumentException("Each item needs a productId and a positive qty");
+			}
+			if (!"unit".equals(item.getMode()) && !"box".equals(item.getMode())) {
+				throw new IllegalArgumentException("Each item needs a mode of unit or box");
+			}
+		}
+		if (ownOrder(vendorId, orderId) == null) {
+			JsonResponse.message(response, HttpServletResponse.SC_NOT_FOUND, "error", "No such order");
+			return;
+		}
+		if (!returnOperations.raiseReturnRequest(orderId, items, reason)) {
+			JsonResponse.message(response, HttpServletResponse.SC_CONFLICT, "error", "The return was not accepted");
+			return;
+		}
+		JsonResponse.message(response, HttpServletResponse.SC_CREATED, "status", "Return requested");
+	}
+
+	private static ReturnItem readReturnItem(JsonReader json) throws IOException {
+		ReturnItem item = new ReturnItem();
+		json.beginObject();
+		while (json.hasNext()) {
+			switch (json.nextName()) {
+				case "productId":
+					item.setProductId(json.nextInt());
+					break;
+				case "qty":
+					item.setQty(json.nextInt());
+					break;
+				case "mode":
+					item.setMode(json.nextString());
+					break;
+				case "reason":
+					item.setReason(json.nextString());
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+		json.endObject();
+		return item;
+	}
+
+	private static List<CartChange> readChanges(HttpServletRequest request) throws IOException {
+		List<CartChange> changes = new ArrayList<>();
+		try (JsonReader json = new JsonReader(request.getReader(), MAX_BODY_CHARS)) {
+			json.beginArray();
+			while (json.hasNext()) {
+				if (changes.size() == MAX_CHANGES) {
+					throw new IllegalArgumentException("At most " + MAX_CHANGES + " changes per request");
+				}
+				CartChange change = new CartChange();
+				json.beginObject();
+				while (json.hasNext()) {
+					switch (json.nextName()) {
+						case "action":
+							change.setAction(json.nextString());
+							break;
+						case "cartId":
+							change.setCartId(json.nextInt());
+							break;
+						case "productId":
+							change.setProductId(json.nextInt());
+							break;
+						case "qty":
+							change.setQty(json.nextInt());
+							break;
+						case "mode":
+							change.setMode(json.nextString());
+							break;
+						case "price":
+							change.setPrice(json.nextDouble());
+							break;
+						default:
+							json.skipValue();
+					}
+				}
+				json.endObject();
+				changes.add(change);
+			}
+			json.endArray();
+		}
+		return changes;
+	}
+
+	private static void writeCart(HttpServletRequest request, HttpServletResponse response, List<CartItem> items) throws IOException {
+		PricingEngine.Quote quote = PricingEngine.shared().quoteCart(items);
+		JsonResponse.stream(request, response, out -> {
+			out.beginObject();
+			out.name("items").beginArray();
+			for (CartItem item : items) {
+				JsonRows.cartItem(out, item);
+			}
+			out.endArray();
+			out.field("total", quote.getTotal()).endObject();
+		});
+	}
+
+	// The signed-in vendor; an admin acts for the vendor in the vendorId parameter. 0 if there is none.
+	private int vendorId(HttpServletRequest request) {
+		if ("Admin".equals(request.getAttribute(AuthFilter.ATTR_ROLE))) {
+			try {
+				return RequestParams.intValue(request, "vendorId", 0);
+			} catch (IllegalArgumentException e) {
+				return 0;
+			}
+		}
+		return userOperations.getVendorId((Integer) request.getAttribute(AuthFilter.ATTR_USER_ID));
+	}
+
+	// The order if it is the vendor's, otherwise null
+	private Order ownOrder(int vendorId, int orderId) {
+		Order order = orderId > 0 ? orderOperations.getOrderDetails(orderId) : null;
+		return order != null && order.getVendorId() == vendorId ? order : null;
+	}
+
+	private boolean ownsLine(int vendorId, int cartId) {
+		for (CartItem item : cartOperations.getCartItems(vendorId)) {
+			if (item.getCartId() == cartId) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 }
@@ -0,0 +1,238 @@
+package db_config;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded JDBC connection pool.
+ *
+ * Connections handed out by {@link #getConnection()} are proxies: closing one
+ * returns the physical connection to the pool instead of closing it, so the
+ * usual try-with-resources blocks keep working. Idle connections are reused
+ * most-recently-used first, pinged before reuse when they have been idle for a
+ * while, and retired by a background housekeeper after the idle timeout or the
+ * maximum lifetime. Each physical connection keeps its own
+ * {@link StatementCache}, so repeated calls reuse already-prepared statements.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final PoolConfig config;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledEntry> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final Stats stats = new Stats();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public ConnectionPool(PoolConfig config) {
+        if (config.getUrl() == null) {
+            throw new IllegalArgumentException("No JDBC url configured for pool '" + config.getName() + "'");
+        }
+        this.config = config;
+        this.permits = new Semaphore(config.getMaxSize(), true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vmms-pool-" + config.getName());
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = config.getHousekeepingIntervalMs();
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting up to the configured connection timeout
+     * when every connection is in use. Caller should close connection when done.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool '" + config.getName() + "' is closed");
+        }
+        try {
+            if (!permits.tryAcquire(config.getConnectionTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + config.getConnectionTimeoutMs()
+                        + "ms waiting for a connection from pool '" + config.getName() + "' ("
+                        + getActiveConnections() + " active)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
+        try {
+            PooledEntry entry;
+            while ((entry = idle.pollFirst()) != null) {
+                long now = System.currentTimeMillis();
+                if (isExpired(entry, now) || !isAlive(entry, now)) {
+                    discard(entry);
+                    continue;
+                }
+                return PooledConnection.wrap(entry, this);
+            }
+            return PooledConnection.wrap(createEntry(), this);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** Called by the connection proxy when the borrower closes it. */
+    void release(PooledEntry entry) {
+        try {
+            Connection raw = entry.getConnection();
+            if (closed || raw.isClosed() || isExpired(entry, System.currentTimeMillis())
+                    || totalConnections.get() > config.getMaxSize()) {
+                discard(entry);
+                return;
+            }
+            if (!raw.getAutoCommit()) {
+                // Never hand out a connection with someone else's open transaction
+                raw.rollback();
+                raw.setAutoCommit(true);
+            }
+            raw.clearWarnings();
+            if (entry.getStatementCache() != null) {
+                entry.getStatementCache().reset();
+            }
+            entry.setLastReturned(System.currentTimeMillis());
+            idle.offerFirst(entry);
+        } catch (SQLException e) {
+            discard(entry);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private PooledEntry createEntry() throws SQLException {
+        Connection raw = DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword());
+        totalConnections.incrementAndGet();
+        int cacheSize = config.getStatementCacheSize();
+        return new PooledEntry(raw, cacheSize > 0 ? new StatementCache(raw, cacheSize, stats) : null);
+    }
+
+    private boolean isExpired(PooledEntry entry, long now) {
+        long maxLifetime = config.getMaxLifetimeMs();
+        return maxLifetime > 0 && now - entry.getCreatedAt() >= maxLifetime;
+    }
+
+    // Only connections that sat idle for a while are pinged, so a busy pool
+    // does not pay an extra round-trip on every borrow.
+    private boolean isAlive(PooledEntry entry, long now) {
+        if (now - entry.getLastReturned() < config.getValidationIntervalMs()) {
+            return true;
+        }
+        try {
+            return entry.getConnection().isValid(config.getValidationTimeoutSec());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledEntry entry) {
+        totalConnections.decrementAndGet();
+        try {
+            entry.getConnection().close();
+        } catch (SQLException ignored) {
+            // connection is being thrown away anyway
+        }
+    }
+
+    /** Retires idle and expired connections, then tops the pool back up to minIdle. */
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+            for (PooledEntry entry : idle) {
+                boolean idleTooLong = config.getIdleTimeoutMs() > 0
+                        && now - entry.getLastReturned() >= config.getIdleTimeoutMs()
+                        && idle.size() > config.getMinIdle();
+                if ((idleTooLong || isExpired(entry, now)) && idle.remove(entry)) {
+                    discard(entry);
+                }
+            }
+            while (!closed && idle.size() < config.getMinIdle() && totalConnections.get() < config.getMaxSize()) {
+                PooledEntry entry = createEntry();
+                entry.setLastReturned(System.currentTimeMillis());
+                idle.offerLast(entry);
+            }
+        } catch (SQLException e) {
+            System.err.println("Pool '" + config.getName() + "' could not open a connection: " + e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Closes all idle connections; borrowed ones are closed as they are returned. */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            discard(entry);
+        }
+    }
+
+    public PoolConfig getConfig() { return config; }
+    public int getTotalConnections() { return totalConnections.get(); }
+    public int getIdleConnections() { return idle.size(); }
+    public int getActiveConnections() { return config.getMaxSize() - permits.availablePermits(); }
+    public boolean isClosed() { return closed; }
+    public Stats getStats() { return stats; }
+
+    /** Statement cache counters, summed over every connection of the pool. */
+    public static final class Stats {
+        final LongAdder statementsPrepared = new LongAdder();
+        final LongAdder statementsExecuted = new LongAdder();
+        final LongAdder statementHits = new LongAdder();
+        final LongAdder statementMisses = new LongAdder();
+        final LongAdder statementEvictions = new LongAdder();
+
+        /** Statements created through this pool's connections, cached or not. */
+        public long getStatementsPrepared() { return statementsPrepared.sum(); }
+        /** execute... calls on those statements, a batch counting once: the round-trips issued. */
+        public long getStatementsExecuted() { return statementsExecuted.sum(); }
+        public long getStatementHits() { return statementHits.sum(); }
+        public long getStatementMisses() { return statementMisses.sum(); }
+        public long getStatementEvictions() { return statementEvictions.sum(); }
+
+        public double getStatementHitRate() {
+            long hits = getStatementHits();
+            long total = hits + getStatementMisses();
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "prepared=" + getStatementsPrepared() + ", executed=" + getStatementsExecuted() + ", hits=" + getStatementHits() + ", misses=" + getStatementMisses()
+                    + ", evictions=" + getStatementEvictions()
+                    + String.format(", hitRate=%.3f", getStatementHitRate());
+        }
+    }
+
+    /** A physical connection plus the bookkeeping the pool needs for it. */
+    static final class PooledEntry {
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile long lastReturned = createdAt;
+
+        PooledEntry(Connection connection, StatementCache statementCache) {
+            this.connection = connection;
+            this.statementCache = statementCache;
+        }
+
+        Connection getConnection() { return connection; }
+        StatementCache getStatementCache() { return statementCache; }
+        long getCreatedAt() { return createdAt; }
+        long getLastReturned() { return lastReturned; }
+        void setLastReturned(long lastReturned) { this.lastReturned = lastReturned; }
+    }
+}
@@ -1,30 +1,61 @@
-package db_config;
-
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
-
-
-public class GetConnection {
-    private static final String JDBC_URL = "jdbc:mysql://localhost:3306/vmms_db?useSSL=false&serverTimezone=UTC";
-    private static final String DB_USER = "root";               // Update as needed
-    private static final String DB_PASSWORD = "ajay2018";       // Update as needed
-
-    // Load the JDBC Driver in static block once per class loading
-    static {
-        try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-        } catch (ClassNotFoundException e) {
-            System.err.println("MySQL JDBC Driver not found.");
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Returns a new database connection.
-     * Caller should close connection when done.
-     */
-    public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(JDBC_URL, DB_USER, DB_PASSWORD);
-    }
-}
+package db_config;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+
+public class GetConnection {
+    private static final ReadWriteRouter ROUTER;
+
+    // Load the JDBC Driver in static block once per class loading, then set up the pools
+    static {
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            System.err.println("MySQL JDBC Driver not found.");
+            e.printStackTrace();
+        }
+        ConnectionPool primary = new ConnectionPool(PoolConfig.load("db"));
+        ConnectionPool replica = PoolConfig.isConfigured("db.replica")
+                ? new ConnectionPool(PoolConfig.load("db.replica"))
+                : null;
+        ROUTER = new ReadWriteRouter(primary, replica, PoolConfig.getLong("db.replica.readYourWritesMs", 5_000L));
+    }
+
+    /**
+     * Borrows a connection to the primary database.
+     * Caller should close connection when done; closing returns it to the pool.
+     */
+    public static Connection getConnection() throws SQLException {
+        return ROUTER.getWriteConnection();
+    }
+
+    /** Borrows a connection for a read-only query; served by the replica when one is configured. */
+    public static Connection getReadConnection() throws SQLException {
+        return ROUTER.getReadConnection();
+    }
+
+    /** Like {@link #getReadConnection()}, but reads the primary right after the vendor's own writes. */
+    public static Connection getReadConnection(int vendorId) throws SQLException {
+        return ROUTER.getReadConnection(vendorId);
+    }
+
+    /** Call after a successful write on behalf of a vendor. */
+    public static void recordWrite(int vendorId) {
+        ROUTER.recordWrite(vendorId);
+    }
+
+    /** The primary pool, for monitoring. */
+    public static ConnectionPool getPool() {
+        return ROUTER.getPrimary();
+    }
+
+    public static ReadWriteRouter getRouter() {
+        return ROUTER;
+    }
+
+    /** Closes the pools. Called once when the web application stops. */
+    public static void shutdown() {
+        ROUTER.close();
+    }
+}
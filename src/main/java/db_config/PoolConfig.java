@@ -0,0 +1,132 @@
+package db_config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Connection pool settings read from db.properties on the classpath.
+ * Environment variables (VMMS_DB_URL, VMMS_DB_POOL_MAXSIZE, ...) and
+ * system properties override the file.
+ */
+public class PoolConfig {
+    private static final String RESOURCE = "db.properties";
+    private static final Properties FILE = loadFile();
+
+    private final String name;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long connectionTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long validationIntervalMs;
+    private final int validationTimeoutSec;
+    private final long housekeepingIntervalMs;
+    private final int statementCacheSize;
+
+    private PoolConfig(String prefix) {
+        this.name = prefix;
+        this.url = get(prefix + ".url", null);
+        this.user = get(prefix + ".user", get("db.user", null));
+        this.password = get(prefix + ".password", get("db.password", null));
+        this.maxSize = Math.max(1, getInt(prefix, "maxSize", 20));
+        this.minIdle = Math.min(maxSize, Math.max(0, getInt(prefix, "minIdle", 4)));
+        this.connectionTimeoutMs = getLong(prefix, "connectionTimeoutMs", 30_000L);
+        this.idleTimeoutMs = getLong(prefix, "idleTimeoutMs", 600_000L);
+        this.maxLifetimeMs = getLong(prefix, "maxLifetimeMs", 1_800_000L);
+        this.validationIntervalMs = getLong(prefix, "validationIntervalMs", 500L);
+        this.validationTimeoutSec = getInt(prefix, "validationTimeoutSec", 2);
+        this.housekeepingIntervalMs = Math.max(1_000L, getLong(prefix, "housekeepingIntervalMs", 30_000L));
+        this.statementCacheSize = Math.max(0, getInt(prefix, "statementCacheSize", 64));
+    }
+
+    /**
+     * Loads the settings for the pool whose keys start with the given prefix
+     * ("db" for the primary database). Pool tuning keys fall back to db.pool.*.
+     */
+    public static PoolConfig load(String prefix) {
+        return new PoolConfig(prefix);
+    }
+
+    /** Returns true when a JDBC url is configured for the given prefix. */
+    public static boolean isConfigured(String prefix) {
+        String url = get(prefix + ".url", null);
+        return url != null && !url.trim().isEmpty();
+    }
+
+    /** Looks up a single setting: environment, then system property, then db.properties. */
+    public static String get(String key, String defaultValue) {
+        String env = System.getenv("VMMS_" + key.toUpperCase().replace('.', '_'));
+        if (env != null) {
+            return env;
+        }
+        String value = System.getProperty(key, FILE.getProperty(key));
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid integer for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private static int getInt(String prefix, String key, int defaultValue) {
+        return getInt(prefix + ".pool." + key, getInt("db.pool." + key, defaultValue));
+    }
+
+    private static long getLong(String prefix, String key, long defaultValue) {
+        return getLong(prefix + ".pool." + key, getLong("db.pool." + key, defaultValue));
+    }
+
+    private static Properties loadFile() {
+        Properties props = new Properties();
+        try (InputStream in = PoolConfig.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (in != null) {
+                props.load(in);
+            } else {
+                System.err.println(RESOURCE + " not found on classpath, using environment only.");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return props;
+    }
+
+    // Getters
+    public String getName() { return name; }
+    public String getUrl() { return url; }
+    public String getUser() { return user; }
+    public String getPassword() { return password; }
+    public int getMaxSize() { return maxSize; }
+    public int getMinIdle() { return minIdle; }
+    public long getConnectionTimeoutMs() { return connectionTimeoutMs; }
+    public long getIdleTimeoutMs() { return idleTimeoutMs; }
+    public long getMaxLifetimeMs() { return maxLifetimeMs; }
+    public long getValidationIntervalMs() { return validationIntervalMs; }
+    public int getValidationTimeoutSec() { return validationTimeoutSec; }
+    public long getHousekeepingIntervalMs() { return housekeepingIntervalMs; }
+    public int getStatementCacheSize() { return statementCacheSize; }
+}
@@ -0,0 +1,80 @@
+package db_config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Invocation handler behind the Connection proxies handed out by
+ * {@link ConnectionPool}. close() gives the physical connection back to the
+ * pool, single-argument prepareStatement/prepareCall go through the
+ * connection's {@link StatementCache}, and every other call is forwarded.
+ * Statements the cache does not keep are wrapped so their executions are
+ * still counted in the pool's stats.
+ */
+class PooledConnection implements InvocationHandler {
+
+    private final ConnectionPool.PooledEntry entry;
+    private final ConnectionPool pool;
+    private boolean closed;
+
+    private PooledConnection(ConnectionPool.PooledEntry entry, ConnectionPool pool) {
+        this.entry = entry;
+        this.pool = pool;
+    }
+
+    static Connection wrap(ConnectionPool.PooledEntry entry, ConnectionPool pool) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new PooledConnection(entry, pool));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                if (!closed) {
+                    closed = true;
+                    pool.release(entry);
+                }
+                return null;
+            case "isClosed":
+                return closed || entry.getConnection().isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "PooledConnection[" + entry.getConnection() + (closed ? ", returned]" : "]");
+            default:
+                break;
+        }
+        if (closed) {
+            throw new SQLException("Connection has already been returned to the pool");
+        }
+        String name = method.getName();
+        if (name.equals("prepareStatement") || name.equals("prepareCall") || name.equals("createStatement")) {
+            pool.getStats().statementsPrepared.increment();
+        }
+        StatementCache cache = entry.getStatementCache();
+        if (cache != null && StatementCache.isCacheable(method, args)) {
+            String sql = (String) args[0];
+            return name.equals("prepareCall")
+                    ? cache.prepareCall((Connection) proxy, sql)
+                    : cache.prepareStatement((Connection) proxy, sql);
+        }
+        Object result;
+        try {
+            result = method.invoke(entry.getConnection(), args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (result instanceof Statement) {
+            result = StatementCache.counting((Statement) result, method.getReturnType(), pool.getStats());
+        }
+        return result;
+    }
+}
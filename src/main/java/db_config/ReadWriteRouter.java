@@ -0,0 +1,90 @@
+package db_config;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends writes to the primary pool and reads to the replica pool.
+ *
+ * A vendor that wrote within the last read-your-writes window keeps reading
+ * from the primary, so they never see replication lag on their own changes.
+ * Reads fall back to the primary when the replica cannot hand out a
+ * connection. Both pools are plain {@link ConnectionPool}s, so any two JDBC
+ * urls (for example two embedded databases) can stand in for them.
+ */
+public class ReadWriteRouter implements AutoCloseable {
+    private static final int PRUNE_EVERY = 1024;
+
+    private final ConnectionPool primary;
+    private final ConnectionPool replica;
+    private final long readYourWritesMs;
+    private final ConcurrentHashMap<Integer, Long> lastWriteByVendor = new ConcurrentHashMap<>();
+    private final AtomicInteger writesSincePrune = new AtomicInteger();
+
+    /**
+     * @param replica the read pool, or null to send everything to the primary
+     * @param readYourWritesMs how long after a write a vendor's reads stay on the primary
+     */
+    public ReadWriteRouter(ConnectionPool primary, ConnectionPool replica, long readYourWritesMs) {
+        this.primary = primary;
+        this.replica = replica;
+        this.readYourWritesMs = readYourWritesMs;
+    }
+
+    /** Connection for writes, and for reads that must see the latest data. */
+    public Connection getWriteConnection() throws SQLException {
+        return primary.getConnection();
+    }
+
+    /** Connection for reads that are not tied to one vendor. */
+    public Connection getReadConnection() throws SQLException {
+        if (replica == null) {
+            return primary.getConnection();
+        }
+        try {
+            return replica.getConnection();
+        } catch (SQLException e) {
+            System.err.println("Replica unavailable, reading from primary: " + e.getMessage());
+            return primary.getConnection();
+        }
+    }
+
+    /** Connection for a vendor's reads; stays on the primary right after that vendor wrote. */
+    public Connection getReadConnection(int vendorId) throws SQLException {
+        if (replica != null && wroteRecently(vendorId)) {
+            return primary.getConnection();
+        }
+        return getReadConnection();
+    }
+
+    /** Marks that the vendor just changed data, starting their read-your-writes window. */
+    public void recordWrite(int vendorId) {
+        if (replica == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        lastWriteByVendor.put(vendorId, now);
+        if (writesSincePrune.incrementAndGet() >= PRUNE_EVERY) {
+            writesSincePrune.set(0);
+            lastWriteByVendor.values().removeIf(at -> now - at > readYourWritesMs);
+        }
+    }
+
+    boolean wroteRecently(int vendorId) {
+        Long at = lastWriteByVendor.get(vendorId);
+        return at != null && System.currentTimeMillis() - at <= readYourWritesMs;
+    }
+
+    public ConnectionPool getPrimary() { return primary; }
+    public ConnectionPool getReplica() { return replica; }
+
+    @Override
+    public void close() {
+        primary.close();
+        if (replica != null) {
+            replica.close();
+        }
+    }
+}
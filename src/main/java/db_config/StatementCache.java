@@ -0,0 +1,220 @@
+package db_config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LRU cache of prepared and callable statements for one pooled connection,
+ * keyed by SQL text.
+ *
+ * A cached statement is handed out behind a proxy; closing the proxy clears
+ * its parameters and closes its result sets but keeps the statement prepared
+ * for the next caller on this connection. A connection is only ever used by
+ * the thread that borrowed it, so the cache is not synchronized.
+ */
+class StatementCache {
+
+    private final Connection connection;
+    private final int maxSize;
+    private final ConnectionPool.Stats stats;
+    private final LinkedHashMap<String, Entry> statements;
+
+    StatementCache(Connection connection, int maxSize, ConnectionPool.Stats stats) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.stats = stats;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    PreparedStatement prepareStatement(Connection owner, String sql) throws SQLException {
+        return (PreparedStatement) checkout(owner, sql, false);
+    }
+
+    CallableStatement prepareCall(Connection owner, String sql) throws SQLException {
+        return (CallableStatement) checkout(owner, sql, true);
+    }
+
+    private Object checkout(Connection owner, String sql, boolean callable) throws SQLException {
+        String key = callable ? "{call}" + sql : sql;
+        Entry entry = statements.get(key);
+        if (entry != null && !entry.inUse) {
+            stats.statementHits.increment();
+            return entry.checkout(owner);
+        }
+        stats.statementMisses.increment();
+        PreparedStatement raw = callable ? connection.prepareCall(sql) : connection.prepareStatement(sql);
+        if (entry != null) {
+            // Same SQL is already open on this connection (nested use); don't cache the second copy
+            return counting(raw, callable ? CallableStatement.class : PreparedStatement.class, stats);
+        }
+        entry = new Entry(raw, callable, stats);
+        statements.put(key, entry);
+        evictOverflow();
+        return entry.checkout(owner);
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> it = statements.values().iterator();
+        while (statements.size() > maxSize && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            stats.statementEvictions.increment();
+            if (eldest.inUse) {
+                eldest.evicted = true;   // closed for real when the borrower closes it
+            } else {
+                eldest.closeQuietly();
+            }
+        }
+    }
+
+    /** Called when the connection goes back to the pool: reclaims statements the borrower leaked. */
+    void reset() {
+        for (Entry entry : statements.values()) {
+            if (entry.inUse) {
+                entry.release();
+            }
+        }
+    }
+
+    /** A cached statement and the result set opened through its current checkout. */
+    private static final class Entry {
+        private final PreparedStatement statement;
+        private final Class<?> type;
+        private final ConnectionPool.Stats stats;
+        private ResultSet openResult;
+        private Handler current;
+        private boolean inUse;
+        private boolean evicted;
+
+        Entry(PreparedStatement statement, boolean callable, ConnectionPool.Stats stats) {
+            this.statement = statement;
+            this.type = callable ? CallableStatement.class : PreparedStatement.class;
+            this.stats = stats;
+        }
+
+        Object checkout(Connection owner) {
+            inUse = true;
+            current = new Handler(this, owner);
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, current);
+        }
+
+        void release() {
+            current.closed = true;
+            current = null;
+            inUse = false;
+            if (openResult != null) {
+                try {
+                    openResult.close();
+                } catch (SQLException ignored) {
+                    // statement is reset below either way
+                }
+                openResult = null;
+            }
+            if (evicted) {
+                closeQuietly();
+                return;
+            }
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                evicted = true;
+                closeQuietly();
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+                // connection may already be gone
+            }
+        }
+    }
+
+    /** Proxy for one checkout; stale proxies stop working once closed. */
+    private static final class Handler implements InvocationHandler {
+        private final Entry entry;
+        private final Connection owner;
+        private boolean closed;
+
+        Handler(Entry entry, Connection owner) {
+            this.entry = entry;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        entry.release();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || entry.statement.isClosed();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + entry.statement + "]";
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Statement is closed");
+            }
+            if (isExecute(method)) {
+                entry.stats.statementsExecuted.increment();
+            }
+            Object result;
+            try {
+                result = method.invoke(entry.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof ResultSet) {
+                // A statement has one current result set; re-executing closes the previous one
+                entry.openResult = (ResultSet) result;
+            }
+            return result;
+        }
+    }
+
+    /** Wraps a statement that is not cached so that its executions are counted too. */
+    static Object counting(Statement statement, Class<?> type, ConnectionPool.Stats stats) {
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if (isExecute(method)) {
+                stats.statementsExecuted.increment();
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private static boolean isExecute(Method method) {
+        return method.getName().startsWith("execute");
+    }
+
+    static boolean isCacheable(Method method, Object[] args) {
+        String name = method.getName();
+        return (name.equals("prepareStatement") || name.equals("prepareCall"))
+                && args != null && args.length == 1;
+    }
+}
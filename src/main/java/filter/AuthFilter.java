@@ -1,5 +1,97 @@
 package filter;
 
-public class AuthFilter {
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
+import implementor.RevokedSessions;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import util.JsonWriter;
+
+/**
+ * Authenticates requests to the role servlets with the signed token issued
+ * by AuthServlet at login, sent as "Authorization: Bearer <token>" or in the
+ * vmms_auth cookie. The check is a signature verification and an in-memory
+ * revocation lookup; no query is made per request.
+ *
+ * On success the request carries the attributes userId (Integer), role and
+ * authClaims ({@link AuthTokens.Claims}).
+ */
+@WebFilter(urlPatterns = { "/AdminServlet", "/VendorServlet", "/DeliveryServlet", "/CalculatorServlet" })
+public class AuthFilter extends HttpFilter {
+    private static final long serialVersionUID = 1L;
+
+    public static final String COOKIE_NAME = "vmms_auth";
+    public static final String ATTR_USER_ID = "userId";
+    public static final String ATTR_ROLE = "role";
+    public static final String ATTR_CLAIMS = "authClaims";
+
+    // Roles allowed per servlet path; a path not listed is open to any signed-in user
+    private static final Map<String, Set<String>> ALLOWED_ROLES = new HashMap<>();
+    static {
+        ALLOWED_ROLES.put("/AdminServlet", roles("Admin"));
+        ALLOWED_ROLES.put("/VendorServlet", roles("Vendor", "Admin"));
+        ALLOWED_ROLES.put("/DeliveryServlet", roles("DeliveryPartner", "Admin"));
+    }
+
+    @Override
+    protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        AuthTokens.Claims claims = AuthTokens.verify(readToken(request));
+        if (claims == null || RevokedSessions.shared().isRevoked(claims.getUserId(), claims.getIssuedAt())) {
+            response.setHeader("WWW-Authenticate", "Bearer");
+            sendError(response, HttpServletResponse.SC_UNAUTHORIZED, "Not signed in or session expired");
+            return;
+        }
+        Set<String> allowed = ALLOWED_ROLES.get(request.getServletPath());
+        if (allowed != null && !allowed.contains(claims.getRole())) {
+            sendError(response, HttpServletResponse.SC_FORBIDDEN, "Not allowed for role " + claims.getRole());
+            return;
+        }
+        request.setAttribute(ATTR_USER_ID, claims.getUserId());
+        request.setAttribute(ATTR_ROLE, claims.getRole());
+        request.setAttribute(ATTR_CLAIMS, claims);
+        chain.doFilter(request, response);
+    }
+
+    /** The token from the Authorization header or the vmms_auth cookie, or null. */
+    public static String readToken(HttpServletRequest request) {
+        String header = request.getHeader("Authorization");
+        if (header != null && header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return header.substring(7).trim();
+        }
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (COOKIE_NAME.equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Answers status with {"error": message}; shared with CsrfFilter. */
+    static void sendError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        JsonWriter out = new JsonWriter(response.getWriter());
+        out.beginObject().field("error", message).endObject();
+        out.flush();
+    }
+
+    private static Set<String> roles(String... roles) {
+        return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(roles)));
+    }
 }
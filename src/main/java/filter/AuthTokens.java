@@ -0,0 +1,146 @@
+package filter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import db_config.PoolConfig;
+
+/**
+ * Issues and verifies the signed session tokens used by {@link AuthFilter}.
+ *
+ * A token is base64url(payload) + "." + base64url(HMAC-SHA256(payload)),
+ * where the payload is "v1.userId.role.issuedAtMillis.expiresAtMillis".
+ * Verification needs only the secret (auth.tokenSecret, base64), so no
+ * database access is involved. Without a configured secret a random one is
+ * generated, and tokens stop working when the application restarts.
+ */
+public final class AuthTokens {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    public static final long TTL_MILLIS = PoolConfig.getLong("auth.tokenTtlMs", 8 * 60 * 60 * 1000L);
+    private static final byte[] SECRET = loadSecret();
+
+    // Mac instances are not thread-safe and costly to create; keep one per thread
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(SECRET, ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 unavailable", e);
+        }
+    });
+    // The text to sign as bytes, so it goes to the Mac in one update call; grown as needed
+    private static final ThreadLocal<byte[][]> INPUT = ThreadLocal.withInitial(() -> new byte[][] { new byte[256] });
+
+    /** The verified contents of a token. */
+    public static final class Claims {
+        private final int userId;
+        private final String role;
+        private final long issuedAt;
+        private final long expiresAt;
+
+        Claims(int userId, String role, long issuedAt, long expiresAt) {
+            this.userId = userId;
+            this.role = role;
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public int getUserId() { return userId; }
+        public String getRole() { return role; }
+        public long getIssuedAt() { return issuedAt; }
+        public long getExpiresAt() { return expiresAt; }
+    }
+
+    private AuthTokens() {
+    }
+
+    /** A token for the user, valid for auth.tokenTtlMs from now. */
+    public static String issue(int userId, String role) {
+        long now = System.currentTimeMillis();
+        String payload = "v1." + userId + "." + role + "." + now + "." + (now + TTL_MILLIS);
+        String encoded = ENCODER.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        return encoded + "." + ENCODER.encodeToString(sign(encoded));
+    }
+
+    /** The token's claims if its signature is valid and it has not expired, otherwise null. */
+    public static Claims verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.lastIndexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return null;
+        }
+        String encoded = token.substring(0, dot);
+        byte[] signature;
+        byte[] payload;
+        try {
+            signature = DECODER.decode(token.substring(dot + 1));
+            payload = DECODER.decode(encoded);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(signature, sign(encoded))) {   // constant-time
+            return null;
+        }
+        String[] parts = new String(payload, StandardCharsets.UTF_8).split("\\.");
+        if (parts.length != 5 || !"v1".equals(parts[0])) {
+            return null;
+        }
+        try {
+            long expiresAt = Long.parseLong(parts[4]);
+            if (System.currentTimeMillis() >= expiresAt) {
+                return null;
+            }
+            return new Claims(Integer.parseInt(parts[1]), parts[2], Long.parseLong(parts[3]), expiresAt);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** HMAC-SHA256 of text with the token secret, on this thread's Mac. */
+    static byte[] sign(String text) {
+        byte[][] holder = INPUT.get();
+        int n = text.length();
+        if (holder[0].length < n) {
+            holder[0] = new byte[Math.max(n, holder[0].length * 2)];
+        }
+        byte[] input = holder[0];
+        for (int i = 0; i < n; i++) {
+            input[i] = (byte) text.charAt(i);   // base64url and ASCII ids only
+        }
+        Mac mac = mac();
+        mac.update(input, 0, n);
+        return mac.doFinal();
+    }
+
+    /** This thread's Mac, keyed with the token secret and ready for use. */
+    static Mac mac() {
+        return MAC.get();
+    }
+
+    private static byte[] loadSecret() {
+        String configured = PoolConfig.get("auth.tokenSecret", null);
+        if (configured != null && !configured.trim().isEmpty()) {
+            byte[] key = Base64.getDecoder().decode(configured.trim());
+            if (key.length < 32) {
+                throw new IllegalStateException("auth.tokenSecret must be at least 32 bytes (base64)");
+            }
+            return key;
+        }
+        System.err.println("auth.tokenSecret is not set; using a random secret, sessions end on restart");
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+}
@@ -1,5 +1,152 @@
 package filter;
 
-public class CsrfFilter {
+import java.io.IOException;
 
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+
+/**
+ * Rejects state-changing requests to the role servlets that do not carry the
+ * CSRF token of the caller's session, in the X-CSRF-Token header or the _csrf
+ * parameter.
+ *
+ * The token is HMAC-SHA256("csrf." + session key), base64url, where the
+ * session key is the vmms_auth cookie (or, without one, the servlet session
+ * id). Nothing is stored: the expected token is recomputed and compared in
+ * constant time, using per-thread buffers so the check allocates nothing.
+ * Requests carrying a bearer token, or with no cookie credential at all,
+ * cannot be forged cross-site and are passed through. Other Authorization
+ * schemes (Basic, Digest) are resent by the browser on its own, so they
+ * still need the token.
+ */
+@WebFilter(urlPatterns = { "/AdminServlet", "/VendorServlet", "/DeliveryServlet", "/CalculatorServlet" })
+public class CsrfFilter extends HttpFilter {
+    private static final long serialVersionUID = 1L;
+
+    public static final String HEADER_NAME = "X-CSRF-Token";
+    public static final String PARAMETER_NAME = "_csrf";
+
+    private static final byte[] PREFIX = { 'c', 's', 'r', 'f', '.' };
+    private static final int MAC_LENGTH = 32;
+    private static final int TOKEN_LENGTH = 43;   // base64url of 32 bytes, unpadded
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    @Override
+    protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (isSafe(request.getMethod()) || hasBearerToken(request)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String sessionKey = sessionKey(request);
+        if (sessionKey == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String presented = request.getHeader(HEADER_NAME);
+        if (presented == null) {
+            presented = request.getParameter(PARAMETER_NAME);
+        }
+        if (!matches(sessionKey, presented)) {
+            AuthFilter.sendError(response, HttpServletResponse.SC_FORBIDDEN, "Missing or invalid CSRF token");
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    /** The CSRF token for a session key (the auth token, or the servlet session id). */
+    public static String tokenFor(String sessionKey) {
+        return new String(expected(sessionKey), 0, TOKEN_LENGTH);
+    }
+
+    /** Whether presented is the token for sessionKey; constant-time in the token's contents. */
+    public static boolean matches(String sessionKey, String presented) {
+        if (presented == null || presented.length() != TOKEN_LENGTH) {
+            return false;
+        }
+        char[] expected = expected(sessionKey);
+        int diff = 0;
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            diff |= expected[i] ^ presented.charAt(i);
+        }
+        return diff == 0;
+    }
+
+    private static String sessionKey(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (AuthFilter.COOKIE_NAME.equals(cookie.getName()) && !cookie.getValue().isEmpty()) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        HttpSession session = request.getSession(false);
+        return session == null ? null : session.getId();
+    }
+
+    // Base64url of the HMAC, in this thread's buffer
+    private static char[] expected(String sessionKey) {
+        Scratch s = SCRATCH.get();
+        int n = PREFIX.length + sessionKey.length();
+        if (s.input.length < n) {
+            s.input = new byte[Math.max(n, s.input.length * 2)];
+        }
+        byte[] input = s.input;
+        System.arraycopy(PREFIX, 0, input, 0, PREFIX.length);
+        for (int i = PREFIX.length; i < n; i++) {
+            input[i] = (byte) sessionKey.charAt(i - PREFIX.length);   // cookie values and session ids are ASCII
+        }
+        Mac mac = AuthTokens.mac();
+        mac.update(input, 0, n);
+        try {
+            mac.doFinal(s.mac, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] in = s.mac;
+        char[] out = s.token;
+        int o = 0;
+        int i = 0;
+        for (; i + 3 <= MAC_LENGTH; i += 3) {
+            int bits = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8 | (in[i + 2] & 0xff);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[o++] = ALPHABET[(bits >>> 6) & 0x3f];
+            out[o++] = ALPHABET[bits & 0x3f];
+        }
+        int bits = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8;   // the last two bytes
+        out[o++] = ALPHABET[bits >>> 18];
+        out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+        out[o] = ALPHABET[(bits >>> 6) & 0x3f];
+        return out;
+    }
+
+    // Same test as AuthFilter: the scheme is case-insensitive
+    private static boolean hasBearerToken(HttpServletRequest request) {
+        String header = request.getHeader("Authorization");
+        return header != null && header.regionMatches(true, 0, "Bearer ", 0, 7);
+    }
+
+    private static boolean isSafe(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+
+    private static final class Scratch {
+        byte[] input = new byte[256];   // "csrf." + session key; grown for longer keys
+        final byte[] mac = new byte[MAC_LENGTH];
+        final char[] token = new char[TOKEN_LENGTH];
+    }
 }
@@ -0,0 +1,87 @@
+package implementor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import db_config.PoolConfig;
+import operation.LanguageOperations;
+import util.MessageBundles;
+
+/**
+ * LanguageOperations decorator that remembers each user's language, so a page
+ * render does not query language_settings.
+ *
+ * At most language.cacheSize users are kept, least recently used first out.
+ * setLanguagePreference through this instance drops the user's entry; a
+ * change made elsewhere is seen once the entry is evicted. A failed read
+ * answers the default language and is not cached, so the next call retries.
+ */
+public class CachingLanguageImplementor implements LanguageOperations {
+    private static final CachingLanguageImplementor SHARED =
+            new CachingLanguageImplementor(new LanguageImplementor(), PoolConfig.getInt("language.cacheSize", 10_000));
+
+    private final LanguageOperations delegate;
+    private final Map<Integer, String> cache;
+    // Bumped on every invalidation; a load that raced with one is not cached
+    private long invalidations;
+
+    public CachingLanguageImplementor(LanguageOperations delegate, final int capacity) {
+        this.delegate = delegate;
+        this.cache = new LinkedHashMap<Integer, String>(256, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** The cache shared by the application, sized from db.properties. */
+    public static CachingLanguageImplementor shared() {
+        return SHARED;
+    }
+
+    @Override
+    public String getLanguagePreference(int userId) {
+        long seen;
+        synchronized (this) {
+            String language = cache.get(userId);
+            if (language != null) {
+                return language;
+            }
+            seen = invalidations;
+        }
+        // LanguageImplementor reports a failed query as null; other delegates are taken at their word
+        String loaded = delegate instanceof LanguageImplementor
+                ? ((LanguageImplementor) delegate).loadLanguagePreference(userId)
+                : delegate.getLanguagePreference(userId);
+        if (loaded == null) {
+            return MessageBundles.DEFAULT_LANGUAGE;
+        }
+        String language = MessageBundles.canonical(loaded);
+        synchronized (this) {
+            if (seen == invalidations) {
+                cache.put(userId, language);
+            }
+        }
+        return language;
+    }
+
+    @Override
+    public boolean setLanguagePreference(int userId, String languageCode) {
+        if (!MessageBundles.isSupported(languageCode)) {
+            return false;
+        }
+        boolean updated = delegate.setLanguagePreference(userId, languageCode);
+        synchronized (this) {
+            invalidations++;
+            cache.remove(userId);
+        }
+        return updated;
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,200 @@
+package implementor;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import model.ImportReport;
+import model.Product;
+import operation.ProductOperations;
+
+/**
+ * ProductOperations decorator that serves the active catalog from memory.
+ *
+ * The active products are held in an immutable snapshot that is replaced in
+ * one volatile write whenever addProduct, updateProduct, deleteProduct or a
+ * bulk import changes the catalog, and reloaded after the TTL as a safety net for changes made
+ * outside this instance. Reloads after a write read the primary, so the new
+ * snapshot cannot miss the write while the replica catches up. Catalog reads never touch the database and do not
+ * allocate. Returned Product objects are shared: callers must not modify them.
+ * Stock quantities in the snapshot can lag by up to the TTL.
+ */
+public class CachingProductImplementor implements ProductOperations {
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000L;
+    private static final long RETRY_MILLIS = 5_000L;
+    private static final CachingProductImplementor SHARED = new CachingProductImplementor();
+
+    private final ProductOperations delegate;
+    private final long ttlMillis;
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    public CachingProductImplementor() {
+        this(new ProductImplementor(), DEFAULT_TTL_MILLIS);
+    }
+
+    /** The catalog shared by the application's own lookups (calculator, cart pricing). */
+    public static CachingProductImplementor shared() {
+        return SHARED;
+    }
+
+    public CachingProductImplementor(ProductOperations delegate, long ttlMillis) {
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public List<Product> getAllActiveProducts() {
+        return current().products;
+    }
+
+    @Override
+    public Product getProductById(int productId) {
+        Product product = current().find(productId);
+        // Inactive products are not in the snapshot; look them up directly
+        return product != null ? product : delegate.getProductById(productId);
+    }
+
+    @Override
+    public boolean addProduct(Product product) {
+        boolean added = delegate.addProduct(product);
+        if (added) {
+            reload();
+        }
+        return added;
+    }
+
+    @Override
+    public boolean updateProduct(Product product) {
+        boolean updated = delegate.updateProduct(product);
+        if (updated) {
+            reload();
+            StockReservations.shared().invalidate(product.getProductId());
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean deleteProduct(int productId) {
+        boolean deleted = delegate.deleteProduct(productId);
+        if (deleted) {
+            reload();
+        }
+        return deleted;
+    }
+
+    /** The product from the active snapshot only, or null if it is unknown or inactive; never reads the database. */
+    public Product getActiveProductById(int productId) {
+        return current().find(productId);
+    }
+
+    @Override
+    public boolean isProductActive(int productId) {
+        return current().find(productId) != null;
+    }
+
+    @Override
+    public ImportReport addProducts(Iterable<Product> products) {
+        ImportReport report = delegate.addProducts(products);
+        if (report.getImportedRows() > 0) {
+            reload();
+        }
+        return report;
+    }
+
+    @Override
+    public ImportReport importProducts(InputStream csv) {
+        ImportReport report = delegate.importProducts(csv);
+        if (report.getImportedRows() > 0) {
+            reload();
+        }
+        return report;
+    }
+
+    /** Forces the next read to see the database state; use after out-of-band catalog changes. */
+    public void invalidate() {
+        reload();
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            reloadLock.lock();   // first use: everyone waits for the initial load
+            try {
+                if (snapshot == null) {
+                    snapshot = load(null, false);
+                }
+                return snapshot;
+            } finally {
+                reloadLock.unlock();
+            }
+        }
+        if (System.currentTimeMillis() >= s.expiresAt && reloadLock.tryLock()) {
+            // One reader refreshes; the others keep serving the old snapshot meanwhile
+            try {
+                if (snapshot == s) {
+                    snapshot = load(s, false);
+                }
+            } finally {
+                reloadLock.unlock();
+            }
+        }
+        return snapshot;
+    }
+
+    // After a write: read the primary, which already has it
+    private void reload() {
+        reloadLock.lock();
+        try {
+            snapshot = load(snapshot, true);
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    private Snapshot load(Snapshot previous, boolean fromPrimary) {
+        // ProductImplementor reports a failed query as null; other delegates are taken at their word
+        List<Product> products = delegate instanceof ProductImplementor
+                ? ((ProductImplementor) delegate).loadActiveProducts(fromPrimary)
+                : delegate.getAllActiveProducts();
+        long now = System.currentTimeMillis();
+        if (products == null) {
+            // Keep serving the last good catalog (or none yet) and try again shortly
+            long retryAt = now + Math.min(ttlMillis, RETRY_MILLIS);
+            return previous != null
+                    ? new Snapshot(previous.products, previous.ids, previous.byId, retryAt)
+                    : new Snapshot(Collections.<Product>emptyList(), new int[0], new Product[0], retryAt);
+        }
+        Product[] sorted = products.toArray(new Product[0]);
+        Arrays.sort(sorted, (a, b) -> Integer.compare(a.getProductId(), b.getProductId()));
+        int[] ids = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            ids[i] = sorted[i].getProductId();
+        }
+        List<Product> list = Collections.unmodifiableList(new ArrayList<>(products));
+        return new Snapshot(list, ids, sorted, now + ttlMillis);
+    }
+
+    /** Active products, plus their ids sorted for allocation-free lookup. */
+    private static final class Snapshot {
+        final List<Product> products;
+        final int[] ids;
+        final Product[] byId;
+        final long expiresAt;
+
+        Snapshot(List<Product> products, int[] ids, Product[] byId, long expiresAt) {
+            this.products = products;
+            this.ids = ids;
+            this.byId = byId;
+            this.expiresAt = expiresAt;
+        }
+
+        Product find(int productId) {
+            int i = Arrays.binarySearch(ids, productId);
+            return i >= 0 ? byId[i] : null;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package implementor;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import db_config.GetConnection;
+import db_config.PoolConfig;
+import model.CalculatorHistory;
+
+/**
+ * Write-behind store for calculator history.
+ *
+ * Entries go into a bounded lock-free queue and a single writer thread
+ * inserts them in JDBC batches, one transaction per batch, when
+ * calculator.history.batchSize entries are waiting or
+ * calculator.history.flushIntervalMs after the first one. When the queue is
+ * full the overflow policy decides: DROP refuses the entry at once, BLOCK
+ * waits up to calculator.history.blockTimeoutMs for room. Everything queued
+ * is written on shutdown.
+ *
+ * {@link #pending(int)} returns a user's entries that are not yet committed;
+ * read together with the table under {@link #commitLock()} it gives every
+ * entry exactly once.
+ */
+public class CalculatorHistoryWriter {
+    public enum Overflow { DROP, BLOCK }
+
+    private static final CalculatorHistoryWriter SHARED = new CalculatorHistoryWriter(
+            PoolConfig.getInt("calculator.history.queueCapacity", 10_000),
+            PoolConfig.getInt("calculator.history.batchSize", 500),
+            PoolConfig.getLong("calculator.history.flushIntervalMs", 200L),
+            Overflow.valueOf(PoolConfig.get("calculator.history.overflow", "DROP").trim().toUpperCase()),
+            PoolConfig.getLong("calculator.history.blockTimeoutMs", 100L));
+
+    // Same row as sp_add_calculator_entry, with the time the entry was made
+    private static final String INSERT_ENTRY =
+            "INSERT INTO calculator_history (user_id, mode, input_expression, result, timestamp) VALUES (?, ?, ?, ?, ?)";
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int MAX_RESULT_LENGTH = 255;
+
+    private final ConcurrentLinkedQueue<CalculatorHistory> queue = new ConcurrentLinkedQueue<>();
+    // Taken from the queue, not yet committed; entries are added here before they leave the queue
+    private final ConcurrentLinkedQueue<CalculatorHistory> inFlight = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    // Held for writing while a batch commits and leaves inFlight, so a reader never misses or doubles it
+    private final ReadWriteLock commitLock = new ReentrantReadWriteLock();
+
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Overflow overflow;
+    private final long blockTimeoutMs;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedRows = new LongAdder();
+
+    private volatile Thread writer;
+    private volatile boolean running;
+    private boolean stopped;
+
+    public CalculatorHistoryWriter(int capacity, int batchSize, long flushIntervalMs, Overflow overflow,
+            long blockTimeoutMs) {
+        this.capacity = capacity;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = flushIntervalMs;
+        this.overflow = overflow;
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    /** The writer configured from db.properties. */
+    public static CalculatorHistoryWriter shared() {
+        return SHARED;
+    }
+
+    /**
+     * Queues an entry stamped with the current time. False if it is invalid
+     * for calculator_history, or the queue stayed full (or the writer is shut
+     * down) and the entry was dropped.
+     */
+    public boolean submit(int userId, String mode, String inputExpression, String result) {
+        if (!("Normal".equals(mode) || "Billing".equals(mode)) || inputExpression == null
+                || (result != null && result.length() > MAX_RESULT_LENGTH)) {
+            return false;
+        }
+        if (writer == null) {
+            ensureStarted();
+        }
+        if (!reserve()) {
+            dropped.increment();
+            return false;
+        }
+        CalculatorHistory entry = new CalculatorHistory();
+        entry.setUserId(userId);
+        entry.setMode(mode);
+        entry.setInputExpression(inputExpression);
+        entry.setResult(result);
+        entry.setTimestamp(new Timestamp(System.currentTimeMillis()));
+        queue.offer(entry);
+        accepted.increment();
+        Thread t = writer;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+        return true;
+    }
+
+    // Claims one of the capacity slots, waiting for one under BLOCK
+    private boolean reserve() {
+        long deadline = 0;
+        while (running) {
+            int n = queued.get();
+            if (n < capacity) {
+                if (queued.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+                continue;
+            }
+            if (overflow == Overflow.DROP) {
+                return false;
+            }
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+            } else if (now >= deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        return false;
+    }
+
+    /** Held while reading the table so that no batch commits in between; see {@link #pending(int)}. */
+    public ReadWriteLock commitLock() {
+        return commitLock;
+    }
+
+    /** The user's entries not yet committed, newest first. */
+    public List<CalculatorHistory> pending(int userId) {
+        // The queue first: an entry is in inFlight before it leaves the queue, so none is missed
+        Set<CalculatorHistory> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<CalculatorHistory> entries = new ArrayList<>();
+        for (CalculatorHistory e : queue) {
+            if (e.getUserId() == userId && seen.add(e)) {
+                entries.add(e);
+            }
+        }
+        for (CalculatorHistory e : inFlight) {
+            if (e.getUserId() == userId && seen.add(e)) {
+                entries.add(e);
+            }
+        }
+        entries.sort((a, b) -> b.getTimestamp().compareTo(a.getTimestamp()));
+        return entries;
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    private synchronized void ensureStarted() {
+        if (writer == null && !stopped) {
+            running = true;
+            Thread t = new Thread(this::run, "vmms-calculator-history-writer");
+            t.setDaemon(true);
+            writer = t;
+            t.start();
+        }
+    }
+
+    /** Stops accepting entries and writes everything already queued. */
+    public void shutdown() {
+        Thread t;
+        synchronized (this) {
+            t = writer;
+            running = false;
+            stopped = true;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        List<CalculatorHistory> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            if (queue.isEmpty()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMs));
+                continue;
+            }
+            // Group commit: give the rest of a burst a moment to arrive
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+            while (running && queued.get() < batchSize) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(wait);
+            }
+            CalculatorHistory e;
+            while (batch.size() < batchSize && (e = queue.peek()) != null) {
+                inFlight.add(e);
+                queue.poll();
+                batch.add(e);
+            }
+            queued.addAndGet(-batch.size());
+            writeWithRetry(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeWithRetry(List<CalculatorHistory> batch) {
+        while (true) {
+            commitLock.writeLock().lock();
+            try {
+                write(batch);
+                written.add(batch.size());
+                batches.increment();
+                inFlight.clear();
+                return;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                if (isRowError(e)) {
+                    // One bad row (e.g. a deleted user) must not hold back the rest
+                    writeOneByOne(batch);
+                    inFlight.clear();
+                    return;
+                }
+                if (!running) {
+                    System.err.println("Dropped " + batch.size() + " calculator history entries at shutdown");
+                    failedRows.add(batch.size());
+                    inFlight.clear();
+                    return;
+                }
+            } finally {
+                commitLock.writeLock().unlock();
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MS));
+        }
+    }
+
+    private void write(List<CalculatorHistory> batch) throws SQLException {
+        try (Connection con = GetConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(INSERT_ENTRY)) {
+                for (CalculatorHistory entry : batch) {
+                    bind(ps, entry);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void writeOneByOne(List<CalculatorHistory> batch) {
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(INSERT_ENTRY)) {
+            for (CalculatorHistory entry : batch) {
+                try {
+                    bind(ps, entry);
+                    ps.executeUpdate();
+                    written.increment();
+                } catch (SQLException e) {
+                    failedRows.increment();
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            failedRows.add(batch.size());
+        }
+    }
+
+    private static void bind(PreparedStatement ps, CalculatorHistory entry) throws SQLException {
+        ps.setInt(1, entry.getUserId());
+        ps.setString(2, entry.getMode());
+        ps.setString(3, entry.getInputExpression());
+        ps.setString(4, entry.getResult());
+        ps.setTimestamp(5, (Timestamp) entry.getTimestamp());
+    }
+
+    // Data (22) or integrity constraint (23) errors come from a row, not from the connection
+    private static boolean isRowError(SQLException e) {
+        SQLException cause = e instanceof BatchUpdateException && e.getNextException() != null ? e.getNextException() : e;
+        String state = cause.getSQLState();
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+
+    public long getAccepted() { return accepted.sum(); }
+    public long getDropped() { return dropped.sum(); }
+    public long getWritten() { return written.sum(); }
+    public long getBatches() { return batches.sum(); }
+    public long getFailedRows() { return failedRows.sum(); }
+
+    @Override
+    public String toString() {
+        return "queued=" + getQueueDepth() + ", accepted=" + getAccepted() + ", dropped=" + getDropped()
+                + ", written=" + getWritten() + ", batches=" + getBatches() + ", failedRows=" + getFailedRows();
+    }
+}
@@ -1,53 +1,109 @@
 package implementor;
 
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import db_config.GetConnection;
+import db_config.PoolConfig;
 import model.CalculatorHistory;
+import model.Product;
 import operation.CalculatorOperations;
+import util.Expression;
 
 public class CalculatorImplementor implements CalculatorOperations {
+    private static final int EXPRESSION_CACHE_CAPACITY = PoolConfig.getInt("calculator.expressionCacheSize", 1000);
 
+    // Compiled expressions by source text, one cache per mode
+    private static final Map<String, Expression> NORMAL_CACHE = expressionCache();
+    private static final Map<String, Expression> BILLING_CACHE = expressionCache();
+
+    // Billing prices come from the active catalog snapshot only, so an unknown or
+    // inactive product id is refused without a database query
+    private static final CachingProductImplementor CATALOG = CachingProductImplementor.shared();
+    private static final Expression.Prices PRICES = new Expression.Prices() {
+        @Override
+        public BigDecimal unitPrice(int productId) {
+            Product p = CATALOG.getActiveProductById(productId);
+            return p != null ? BigDecimal.valueOf(p.getUnitPrice()) : null;
+        }
+
+        @Override
+        public BigDecimal boxPrice(int productId) {
+            Product p = CATALOG.getActiveProductById(productId);
+            return p != null ? BigDecimal.valueOf(p.getBoxPrice()) : null;
+        }
+    };
+
+    // Entries are written in the background; see CalculatorHistoryWriter
     @Override
     public boolean addCalculatorEntry(int userId, String mode, String inputExpression, String result) {
-        String call = "{CALL sp_add_calculator_entry(?, ?, ?, ?)}";
-        try (Connection con = GetConnection.getConnection();
-             CallableStatement cs = con.prepareCall(call)) {
-            cs.setInt(1, userId);
-            cs.setString(2, mode);
-            cs.setString(3, inputExpression);
-            cs.setString(4, result);
-            cs.execute();
-            return true;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
+        return CalculatorHistoryWriter.shared().submit(userId, mode, inputExpression, result);
     }
 
     @Override
     public List<CalculatorHistory> getCalculatorHistory(int userId) {
-        List<CalculatorHistory> historyList = new ArrayList<>();
-        String call = "{CALL sp_get_calculator_history(?)}";
-        try (Connection con = GetConnection.getConnection();
-             CallableStatement cs = con.prepareCall(call)) {
-            cs.setInt(1, userId);
-            ResultSet rs = cs.executeQuery();
-            while (rs.next()) {
-                CalculatorHistory entry = new CalculatorHistory();
-                entry.setCalcId(rs.getInt("calc_id"));
-                entry.setUserId(rs.getInt("user_id"));
-                entry.setMode(rs.getString("mode"));
-                entry.setInputExpression(rs.getString("input_expression"));
-                entry.setResult(rs.getString("result"));
-                entry.setTimestamp(rs.getTimestamp("timestamp"));
-                historyList.add(entry);
+        List<CalculatorHistory> historyList;
+        CalculatorHistoryWriter writer = CalculatorHistoryWriter.shared();
+        // No batch commits while the table is read, so queued entries are neither missed nor repeated
+        writer.commitLock().readLock().lock();
+        try {
+            historyList = writer.pending(userId);
+            String call = "{CALL sp_get_calculator_history(?)}";
+            try (Connection con = GetConnection.getConnection();
+                 CallableStatement cs = con.prepareCall(call)) {
+                cs.setInt(1, userId);
+                ResultSet rs = cs.executeQuery();
+                while (rs.next()) {
+                    CalculatorHistory entry = new CalculatorHistory();
+                    entry.setCalcId(rs.getInt("calc_id"));
+                    entry.setUserId(userId);   // the procedure does not return user_id
+                    entry.setMode(rs.getString("mode"));
+                    entry.setInputExpression(rs.getString("input_expression"));
+                    entry.setResult(rs.getString("result"));
+                    entry.setTimestamp(rs.getTimestamp("timestamp"));
+                    historyList.add(entry);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        } finally {
+            writer.commitLock().readLock().unlock();
         }
         return historyList;
     }
+
+    @Override
+    public String evaluate(String mode, String expression) {
+        boolean billing;
+        if ("Billing".equals(mode)) {
+            billing = true;
+        } else if ("Normal".equals(mode)) {
+            billing = false;
+        } else {
+            throw new Expression.ExpressionException("Mode must be Normal or Billing");
+        }
+        Map<String, Expression> cache = billing ? BILLING_CACHE : NORMAL_CACHE;
+        Expression compiled = cache.get(expression);
+        if (compiled == null) {
+            compiled = Expression.compile(expression, billing);   // invalid input throws and is not cached
+            cache.put(expression, compiled);
+        }
+        return compiled.evaluateToString(PRICES);
+    }
+
+    private static Map<String, Expression> expressionCache() {
+        return Collections.synchronizedMap(new LinkedHashMap<String, Expression>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+                return size() > EXPRESSION_CACHE_CAPACITY;
+            }
+        });
+    }
 }
@@ -0,0 +1,754 @@
+package implementor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import db_config.GetConnection;
+import db_config.PoolConfig;
+import model.CartChange;
+import model.CartItem;
+import model.Product;
+import operation.OutOfStockException;
+import operation.ProductOperations;
+
+/**
+ * Vendors' carts held in memory, so cart reads and edits do not touch the
+ * database.
+ *
+ * A cart is loaded from cart_items the first time its vendor uses it on this
+ * node. Edits only mark the affected lines dirty; every cart.flushIntervalMs
+ * the dirty lines of all carts are written in one transaction, each line as
+ * a single upsert or delete of its final state however often it changed.
+ * Checkout writes the vendor's cart first and keeps it locked until the
+ * order is placed; edits that arrive meanwhile wait and then go to the
+ * emptied cart. Carts idle for cart.idleEvictMs,
+ * or the least recently used beyond cart.maxCarts, are dropped from memory
+ * once written. Pending edits are written on shutdown.
+ *
+ * Lines loaded from the table keep their cart_item_id as cart id; lines
+ * added here get a negative id until the cart is next loaded.
+ *
+ * Every edit also holds the stock for the cart's lines of that product in
+ * {@link StockReservations}; an edit that needs more stock than is free is
+ * refused and leaves the cart as it was.
+ */
+public class CartStore {
+    private static final CartStore SHARED = new CartStore(
+            PoolConfig.getInt("cart.maxCarts", 10_000),
+            PoolConfig.getLong("cart.idleEvictMs", 30 * 60 * 1000L),
+            PoolConfig.getLong("cart.flushIntervalMs", 2000L));
+
+    private static final String SELECT_CART =
+            "SELECT cart_item_id, product_id, qty, mode, price FROM cart_items WHERE vendor_id = ? ORDER BY cart_item_id";
+    private static final String SELECT_LINE_VENDOR = "SELECT vendor_id FROM cart_items WHERE cart_item_id = ?";
+    private static final String UPSERT_LINE =
+            "INSERT INTO cart_items (vendor_id, product_id, qty, mode, price) VALUES (?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE qty = VALUES(qty), price = VALUES(price)";
+    private static final String DELETE_LINE = "DELETE FROM cart_items WHERE vendor_id = ? AND product_id = ? AND mode = ?";
+
+    private final ConcurrentHashMap<Integer, Cart> carts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Integer> lineVendors = new ConcurrentHashMap<>();
+    private final Set<Integer> dirtyVendors = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextNewLineId = new AtomicInteger();
+    private final Object flushLock = new Object();   // one flush at a time keeps writes in order
+
+    private final int maxCarts;
+    private final long idleEvictMs;
+    private final long flushIntervalMs;
+    private ScheduledExecutorService flusher;
+
+    public CartStore(int maxCarts, long idleEvictMs, long flushIntervalMs) {
+        this.maxCarts = maxCarts;
+        this.idleEvictMs = idleEvictMs;
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /** The store configured from db.properties. */
+    public static CartStore shared() {
+        return SHARED;
+    }
+
+    /** Schedules the periodic flush. Called once at application start. */
+    public synchronized void start() {
+        if (flusher == null && flushIntervalMs > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "vmms-cart-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flushAndEvict, flushIntervalMs, flushIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Stops the periodic flush and writes every pending edit. */
+    public void shutdown() {
+        synchronized (this) {
+            if (flusher != null) {
+                flusher.shutdownNow();
+                flusher = null;
+            }
+        }
+        flushAll();
+    }
+
+    /** Adds qty of the product to the vendor's cart line for mode, at price. */
+    public boolean add(int vendorId, int productId, int qty, String mode, double price) {
+        if (qty <= 0 || !isValidMode(mode)) {
+            return false;
+        }
+        while (true) {
+            Cart cart = cart(vendorId);
+            if (cart == null) {
+                return false;
+            }
+            synchronized (cart) {
+                awaitCheckout(cart);
+                if (cart.evicted) {
+                    continue;
+                }
+                Map<Long, Line> backup = cart.copyLines();
+                Set<Long> dirtyBefore = new HashSet<>(cart.dirty);
+                cart.add(productId, mode, qty, price);
+                if (!holdStock(cart, productId)) {
+                    cart.restore(backup, dirtyBefore);
+                    return false;
+                }
+                return true;
+            }
+        }
+    }
+
+    /** Sets a line's quantity and mode; a line already in that mode takes the new quantity instead. */
+    public boolean update(int cartId, int qty, String mode) {
+        if (qty <= 0 || !isValidMode(mode)) {
+            return false;
+        }
+        while (true) {
+            Cart cart = cartOfLine(cartId);
+            if (cart == null) {
+                return false;
+            }
+            synchronized (cart) {
+                awaitCheckout(cart);
+                if (cart.evicted) {
+                    continue;
+                }
+                Line line = cart.find(cartId);
+                if (line == null) {
+                    return false;
+                }
+                int productId = line.productId;
+                Map<Long, Line> backup = cart.copyLines();
+                Set<Long> dirtyBefore = new HashSet<>(cart.dirty);
+                cart.update(cartId, qty, mode);
+                if (!holdStock(cart, productId)) {
+                    cart.restore(backup, dirtyBefore);
+                    return false;
+                }
+                return true;
+            }
+        }
+    }
+
+    public boolean remove(int cartId) {
+        while (true) {
+            Cart cart = cartOfLine(cartId);
+            if (cart == null) {
+                return false;
+            }
+            synchronized (cart) {
+                awaitCheckout(cart);
+                if (cart.evicted) {
+                    continue;
+                }
+                Line line = cart.find(cartId);
+                if (line == null || !cart.remove(cartId)) {
+                    return false;
+                }
+                holdStock(cart, line.productId);   // holding less cannot fail
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Applies all changes or none, pricing each line from the catalog, then
+     * writes the vendor's cart in one transaction. Returns the cart after the
+     * changes; null if it could not be loaded or written, with the changes
+     * undone. Throws IllegalArgumentException naming the first invalid
+     * change, or OutOfStockException, with the cart left as it was.
+     */
+    public List<CartItem> apply(int vendorId, List<CartChange> changes, ProductOperations catalog) {
+        while (true) {
+            Cart cart = cart(vendorId);
+            if (cart == null) {
+                return null;
+            }
+            Map<Long, Line> backup;
+            Set<Long> dirtyBefore;
+            Set<Integer> productIds = new HashSet<>();
+            synchronized (cart) {
+                awaitCheckout(cart);
+                if (cart.evicted) {
+                    continue;
+                }
+                backup = cart.copyLines();
+                dirtyBefore = new HashSet<>(cart.dirty);
+                for (int i = 0; i < changes.size(); i++) {
+                    String problem = cart.apply(changes.get(i), catalog);
+                    if (problem != null) {
+                        cart.restore(backup, dirtyBefore);
+                        throw new IllegalArgumentException("Change " + (i + 1) + ": " + problem);
+                    }
+                }
+                for (Line line : backup.values()) {
+                    productIds.add(line.productId);
+                }
+                for (Line line : cart.lines.values()) {
+                    productIds.add(line.productId);
+                }
+                for (int productId : productIds) {
+                    if (!holdStock(cart, productId)) {
+                        undo(cart, backup, dirtyBefore, productIds);
+                        throw new OutOfStockException("Not enough stock of product " + productId);
+                    }
+                }
+                cart.checkingOut = true;   // like a checkout, edits wait for the write
+            }
+            boolean written = false;
+            try {
+                written = flush(vendorId);
+                synchronized (cart) {
+                    if (!written) {
+                        // Nothing was written; earlier edits stay dirty for the periodic flush
+                        undo(cart, backup, dirtyBefore, productIds);
+                        return null;
+                    }
+                    cart.touch();
+                    return cart.snapshot();
+                }
+            } finally {
+                synchronized (cart) {
+                    cart.checkingOut = false;
+                    cart.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Puts back the lines as they were before apply; caller holds the cart's lock
+    private static void undo(Cart cart, Map<Long, Line> backup, Set<Long> dirtyBefore, Set<Integer> productIds) {
+        cart.restore(backup, dirtyBefore);
+        // Best effort: checkout takes the cart's stock again anyway
+        for (int productId : productIds) {
+            holdStock(cart, productId);
+        }
+    }
+
+    /** The vendor's cart lines, oldest first; copies the caller may keep. */
+    public List<CartItem> items(int vendorId) {
+        while (true) {
+            Cart cart = cart(vendorId);
+            if (cart == null) {
+                return new ArrayList<>();
+            }
+            synchronized (cart) {
+                if (cart.evicted) {
+                    continue;
+                }
+                cart.touch();
+                return cart.snapshot();
+            }
+        }
+    }
+
+    /** Writes the vendor's pending edits now, e.g. before checkout reads cart_items. */
+    public boolean flush(int vendorId) {
+        // A flush in progress may have taken this vendor's lines without committing them yet
+        synchronized (flushLock) {
+            if (!dirtyVendors.contains(vendorId)) {
+                return true;
+            }
+            return write(Collections.singletonList(vendorId));
+        }
+    }
+
+    /** Places an order from a written cart; true if it was placed, which empties cart_items. */
+    public interface Checkout {
+        boolean place(List<CartItem> items);
+    }
+
+    /**
+     * Writes the vendor's cart and hands its lines to checkout. Edits wait
+     * until checkout returns, so none can slip in between the write and the
+     * order, nor be lost when the placed cart is dropped from memory. False if
+     * the cart could not be written, or checkout did not place the order.
+     */
+    public boolean checkout(int vendorId, Checkout checkout) {
+        Cart cart;
+        while (true) {
+            cart = cart(vendorId);
+            if (cart == null) {
+                return false;
+            }
+            synchronized (cart) {
+                awaitCheckout(cart);
+                if (!cart.evicted) {
+                    cart.checkingOut = true;
+                    break;
+                }
+            }
+        }
+        boolean placed = false;
+        try {
+            if (!flush(vendorId)) {
+                return false;
+            }
+            List<CartItem> items;
+            synchronized (cart) {
+                cart.touch();
+                items = cart.snapshot();
+            }
+            placed = checkout.place(items);
+            return placed;
+        } finally {
+            synchronized (cart) {
+                if (placed) {
+                    // cart_items is empty now; the next use reloads it
+                    cart.dirty.clear();
+                    evict(cart);
+                    dirtyVendors.remove(vendorId);
+                }
+                cart.checkingOut = false;
+                cart.notifyAll();
+            }
+        }
+    }
+
+    /** Writes every pending edit. */
+    public boolean flushAll() {
+        return write(new ArrayList<>(dirtyVendors));
+    }
+
+    public int size() {
+        return carts.size();
+    }
+
+    // The vendor's cart, loaded on first use; null if it cannot be loaded
+    private Cart cart(int vendorId) {
+        Cart cart = carts.get(vendorId);
+        if (cart != null) {
+            return cart;
+        }
+        Cart loaded;
+        try {
+            loaded = load(vendorId);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+        cart = carts.putIfAbsent(vendorId, loaded);
+        if (cart != null) {
+            return cart;   // loaded concurrently by another request
+        }
+        for (Line line : loaded.lines.values()) {
+            lineVendors.put(line.id, vendorId);
+        }
+        return loaded;
+    }
+
+    private Cart cartOfLine(int cartId) {
+        Integer vendorId = lineVendors.get(cartId);
+        if (vendorId == null && cartId > 0) {
+            // Not in memory (evicted, or this node restarted): find its vendor in the table
+            try (Connection con = GetConnection.getReadConnection();
+                 PreparedStatement ps = con.prepareStatement(SELECT_LINE_VENDOR)) {
+                ps.setInt(1, cartId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        vendorId = rs.getInt(1);
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        return vendorId == null ? null : cart(vendorId);
+    }
+
+    private Cart load(int vendorId) throws SQLException {
+        Cart cart = new Cart(vendorId);
+        // The primary: a replica could miss lines written just before this node lost the cart
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(SELECT_CART)) {
+            ps.setInt(1, vendorId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Line line = new Line(rs.getInt("cart_item_id"), rs.getInt("product_id"),
+                            "box".equals(rs.getString("mode")));
+                    line.qty = rs.getInt("qty");
+                    line.price = rs.getDouble("price");
+                    cart.lines.put(line.key(), line);
+                }
+            }
+        }
+        return cart;
+    }
+
+    private void flushAndEvict() {
+        try {
+            flushAll();
+            long idleBefore = System.currentTimeMillis() - idleEvictMs;
+            List<Cart> resident = new ArrayList<>(carts.values());
+            int excess = resident.size() - maxCarts;
+            if (excess > 0) {
+                resident.sort((a, b) -> Long.compare(a.lastAccess, b.lastAccess));
+            }
+            for (Cart cart : resident) {
+                synchronized (cart) {
+                    if (cart.dirty.isEmpty() && !cart.checkingOut && (excess > 0 || cart.lastAccess < idleBefore)) {
+                        evict(cart);
+                        excess--;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();   // keep the schedule alive
+        }
+    }
+
+    // Caller holds the cart's lock
+    private void evict(Cart cart) {
+        if (!cart.evicted) {
+            cart.evicted = true;
+            carts.remove(cart.vendorId, cart);
+            for (Line line : cart.lines.values()) {
+                lineVendors.remove(line.id, cart.vendorId);
+            }
+        }
+    }
+
+    // Writes the dirty lines of the given vendors in one transaction
+    boolean write(List<Integer> vendorIds) {
+        if (vendorIds.isEmpty()) {
+            return true;
+        }
+        synchronized (flushLock) {
+            List<Cart> flushed = new ArrayList<>();
+            List<Set<Long>> flushedKeys = new ArrayList<>();
+            try (Connection con = GetConnection.getConnection()) {
+                con.setAutoCommit(false);
+                try (PreparedStatement upsert = con.prepareStatement(UPSERT_LINE);
+                     PreparedStatement delete = con.prepareStatement(DELETE_LINE)) {
+                    int upserts = 0;
+                    int deletes = 0;
+                    for (int vendorId : vendorIds) {
+                        dirtyVendors.remove(vendorId);
+                        Cart cart = carts.get(vendorId);
+                        if (cart == null) {
+                            continue;
+                        }
+                        synchronized (cart) {
+                            if (cart.dirty.isEmpty()) {
+                                continue;
+                            }
+                            for (long key : cart.dirty) {
+                                Line line = cart.lines.get(key);
+                                if (line != null) {
+                                    upsert.setInt(1, vendorId);
+                                    upsert.setInt(2, line.productId);
+                                    upsert.setInt(3, line.qty);
+                                    upsert.setString(4, line.box ? "box" : "unit");
+                                    upsert.setDouble(5, line.price);
+                                    upsert.addBatch();
+                                    upserts++;
+                                } else {
+                                    delete.setInt(1, vendorId);
+                                    delete.setInt(2, (int) (key >>> 1));
+                                    delete.setString(3, (key & 1) != 0 ? "box" : "unit");
+                                    delete.addBatch();
+                                    deletes++;
+                                }
+                            }
+                            flushed.add(cart);
+                            flushedKeys.add(new HashSet<>(cart.dirty));
+                            cart.dirty.clear();
+                        }
+                    }
+                    if (deletes > 0) {
+                        delete.executeBatch();
+                    }
+                    if (upserts > 0) {
+                        upsert.executeBatch();
+                    }
+                    con.commit();
+                } catch (SQLException e) {
+                    con.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                // Mark the lines dirty again; their current state is written next time
+                for (int i = 0; i < flushed.size(); i++) {
+                    Cart cart = flushed.get(i);
+                    synchronized (cart) {
+                        cart.dirty.addAll(flushedKeys.get(i));
+                    }
+                }
+                for (int vendorId : vendorIds) {
+                    Cart cart = carts.get(vendorId);
+                    if (cart != null) {
+                        synchronized (cart) {
+                            if (!cart.dirty.isEmpty()) {
+                                dirtyVendors.add(vendorId);
+                            }
+                        }
+                    }
+                }
+                return false;
+            }
+            for (Cart cart : flushed) {
+                GetConnection.recordWrite(cart.vendorId);
+            }
+            return true;
+        }
+    }
+
+    // Waits out a checkout of the cart; caller holds the cart's lock
+    private static void awaitCheckout(Cart cart) {
+        boolean interrupted = false;
+        while (cart.checkingOut) {
+            try {
+                cart.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Holds the stock for the cart's lines of the product; caller holds the cart's lock
+    private static boolean holdStock(Cart cart, int productId) {
+        long units = 0;
+        for (Line line : cart.lines.values()) {
+            if (line.productId == productId) {
+                long u = StockReservations.units(productId, line.qty, line.box);
+                if (u < 0) {
+                    return false;
+                }
+                units += u;
+            }
+        }
+        return StockReservations.shared().holdForCart(cart.vendorId, productId, units);
+    }
+
+    static boolean isValidMode(String mode) {
+        return "unit".equals(mode) || "box".equals(mode);
+    }
+
+    // Key of a cart line: product and mode, as cart_items has at most one line for each
+    static long key(int productId, boolean box) {
+        return ((long) productId << 1) | (box ? 1 : 0);
+    }
+
+    private final class Cart {
+        final int vendorId;
+        final Map<Long, Line> lines = new LinkedHashMap<>();
+        final Set<Long> dirty = new HashSet<>();
+        long lastAccess = System.currentTimeMillis();
+        boolean evicted;
+        boolean checkingOut;
+
+        Cart(int vendorId) {
+            this.vendorId = vendorId;
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        void changed(long key) {
+            dirty.add(key);
+            dirtyVendors.add(vendorId);
+            touch();
+        }
+
+        void add(int productId, String mode, int qty, double price) {
+            boolean box = "box".equals(mode);
+            long key = key(productId, box);
+            Line line = lines.get(key);
+            if (line == null) {
+                line = new Line(nextNewLineId.decrementAndGet(), productId, box);
+                lines.put(key, line);
+                lineVendors.put(line.id, vendorId);
+            }
+            line.qty += qty;
+            line.price = price;
+            changed(key);
+        }
+
+        boolean update(int cartId, int qty, String mode) {
+            Line line = find(cartId);
+            if (line == null) {
+                return false;
+            }
+            boolean box = "box".equals(mode);
+            if (line.box != box) {
+                long oldKey = line.key();
+                lines.remove(oldKey);
+                changed(oldKey);
+                Line existing = lines.get(key(line.productId, box));
+                if (existing != null) {
+                    // Merge into the line already in that mode
+                    lineVendors.remove(line.id, vendorId);
+                    line = existing;
+                } else {
+                    line.box = box;
+                    lines.put(line.key(), line);
+                }
+            }
+            line.qty = qty;
+            changed(line.key());
+            return true;
+        }
+
+        boolean remove(int cartId) {
+            Line line = find(cartId);
+            if (line == null) {
+                return false;
+            }
+            lines.remove(line.key());
+            lineVendors.remove(line.id, vendorId);
+            changed(line.key());
+            return true;
+        }
+
+        // Applies one change of a batch; returns why it is invalid, or null
+        String apply(CartChange change, ProductOperations catalog) {
+            String action = change.getAction();
+            if ("remove".equals(action)) {
+                return remove(change.getCartId()) ? null : "no line " + change.getCartId() + " in the cart";
+            }
+            if (!"add".equals(action) && !"update".equals(action)) {
+                return "action must be add, update or remove";
+            }
+            if (change.getQty() <= 0) {
+                return "qty must be positive";
+            }
+            if (!isValidMode(change.getMode())) {
+                return "mode must be unit or box";
+            }
+            int productId = change.getProductId();
+            if ("update".equals(action)) {
+                Line line = find(change.getCartId());
+                if (line == null) {
+                    return "no line " + change.getCartId() + " in the cart";
+                }
+                productId = line.productId;
+            }
+            Product product = catalog.getProductById(productId);
+            if (product == null || !product.isActive()) {
+                return "product " + productId + " is not available";
+            }
+            double price = "box".equals(change.getMode()) ? product.getBoxPrice() : product.getUnitPrice();
+            if (change.getPrice() != 0 && Math.abs(change.getPrice() - price) >= 0.005) {
+                return "price " + change.getPrice() + " does not match the current " + change.getMode()
+                        + " price " + price + " of product " + productId;
+            }
+            if ("add".equals(action)) {
+                add(productId, change.getMode(), change.getQty(), price);
+            } else {
+                update(change.getCartId(), change.getQty(), change.getMode());
+                lines.get(key(productId, "box".equals(change.getMode()))).price = price;
+            }
+            return null;
+        }
+
+        Map<Long, Line> copyLines() {
+            Map<Long, Line> copy = new LinkedHashMap<>();
+            for (Map.Entry<Long, Line> e : lines.entrySet()) {
+                copy.put(e.getKey(), e.getValue().copy());
+            }
+            return copy;
+        }
+
+        void restore(Map<Long, Line> backup, Set<Long> dirtyBefore) {
+            for (Line line : lines.values()) {
+                lineVendors.remove(line.id, vendorId);
+            }
+            lines.clear();
+            lines.putAll(backup);
+            for (Line line : lines.values()) {
+                lineVendors.put(line.id, vendorId);
+            }
+            dirty.clear();
+            dirty.addAll(dirtyBefore);
+        }
+
+        Line find(int cartId) {
+            for (Line line : lines.values()) {
+                if (line.id == cartId) {
+                    return line;
+                }
+            }
+            return null;
+        }
+
+        List<CartItem> snapshot() {
+            List<CartItem> items = new ArrayList<>(lines.size());
+            for (Line line : lines.values()) {
+                CartItem item = new CartItem();
+                item.setCartId(line.id);
+                item.setVendorId(vendorId);
+                item.setProductId(line.productId);
+                item.setQty(line.qty);
+                item.setMode(line.box ? "box" : "unit");
+                item.setPrice(line.price);
+                items.add(item);
+            }
+            return items;
+        }
+    }
+
+    private static final class Line {
+        final int id;
+        final int productId;
+        boolean box;
+        int qty;
+        double price;
+
+        Line(int id, int productId, boolean box) {
+            this.id = id;
+            this.productId = productId;
+            this.box = box;
+        }
+
+        long key() {
+            return CartStore.key(productId, box);
+        }
+
+        Line copy() {
+            Line line = new Line(id, productId, box);
+            line.qty = qty;
+            line.price = price;
+            return line;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package implementor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import db_config.PoolConfig;
+import model.ChangeFeed;
+
+/**
+ * Shared keyset logic for the "changed since watermark" feeds.
+ *
+ * The watermark is (updated_at, id) of the last row delivered. It is never
+ * moved closer than db.changeFeed.safetyLagMs to the database clock, because
+ * a transaction that set updated_at earlier may commit after a later one;
+ * rows inside that window are delivered again on the next poll instead of
+ * being skipped.
+ */
+final class ChangeFeedReader {
+    static final long SAFETY_LAG_MS = PoolConfig.getLong("db.changeFeed.safetyLagMs", 2000L);
+    static final int DEFAULT_LIMIT = 200;
+    static final int MAX_LIMIT = 1000;
+
+    interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    private ChangeFeedReader() {
+    }
+
+    /**
+     * Current rows of a feed, for a first poll: runs snapshotQuery (bound by
+     * params) and returns every row with a watermark taken before the read.
+     */
+    static <T> ChangeFeed<T> snapshot(Connection con, String snapshotQuery, RowMapper<T> mapper, Object... params)
+            throws SQLException {
+        Timestamp watermark;
+        try (PreparedStatement ps = con.prepareStatement("SELECT NOW(6) - INTERVAL ? MICROSECOND AS watermark")) {
+            ps.setLong(1, SAFETY_LAG_MS * 1000);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                watermark = rs.getTimestamp("watermark");
+            }
+        }
+        List<T> rows = new ArrayList<>();
+        try (PreparedStatement ps = con.prepareStatement(snapshotQuery)) {
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(mapper.map(rs));
+                }
+            }
+        }
+        return new ChangeFeed<>(rows, watermark, 0, false);
+    }
+
+    /**
+     * Rows changed after (sinceUpdatedAt, sinceId). deltaQuery must select
+     * updated_at, the id column and NOW(6) AS db_now, take the filter params
+     * first and then (since, since, sinceId, limit), and order by
+     * (updated_at, id).
+     */
+    static <T> ChangeFeed<T> changes(Connection con, String deltaQuery, String idColumn, RowMapper<T> mapper,
+                                     Timestamp sinceUpdatedAt, int sinceId, int limit, Object... params)
+            throws SQLException {
+        int pageSize = limit <= 0 ? DEFAULT_LIMIT : Math.min(limit, MAX_LIMIT);
+        List<T> rows = new ArrayList<>();
+        Timestamp lastUpdatedAt = sinceUpdatedAt;
+        int lastId = sinceId;
+        Timestamp dbNow = null;
+        boolean hasMore = false;
+        try (PreparedStatement ps = con.prepareStatement(deltaQuery)) {
+            int i = 1;
+            for (Object param : params) {
+                ps.setObject(i++, param);
+            }
+            ps.setTimestamp(i++, sinceUpdatedAt);
+            ps.setTimestamp(i++, sinceUpdatedAt);
+            ps.setInt(i++, sinceId);
+            ps.setInt(i, pageSize + 1);   // one extra row tells whether there is more
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (rows.size() == pageSize) {
+                        hasMore = true;
+                        break;
+                    }
+                    rows.add(mapper.map(rs));
+                    lastUpdatedAt = rs.getTimestamp("updated_at");
+                    lastId = rs.getInt(idColumn);
+                    dbNow = rs.getTimestamp("db_now");
+                }
+            }
+        }
+        if (dbNow != null && !hasMore) {
+            // While catching up (hasMore) the page end is used as is, so a burst
+            // larger than a page inside the lag window cannot stall the feed
+            Timestamp cap = new Timestamp(dbNow.getTime() - SAFETY_LAG_MS);
+            if (lastUpdatedAt.after(cap)) {
+                if (cap.before(sinceUpdatedAt)) {
+                    lastUpdatedAt = sinceUpdatedAt;   // never move the watermark backwards
+                    lastId = sinceId;
+                } else {
+                    lastUpdatedAt = cap;
+                    lastId = 0;
+                }
+            }
+        }
+        return new ChangeFeed<>(rows, lastUpdatedAt, lastId, hasMore);
+    }
+}
@@ -2,15 +2,21 @@ package implementor;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import db_config.GetConnection;
+import model.ChangeFeed;
 import model.DeliveryLog;
 import model.DeliveryPartner;
 import operation.DeliveryOperations;
 
 public class DeliveryImplementor implements DeliveryOperations {
+    private static final String DELIVERY_COLUMNS = "delivery_id, order_id, vendor_id, delivery_partner_id, status, "
+            + "delivered_on, confirmed_by_vendor, updated_at";
 
     @Override
     public List<DeliveryLog> getDeliveriesByPartner(int deliveryPartnerId) {
@@ -18,22 +24,12 @@ public class DeliveryImplementor implements DeliveryOperations {
         String query = "SELECT dl.*, o.order_date, o.total_amount FROM delivery_log dl " +
                        "JOIN orders o ON dl.order_id = o.order_id " +
                        "WHERE dl.delivery_partner_id = ?";
-        try (Connection con = GetConnection.getConnection();
+        try (Connection con = GetConnection.getReadConnection();
              PreparedStatement ps = con.prepareStatement(query)) {
             ps.setInt(1, deliveryPartnerId);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
-                DeliveryLog dl = new DeliveryLog();
-                dl.setDeliveryId(rs.getInt("delivery_id"));
-                dl.setOrderId(rs.getInt("order_id"));
-                dl.setVendorId(rs.getInt("vendor_id"));
-                int dpId = rs.getInt("delivery_partner_id");
-                if (rs.wasNull()) dpId = -1;
-                dl.setDeliveryPartnerId(dpId == -1 ? null : dpId);
-                dl.setStatus(rs.getString("status"));
-                dl.setDeliveredOn(rs.getTimestamp("delivered_on"));
-                dl.setConfirmedByVendor(rs.getBoolean("confirmed_by_vendor"));
-                deliveries.add(dl);
+                deliveries.add(mapDelivery(rs));
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -41,6 +37,33 @@ public class DeliveryImplementor implements DeliveryOperations {
         return deliveries;
     }
 
+    /**
+     * Deliveries of a partner that changed after the watermark, for polling.
+     * Pass sinceUpdatedAt = null on the first poll to get all of the partner's
+     * deliveries; then pass back the watermark of the previous result.
+     * Reads go to the primary so no committed change can be missed.
+     */
+    @Override
+    public ChangeFeed<DeliveryLog> getDeliveryChangesByPartner(int deliveryPartnerId, Timestamp sinceUpdatedAt,
+                                                               int sinceDeliveryId, int limit) {
+        try (Connection con = GetConnection.getConnection()) {
+            if (sinceUpdatedAt == null) {
+                return ChangeFeedReader.snapshot(con,
+                        "SELECT " + DELIVERY_COLUMNS + " FROM delivery_log WHERE delivery_partner_id = ?",
+                        DeliveryImplementor::mapDelivery, deliveryPartnerId);
+            }
+            String query = "SELECT " + DELIVERY_COLUMNS + ", NOW(6) AS db_now FROM delivery_log "
+                    + "WHERE delivery_partner_id = ? "
+                    + "AND (updated_at > ? OR (updated_at = ? AND delivery_id > ?)) "
+                    + "ORDER BY updated_at, delivery_id LIMIT ?";
+            return ChangeFeedReader.changes(con, query, "delivery_id", DeliveryImplementor::mapDelivery,
+                    sinceUpdatedAt, sinceDeliveryId, limit, deliveryPartnerId);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     @Override
     public boolean assignDelivery(int orderId, int deliveryPartnerId) {
         String call = "{CALL sp_assign_delivery(?, ?, ?)}";
@@ -58,6 +81,16 @@ public class DeliveryImplementor implements DeliveryOperations {
         }
     }
 
+    /**
+     * Hands the order to the shared DeliveryScheduler, which picks the partner
+     * and writes the assignment with others in a batch. Returns false when the
+     * scheduler's queue is full.
+     */
+    @Override
+    public boolean queueForAssignment(int orderId) {
+        return DeliveryScheduler.shared().submit(orderId);
+    }
+
     @Override
     public boolean updateDeliveryStatus(int deliveryId, String status, Date deliveredOn, boolean confirmedByVendor) {
         String call = "{CALL sp_update_delivery_status(?, ?, ?, ?, ?)}";
@@ -80,4 +113,73 @@ public class DeliveryImplementor implements DeliveryOperations {
             return false;
         }
     }
+
+    /**
+     * Queues a status update for the shared DeliveryStatusWriter, which applies
+     * it in a batch shortly after. Returns true when the update is queued or
+     * has replaced one still queued for the delivery; false when the status
+     * is invalid or the queue is full.
+     */
+    @Override
+    public boolean queueDeliveryStatus(int deliveryId, String status, Date deliveredOn, Boolean confirmedByVendor) {
+        if (!DeliveryStatusWriter.isValidStatus(status)) {
+            return false;
+        }
+        return DeliveryStatusWriter.shared().submit(deliveryId, status, deliveredOn, confirmedByVendor)
+                != DeliveryStatusWriter.Result.REJECTED;
+    }
+
+    /**
+     * Who each delivery is assigned to, with one query per chunk of ids. Read
+     * from the primary: it decides who may update a delivery, so it must see
+     * an assignment made a moment ago.
+     */
+    @Override
+    public Map<Integer, Integer> getDeliveryPartnerIds(Collection<Integer> deliveryIds) {
+        Map<Integer, Integer> partners = new HashMap<>();
+        int[] ids = new int[deliveryIds.size()];
+        int count = 0;
+        for (Integer id : deliveryIds) {
+            if (id != null) {
+                ids[count++] = id;
+            }
+        }
+        try (Connection con = GetConnection.getConnection()) {
+            for (int from = 0; from < count; from += OrderImplementor.MAX_IN_LIST_SIZE) {
+                int n = Math.min(OrderImplementor.MAX_IN_LIST_SIZE, count - from);
+                int size = OrderImplementor.inListSize(n);
+                StringBuilder query = new StringBuilder(
+                        "SELECT delivery_id, delivery_partner_id FROM delivery_log "
+                        + "WHERE delivery_partner_id IS NOT NULL AND delivery_id IN (");
+                OrderImplementor.appendPlaceholders(query, size);
+                try (PreparedStatement ps = con.prepareStatement(query.append(")").toString())) {
+                    OrderImplementor.bindInList(ps, 1, size, ids, from, n);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            partners.put(rs.getInt("delivery_id"), rs.getInt("delivery_partner_id"));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return partners;
+    }
+
+    private static DeliveryLog mapDelivery(ResultSet rs) throws SQLException {
+        DeliveryLog dl = new DeliveryLog();
+        dl.setDeliveryId(rs.getInt("delivery_id"));
+        dl.setOrderId(rs.getInt("order_id"));
+        dl.setVendorId(rs.getInt("vendor_id"));
+        int dpId = rs.getInt("delivery_partner_id");
+        if (rs.wasNull()) dpId = -1;
+        dl.setDeliveryPartnerId(dpId == -1 ? null : dpId);
+        dl.setStatus(rs.getString("status"));
+        dl.setDeliveredOn(rs.getTimestamp("delivered_on"));
+        dl.setConfirmedByVendor(rs.getBoolean("confirmed_by_vendor"));
+        dl.setUpdatedAt(rs.getTimestamp("updated_at"));
+        return dl;
+    }
 }
@@ -0,0 +1,444 @@
+package implementor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import db_config.GetConnection;
+import db_config.PoolConfig;
+
+/**
+ * Assigns queued orders to delivery partners without the caller choosing one.
+ *
+ * Orders are submitted to a bounded queue. A single worker thread drains it
+ * in batches, picks a partner for each order and writes the whole batch to
+ * delivery_log in one transaction. The worker owns the partner loads (open
+ * deliveries per partner), so choosing a partner takes no lock:
+ * LEAST_LOADED pops the root of an indexed min-heap, ROUND_ROBIN cycles
+ * through the partners. Loads are re-read from delivery_log every
+ * delivery.scheduler.loadRefreshMs, which also picks up partners going
+ * on or off line and deliveries completed meanwhile.
+ *
+ * While no partner is on line, or a failed batch is waiting to be retried,
+ * the worker takes nothing from the queue, so waiting orders stay in the
+ * bounded queue and submit() refuses new ones once it is full. Orders still
+ * unassigned at shutdown are logged.
+ */
+public class DeliveryScheduler {
+    public enum Policy { LEAST_LOADED, ROUND_ROBIN }
+
+    private static final DeliveryScheduler SHARED = new DeliveryScheduler(
+            Policy.valueOf(PoolConfig.get("delivery.scheduler.policy", "LEAST_LOADED").toUpperCase(Locale.ROOT)),
+            PoolConfig.getInt("delivery.scheduler.queueCapacity", 10_000),
+            PoolConfig.getInt("delivery.scheduler.batchSize", 200),
+            PoolConfig.getLong("delivery.scheduler.loadRefreshMs", 30_000L));
+
+    private static final String INSERT_ASSIGNMENT =
+            "INSERT INTO delivery_log (order_id, vendor_id, delivery_partner_id, status) "
+            + "SELECT o.order_id, o.vendor_id, ?, 'Pending' FROM orders o WHERE o.order_id = ? "
+            + "AND NOT EXISTS (SELECT 1 FROM delivery_log dl WHERE dl.order_id = o.order_id)";
+    private static final String MARK_ON_DUTY =
+            "UPDATE delivery_partners SET current_status = 'OnDuty' "
+            + "WHERE delivery_partner_id = ? AND current_status <> 'OnDuty'";
+    private static final String LOAD_QUERY =
+            "SELECT dp.delivery_partner_id, COUNT(dl.delivery_id) AS open_deliveries FROM delivery_partners dp "
+            + "LEFT JOIN delivery_log dl ON dl.delivery_partner_id = dp.delivery_partner_id AND dl.status = 'Pending' "
+            + "WHERE dp.current_status <> 'Offline' GROUP BY dp.delivery_partner_id";
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final Policy policy;
+    private final BlockingQueue<Request> queue;
+    private final int batchSize;
+    private final long loadRefreshMs;
+    private final Metrics metrics = new Metrics();
+
+    // Owned by the worker thread
+    private final List<Request> held = new ArrayList<>();   // a failed batch waiting for its retry
+    private int[] partnerIds = new int[0];
+    private int[] loads = new int[0];
+    private int[] heap = new int[0];       // slots ordered by (load, partnerId)
+    private int[] heapIndex = new int[0];  // slot -> position in heap
+    private int roundRobinNext;
+    private long loadsReadAt;
+
+    private volatile Thread worker;
+    private volatile boolean running;
+    private boolean stopped;
+
+    public DeliveryScheduler(Policy policy, int queueCapacity, int batchSize, long loadRefreshMs) {
+        this.policy = policy;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.loadRefreshMs = loadRefreshMs;
+    }
+
+    /** The scheduler configured from db.properties. */
+    public static DeliveryScheduler shared() {
+        return SHARED;
+    }
+
+    /**
+     * Queues an order for assignment. Returns false when the queue is full or
+     * the scheduler is shut down; the order can be submitted again later.
+     * Orders that already have a delivery are skipped when the batch is written.
+     */
+    public boolean submit(int orderId) {
+        if (worker == null) {
+            ensureStarted();
+        }
+        if (!running || !queue.offer(new Request(orderId, System.nanoTime()))) {
+            metrics.rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private synchronized void ensureStarted() {
+        if (worker == null && !stopped) {
+            running = true;
+            worker = new Thread(this::run, "vmms-delivery-scheduler");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /** Stops accepting orders, writes what is already queued and stops the worker. */
+    public void shutdown() {
+        Thread t;
+        synchronized (this) {
+            t = worker;
+            running = false;
+            stopped = true;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                if (System.currentTimeMillis() - loadsReadAt >= loadRefreshMs || partnerIds.length == 0) {
+                    refreshLoads();   // also retries the held orders
+                }
+                if (partnerIds.length == 0 || !held.isEmpty()) {
+                    // Leave new orders in the queue until they can be assigned
+                    if (!running) {
+                        break;
+                    }
+                    Thread.sleep(RETRY_DELAY_MS);
+                    continue;
+                }
+                if (running) {
+                    Request first = queue.poll(Math.max(1, loadRefreshMs), TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+                assignAndWrite(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // shutdown(): loop once more to write what is still queued
+                if (running) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                batch.clear();
+            }
+        }
+        logUnassigned();
+    }
+
+    // The orders exist but have no delivery; they can be submitted again after a restart
+    private void logUnassigned() {
+        List<Request> left = new ArrayList<>(held);
+        queue.drainTo(left);
+        if (left.isEmpty()) {
+            return;
+        }
+        StringBuilder ids = new StringBuilder();
+        for (Request r : left) {
+            ids.append(ids.length() == 0 ? "" : ",").append(r.orderId);
+        }
+        System.err.println("Delivery scheduler stopped with " + left.size() + " orders unassigned: " + ids);
+    }
+
+    private void assignAndWrite(List<Request> batch) throws InterruptedException {
+        int n = batch.size();
+        int[] slots = new int[n];
+        for (int i = 0; i < n; i++) {
+            slots[i] = pickPartner();
+        }
+        long started = System.nanoTime();
+        int[] inserted;
+        try {
+            inserted = write(batch, slots);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            for (int i = 0; i < n; i++) {
+                releaseSlot(slots[i]);
+            }
+            // Put the orders back in front of newer ones after a pause
+            held.addAll(batch);
+            metrics.held.set(held.size());
+            metrics.failedBatches.increment();
+            loadsReadAt = 0;   // re-read loads, and retry the held orders, on the next pass
+            Thread.sleep(RETRY_DELAY_MS);
+            return;
+        }
+        long now = System.nanoTime();
+        metrics.lastBatchNanos = now - started;
+        metrics.batches.increment();
+        for (int i = 0; i < n; i++) {
+            if (inserted[i] == 0) {
+                releaseSlot(slots[i]);            // order missing or already assigned
+                metrics.skipped.increment();
+            } else {
+                metrics.assigned.increment();
+                metrics.recordLatency(now - batch.get(i).enqueuedAt);
+            }
+        }
+    }
+
+    private int[] write(List<Request> batch, int[] slots) throws SQLException {
+        try (Connection con = GetConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement insert = con.prepareStatement(INSERT_ASSIGNMENT);
+                 PreparedStatement onDuty = con.prepareStatement(MARK_ON_DUTY)) {
+                for (int i = 0; i < slots.length; i++) {
+                    insert.setInt(1, partnerIds[slots[i]]);
+                    insert.setInt(2, batch.get(i).orderId);
+                    insert.addBatch();
+                }
+                int[] counts = insert.executeBatch();
+                boolean[] marked = new boolean[partnerIds.length];
+                for (int i = 0; i < slots.length; i++) {
+                    if (counts[i] != 0 && !marked[slots[i]]) {
+                        marked[slots[i]] = true;
+                        onDuty.setInt(1, partnerIds[slots[i]]);
+                        onDuty.addBatch();
+                    }
+                }
+                onDuty.executeBatch();
+                con.commit();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == Statement.SUCCESS_NO_INFO) {
+                        counts[i] = 1;
+                    }
+                }
+                return counts;
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void refreshLoads() {
+        List<int[]> rows = new ArrayList<>();
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(LOAD_QUERY);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new int[] { rs.getInt("delivery_partner_id"), rs.getInt("open_deliveries") });
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            loadsReadAt = System.currentTimeMillis();   // keep the current loads until the next refresh
+            return;
+        }
+        int n = rows.size();
+        partnerIds = new int[n];
+        loads = new int[n];
+        heap = new int[n];
+        heapIndex = new int[n];
+        for (int i = 0; i < n; i++) {
+            partnerIds[i] = rows.get(i)[0];
+            loads[i] = rows.get(i)[1];
+            heap[i] = i;
+            heapIndex[i] = i;
+        }
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        roundRobinNext = 0;
+        loadsReadAt = System.currentTimeMillis();
+        metrics.partners = n;
+
+        if (n > 0 && !held.isEmpty()) {
+            // Orders that waited for a partner go ahead of the queue
+            List<Request> waiting = new ArrayList<>(held);
+            held.clear();
+            metrics.held.set(0);
+            for (int from = 0; from < waiting.size(); from += batchSize) {
+                try {
+                    assignAndWrite(waiting.subList(from, Math.min(waiting.size(), from + batchSize)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    held.addAll(waiting.subList(from, waiting.size()));
+                    metrics.held.set(held.size());
+                    return;
+                }
+            }
+        }
+    }
+
+    // Returns a partner slot and counts the new delivery against it
+    private int pickPartner() {
+        int slot;
+        if (policy == Policy.ROUND_ROBIN) {
+            slot = roundRobinNext;
+            roundRobinNext = (roundRobinNext + 1) % partnerIds.length;
+        } else {
+            slot = heap[0];
+        }
+        loads[slot]++;
+        siftDown(heapIndex[slot]);
+        return slot;
+    }
+
+    private void releaseSlot(int slot) {
+        if (slot < loads.length && loads[slot] > 0) {
+            loads[slot]--;
+            siftUp(heapIndex[slot]);
+        }
+    }
+
+    private boolean less(int slotA, int slotB) {
+        return loads[slotA] != loads[slotB] ? loads[slotA] < loads[slotB] : partnerIds[slotA] < partnerIds[slotB];
+    }
+
+    private void siftUp(int pos) {
+        int slot = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!less(slot, heap[parent])) {
+                break;
+            }
+            move(heap[parent], pos);
+            pos = parent;
+        }
+        move(slot, pos);
+    }
+
+    private void siftDown(int pos) {
+        int n = heap.length;
+        int slot = heap[pos];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], slot)) {
+                break;
+            }
+            move(heap[child], pos);
+            pos = child;
+        }
+        move(slot, pos);
+    }
+
+    private void move(int slot, int pos) {
+        heap[pos] = slot;
+        heapIndex[slot] = pos;
+    }
+
+    /** Open-delivery count per online partner as last seen by the worker; approximate, for monitoring. */
+    public String describeLoads() {
+        int[] ids = partnerIds;
+        int[] current = loads;
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < ids.length && i < current.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(ids[i]).append('=').append(current[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    private static final class Request {
+        final int orderId;
+        final long enqueuedAt;
+
+        Request(int orderId, long enqueuedAt) {
+            this.orderId = orderId;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /** Throughput and latency counters; safe to read from any thread. */
+    public static final class Metrics {
+        final LongAdder assigned = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder batches = new LongAdder();
+        final LongAdder failedBatches = new LongAdder();
+        final AtomicLong held = new AtomicLong();
+        final LongAdder latencyNanos = new LongAdder();
+        final AtomicLong maxLatencyNanos = new AtomicLong();
+        volatile long lastBatchNanos;
+        volatile int partners;
+
+        void recordLatency(long nanos) {
+            latencyNanos.add(nanos);
+            maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getAssigned() { return assigned.sum(); }
+        /** Orders dropped at write time because they were missing or already assigned. */
+        public long getSkipped() { return skipped.sum(); }
+        /** Submissions refused because the queue was full (e.g. no partner on line) or the scheduler stopped. */
+        public long getRejected() { return rejected.sum(); }
+        public long getBatches() { return batches.sum(); }
+        public long getFailedBatches() { return failedBatches.sum(); }
+        /** Orders of a failed batch waiting to be retried; at most one batch. */
+        public long getHeld() { return held.get(); }
+        public int getPartners() { return partners; }
+        public double getLastBatchMillis() { return lastBatchNanos / 1e6; }
+
+        /** Mean time from submit to committed assignment. */
+        public double getAverageLatencyMillis() {
+            long n = getAssigned();
+            return n == 0 ? 0.0 : latencyNanos.sum() / 1e6 / n;
+        }
+
+        public double getMaxLatencyMillis() { return maxLatencyNanos.get() / 1e6; }
+
+        @Override
+        public String toString() {
+            return "assigned=" + getAssigned() + ", skipped=" + getSkipped() + ", rejected=" + getRejected()
+                    + ", held=" + getHeld() + ", batches=" + getBatches() + ", failedBatches=" + getFailedBatches()
+                    + String.format(", avgLatencyMs=%.2f, maxLatencyMs=%.2f, lastBatchMs=%.2f",
+                            getAverageLatencyMillis(), getMaxLatencyMillis(), getLastBatchMillis());
+        }
+    }
+}
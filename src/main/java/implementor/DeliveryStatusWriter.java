@@ -0,0 +1,299 @@
+package implementor;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import db_config.GetConnection;
+import db_config.PoolConfig;
+
+/**
+ * Group-commit writer for delivery status updates.
+ *
+ * Updates are queued (bounded) and a single writer thread applies them in
+ * JDBC batches, one transaction per batch. A batch is written when it
+ * reaches delivery.ingest.batchSize or when delivery.ingest.flushIntervalMs
+ * has passed since its first update, so a burst of hundreds of updates costs
+ * a few round-trips. A delivery is queued at most once: an update for a
+ * delivery that is still waiting replaces the waiting one, so the last
+ * status sent for a delivery wins and a burst for one delivery costs one
+ * row write. A batch that fails on a bad row (a data or constraint error)
+ * is written row by row and the bad rows are logged and dropped; any other
+ * failure is retried.
+ */
+public class DeliveryStatusWriter {
+    public enum Result { ACCEPTED, REPLACED, REJECTED }
+
+    private static final DeliveryStatusWriter SHARED = new DeliveryStatusWriter(
+            PoolConfig.getInt("delivery.ingest.queueCapacity", 10_000),
+            PoolConfig.getInt("delivery.ingest.batchSize", 500),
+            PoolConfig.getLong("delivery.ingest.flushIntervalMs", 50L));
+
+    // Same effect as sp_update_delivery_status, batched; a null confirmed_by_vendor leaves it as it is
+    private static final String UPDATE_STATUS = "UPDATE delivery_log SET status = ?, delivered_on = ?, "
+            + "confirmed_by_vendor = COALESCE(?, confirmed_by_vendor) WHERE delivery_id = ?";
+    private static final long RETRY_DELAY_MS = 1000;
+
+    // Delivery ids in arrival order; the update to write for each is in pending
+    private final BlockingQueue<Integer> queue;
+    private final ConcurrentHashMap<Integer, Update> pending = new ConcurrentHashMap<>();
+    private final int batchSize;
+    private final long flushIntervalMs;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder replaced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder failedRows = new LongAdder();
+
+    private volatile Thread writer;
+    private volatile boolean running;
+    private boolean stopped;
+
+    public DeliveryStatusWriter(int queueCapacity, int batchSize, long flushIntervalMs) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /** The writer configured from db.properties. */
+    public static DeliveryStatusWriter shared() {
+        return SHARED;
+    }
+
+    /**
+     * Queues one update. REPLACED means an update for the same delivery was
+     * still waiting and this one takes its place. REJECTED means the queue is
+     * full (or the writer is shut down) and the client should retry later.
+     * status must already be one of Pending, Delivered, Failed; a null
+     * confirmedByVendor leaves the flag unchanged.
+     */
+    public Result submit(int deliveryId, String status, Date deliveredOn, Boolean confirmedByVendor) {
+        if (writer == null) {
+            ensureStarted();
+        }
+        Timestamp on = deliveredOn == null ? null : new Timestamp(deliveredOn.getTime());
+        Result[] result = new Result[1];
+        pending.compute(deliveryId, (id, waiting) -> {
+            if (waiting != null) {
+                result[0] = Result.REPLACED;
+                // A later update that does not set the flag keeps the one already waiting
+                Boolean confirmed = confirmedByVendor != null ? confirmedByVendor : waiting.confirmedByVendor;
+                return new Update(deliveryId, status, on, confirmed);
+            }
+            if (running && queue.offer(id)) {
+                result[0] = Result.ACCEPTED;
+                return new Update(deliveryId, status, on, confirmedByVendor);
+            }
+            result[0] = Result.REJECTED;
+            return null;
+        });
+        switch (result[0]) {
+            case ACCEPTED: accepted.increment(); break;
+            case REPLACED: replaced.increment(); break;
+            default: rejected.increment();
+        }
+        return result[0];
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private synchronized void ensureStarted() {
+        if (writer == null && !stopped) {
+            running = true;
+            writer = new Thread(this::run, "vmms-delivery-status-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /** Stops accepting updates and writes everything already queued. */
+    public void shutdown() {
+        Thread t;
+        synchronized (this) {
+            t = writer;
+            running = false;
+            stopped = true;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        List<Integer> ids = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                if (running) {
+                    ids.add(queue.take());
+                    // Group commit: give the rest of a burst a moment to arrive
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                    while (ids.size() < batchSize) {
+                        long wait = deadline - System.nanoTime();
+                        Integer next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        ids.add(next);
+                        queue.drainTo(ids, batchSize - ids.size());
+                    }
+                } else {
+                    queue.drainTo(ids, batchSize);
+                }
+            } catch (InterruptedException e) {
+                // shutdown(): fall through and write what was collected, then drain the rest
+                queue.drainTo(ids, batchSize - ids.size());
+            }
+            if (!ids.isEmpty()) {
+                // From here on a new update for one of these deliveries queues it again
+                List<Update> batch = new ArrayList<>(ids.size());
+                for (Integer id : ids) {
+                    Update u = pending.remove(id);
+                    if (u != null) {
+                        batch.add(u);
+                    }
+                }
+                ids.clear();
+                writeWithRetry(batch);
+            }
+        }
+    }
+
+    private void writeWithRetry(List<Update> batch) {
+        while (true) {
+            try {
+                write(batch);
+                written.add(batch.size());
+                batches.increment();
+                return;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                failedAttempts.increment();
+                if (isRowError(e)) {
+                    // One bad row must not hold back the rest, nor be retried forever
+                    writeOneByOne(batch);
+                    return;
+                }
+                if (!running) {
+                    System.err.println("Dropped " + batch.size() + " delivery status updates at shutdown");
+                    failedRows.add(batch.size());
+                    return;
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    // shutdown(): one last attempt on the next pass
+                }
+            }
+        }
+    }
+
+    private void write(List<Update> batch) throws SQLException {
+        try (Connection con = GetConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(UPDATE_STATUS)) {
+                for (Update u : batch) {
+                    bind(ps, u);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                con.commit();
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void writeOneByOne(List<Update> batch) {
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(UPDATE_STATUS)) {
+            for (Update u : batch) {
+                try {
+                    bind(ps, u);
+                    ps.executeUpdate();
+                    written.increment();
+                } catch (SQLException e) {
+                    failedRows.increment();
+                    System.err.println("Dropped status update for delivery " + u.deliveryId + " (" + u.status
+                            + ", deliveredOn=" + u.deliveredOn + "): " + e.getMessage());
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            failedRows.add(batch.size());
+        }
+    }
+
+    private static void bind(PreparedStatement ps, Update u) throws SQLException {
+        ps.setString(1, u.status);
+        ps.setTimestamp(2, u.deliveredOn);
+        if (u.confirmedByVendor == null) {
+            ps.setNull(3, Types.BOOLEAN);
+        } else {
+            ps.setBoolean(3, u.confirmedByVendor);
+        }
+        ps.setInt(4, u.deliveryId);
+    }
+
+    // Data (22) or integrity constraint (23) errors come from a row, not from the connection
+    private static boolean isRowError(SQLException e) {
+        SQLException cause = e instanceof BatchUpdateException && e.getNextException() != null ? e.getNextException() : e;
+        String state = cause.getSQLState();
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+
+    /** Whether status is a value of the delivery_log.status enum. */
+    public static boolean isValidStatus(String status) {
+        return "Pending".equals(status) || "Delivered".equals(status) || "Failed".equals(status);
+    }
+
+    public long getAccepted() { return accepted.sum(); }
+    public long getReplaced() { return replaced.sum(); }
+    public long getRejected() { return rejected.sum(); }
+    public long getWritten() { return written.sum(); }
+    public long getBatches() { return batches.sum(); }
+    public long getFailedAttempts() { return failedAttempts.sum(); }
+    public long getFailedRows() { return failedRows.sum(); }
+
+    @Override
+    public String toString() {
+        return "queued=" + getQueueDepth() + ", accepted=" + getAccepted() + ", replaced=" + getReplaced()
+                + ", rejected=" + getRejected() + ", written=" + getWritten() + ", batches=" + getBatches()
+                + ", failedAttempts=" + getFailedAttempts() + ", failedRows=" + getFailedRows();
+    }
+
+    private static final class Update {
+        final int deliveryId;
+        final String status;
+        final Timestamp deliveredOn;
+        final Boolean confirmedByVendor;
+
+        Update(int deliveryId, String status, Timestamp deliveredOn, Boolean confirmedByVendor) {
+            this.deliveryId = deliveryId;
+            this.status = status;
+            this.deliveredOn = deliveredOn;
+            this.confirmedByVendor = confirmedByVendor;
+        }
+    }
+}
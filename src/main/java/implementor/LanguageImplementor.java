@@ -10,6 +10,12 @@ public class LanguageImplementor implements LanguageOperations {
 
     @Override
     public String getLanguagePreference(int userId) {
+        String language = loadLanguagePreference(userId);
+        return language != null ? language : "en"; // default language
+    }
+
+    // The user's language, "en" if they never chose one, or null if the query failed
+    String loadLanguagePreference(int userId) {
         String language = "en"; // default language
         String query = "SELECT selected_language FROM language_settings WHERE user_id = ?";
         try (Connection con = GetConnection.getConnection();
@@ -21,13 +27,14 @@ public class LanguageImplementor implements LanguageOperations {
             }
         } catch (SQLException e) {
             e.printStackTrace();
+            return null;
         }
         return language;
     }
 
     @Override
     public boolean setLanguagePreference(int userId, String languageCode) {
-        String call = "{CALL sp_set_language(?, ?, ?)}";
+        String call = "{CALL sp_set_user_language(?, ?, ?)}";
         try (Connection con = GetConnection.getConnection();
              CallableStatement cs = con.prepareCall(call)) {
             cs.setInt(1, userId);
@@ -35,7 +42,8 @@ public class LanguageImplementor implements LanguageOperations {
             cs.registerOutParameter(3, Types.VARCHAR);
             cs.execute();
             String status = cs.getString(3);
-            return status != null && status.toLowerCase().contains("success");
+            // "Language preference updated" or "Language preference set"
+            return status != null && status.startsWith("Language preference");
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -1,21 +1,53 @@
 package implementor;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import db_config.GetConnection;
+import db_config.PoolConfig;
+import model.CartItem;
 import model.Order;
 import model.OrderItem;
+import operation.DataAccessException;
 import operation.OrderOperations;
+import util.IntDoubleMap;
 
 public class OrderImplementor implements OrderOperations {
+    private static final String ORDER_COLUMNS = "order_id, vendor_id, order_date, status, total_amount";
+    static final int DEFAULT_PAGE_SIZE = 50;
+    static final int MAX_PAGE_SIZE = 500;
+    static final int STREAM_FETCH_SIZE = PoolConfig.getInt("db.streamFetchSize", 500);
+
+    // IN-list sizes for the batch lookups; padding each chunk up to one of these
+    // keeps the number of distinct SQL texts (and cached statements) small
+    private static final int[] IN_LIST_SIZES = { 8, 32, 128, 512 };
+    static final int MAX_IN_LIST_SIZE = IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
+    private static final int TERMINAL_TOTALS_CAPACITY = 10_000;
+    private static final String TERMINAL_STATUS = "Delivered";
+
+    // Totals of delivered orders never change, so they are remembered across calls
+    private static final Map<Integer, Double> TERMINAL_TOTALS = Collections.synchronizedMap(
+            new LinkedHashMap<Integer, Double>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Double> eldest) {
+                    return size() > TERMINAL_TOTALS_CAPACITY;
+                }
+            });
 
     @Override
     public List<Order> getOrdersByVendor(int vendorId) {
         List<Order> orders = new ArrayList<>();
         String query = "SELECT * FROM orders WHERE vendor_id = ?";
-        try (Connection con = GetConnection.getConnection();
+        try (Connection con = GetConnection.getReadConnection(vendorId);
              PreparedStatement ps = con.prepareStatement(query)) {
             ps.setInt(1, vendorId);
             try (ResultSet rs = ps.executeQuery()) {
@@ -29,6 +61,98 @@ public class OrderImplementor implements OrderOperations {
         return orders;
     }
 
+    /**
+     * Keyset-paginated orders of a vendor, newest first. Pass afterOrderId = 0
+     * for the first page, then the orderId of the last order received.
+     * status, fromDate and toDate are optional filters (null = any).
+     */
+    @Override
+    public List<Order> getOrdersByVendor(int vendorId, int afterOrderId, int pageSize, String status,
+                                         Timestamp fromDate, Timestamp toDate) {
+        int limit = pageSize <= 0 ? DEFAULT_PAGE_SIZE : Math.min(pageSize, MAX_PAGE_SIZE);
+        List<Order> orders = new ArrayList<>(limit);
+        StringBuilder query = new StringBuilder("SELECT ").append(ORDER_COLUMNS)
+                .append(" FROM orders WHERE vendor_id = ?");
+        if (afterOrderId > 0) {
+            query.append(" AND order_id < ?");
+        }
+        appendFilters(query, status, fromDate, toDate);
+        query.append(" ORDER BY order_id DESC LIMIT ?");
+        try (Connection con = GetConnection.getReadConnection(vendorId);
+             PreparedStatement ps = con.prepareStatement(query.toString())) {
+            int i = 1;
+            ps.setInt(i++, vendorId);
+            if (afterOrderId > 0) {
+                ps.setInt(i++, afterOrderId);
+            }
+            i = bindFilters(ps, i, status, fromDate, toDate);
+            ps.setInt(i, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    orders.add(mapOrder(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return orders;
+    }
+
+    /**
+     * Streams all matching orders of a vendor, newest first, to the consumer
+     * as they are read. Rows are fetched in chunks of db.streamFetchSize, so
+     * the full history is never held in memory.
+     */
+    @Override
+    public void forEachOrderByVendor(int vendorId, String status, Timestamp fromDate, Timestamp toDate,
+                                     Consumer<Order> consumer) {
+        StringBuilder query = new StringBuilder("SELECT ").append(ORDER_COLUMNS)
+                .append(" FROM orders WHERE vendor_id = ?");
+        appendFilters(query, status, fromDate, toDate);
+        query.append(" ORDER BY order_id DESC");
+        try (Connection con = GetConnection.getReadConnection(vendorId);
+             PreparedStatement ps = con.prepareStatement(query.toString(),
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            ps.setInt(1, vendorId);
+            bindFilters(ps, 2, status, fromDate, toDate);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(mapOrder(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new DataAccessException(e);
+        }
+    }
+
+    private static void appendFilters(StringBuilder query, String status, Timestamp fromDate, Timestamp toDate) {
+        if (status != null) {
+            query.append(" AND status = ?");
+        }
+        if (fromDate != null) {
+            query.append(" AND order_date >= ?");
+        }
+        if (toDate != null) {
+            query.append(" AND order_date < ?");
+        }
+    }
+
+    private static int bindFilters(PreparedStatement ps, int index, String status, Timestamp fromDate, Timestamp toDate)
+            throws SQLException {
+        if (status != null) {
+            ps.setString(index++, status);
+        }
+        if (fromDate != null) {
+            ps.setTimestamp(index++, fromDate);
+        }
+        if (toDate != null) {
+            ps.setTimestamp(index++, toDate);
+        }
+        return index;
+    }
+
     @Override
     public Order getOrderDetails(int orderId) {
         Order order = null;
@@ -47,37 +171,146 @@ public class OrderImplementor implements OrderOperations {
         return order;
     }
 
+    /**
+     * Places an order. With no items the vendor's cart is checked out. Either
+     * way the lines are priced by {@link PricingEngine}: each product's
+     * quantity is billed as its cheapest mix of boxes and units at catalog
+     * prices, whatever price a line carries. The order header and every line
+     * are written in one transaction on one connection, the lines as a single
+     * JDBC batch, so the cost in round-trips does not grow with the number of
+     * lines; a cart checkout empties cart_items in the same transaction. The
+     * stock is reserved in {@link StockReservations} first (a cart's hold
+     * becomes the order's reservation), and the order is refused if any
+     * product is short.
+     */
     @Override
     public boolean placeOrder(int vendorId, List<OrderItem> items) {
-        boolean success = false;
-        String callProcedure = "{CALL sp_place_order(?, ?, ?)}"; // vendorId, out orderId, out status
-        
-        try (Connection con = GetConnection.getConnection();
-             CallableStatement cs = con.prepareCall(callProcedure)) {
-            
-            cs.setInt(1, vendorId);
-            cs.registerOutParameter(2, Types.INTEGER); // orderId
-            cs.registerOutParameter(3, Types.VARCHAR); // status
-            
-            cs.execute();
-            
-            int orderId = cs.getInt(2);
-            String status = cs.getString(3);
-            
-            if (!"Order placed successfully".equalsIgnoreCase(status)) {
+        if (items != null && !items.isEmpty()) {
+            return placeOrderWithItems(vendorId, items);
+        }
+        // The cart is written and held until the order is placed, so no edit slips in between
+        return CartStore.shared().checkout(vendorId, cart -> placeCartOrder(vendorId, cart));
+    }
+
+    private boolean placeCartOrder(int vendorId, List<CartItem> cart) {
+        if (cart.isEmpty()) {
+            System.err.println("Rejected order for vendor " + vendorId + ": the cart is empty");
+            return false;
+        }
+        // Catalog prices, not the ones stored on the cart lines when they were added
+        return placeQuote(vendorId, PricingEngine.shared().quoteCart(cart), true, null);
+    }
+
+    private boolean placeOrderWithItems(int vendorId, List<OrderItem> requested) {
+        for (OrderItem item : requested) {
+            if (item.getQty() <= 0 || !("unit".equals(item.getMode()) || "box".equals(item.getMode()))) {
+                System.err.println("Rejected order for vendor " + vendorId + ": invalid line for product "
+                        + item.getProductId());
                 return false;
             }
-            
-            // Insert order items after order header creation in stored procedure
-            // Since sp_place_order sub-handles cart, if direct insert is needed, implement separately
-            
-            success = true;
-            
+        }
+        // Catalog prices, not the client's, in the cheapest box/unit split of each product's quantity
+        return placeQuote(vendorId, PricingEngine.shared().quoteOrder(requested), false, requested);
+    }
+
+    // Writes the quoted order; fromCart takes the cart's stock hold and empties cart_items
+    private boolean placeQuote(int vendorId, PricingEngine.Quote quote, boolean fromCart, List<OrderItem> requested) {
+        if (!quote.isComplete()) {
+            System.err.println("Rejected order for vendor " + vendorId + ": products not available "
+                    + Arrays.toString(quote.getUnknownProductIds()));
+            return false;
+        }
+        int[] productIds = new int[quote.size()];
+        long[] units = new long[quote.size()];
+        for (int i = 0; i < productIds.length; i++) {
+            productIds[i] = quote.getProductId(i);
+            units[i] = quote.getTotalUnits(i);
+        }
+        StockReservations stock = StockReservations.shared();
+        StockReservations.Reservation reservation = fromCart
+                ? stock.takeCart(vendorId, productIds, units, productIds.length)
+                : stock.reserve(productIds, units, productIds.length);
+        if (reservation == null) {
+            System.err.println("Rejected order for vendor " + vendorId + ": not enough stock");
+            return false;
+        }
+        List<OrderItem> items = quote.toOrderItems();
+        BigDecimal total = quote.getTotal();
+        BigDecimal[] prices = new BigDecimal[items.size()];
+        for (int i = 0; i < prices.length; i++) {
+            // Same rounding as the DECIMAL(10,2) price column
+            prices[i] = BigDecimal.valueOf(items.get(i).getPrice()).setScale(2, RoundingMode.HALF_UP);
+        }
+
+        String insertOrder = "INSERT INTO orders (vendor_id, order_date, status, total_amount) VALUES (?, NOW(), 'Pending', ?)";
+        String insertItem = "INSERT INTO order_items (order_id, product_id, qty, mode, price) VALUES (?, ?, ?, ?, ?)";
+        String addDue = "UPDATE vendors SET due_amount = due_amount + ? WHERE vendor_id = ?";
+        String clearCart = "DELETE FROM cart_items WHERE vendor_id = ?";
+        VendorDueLedger ledger = VendorDueLedger.shared();
+        ledger.beginWrite(vendorId);
+        boolean committed = false;
+        try (Connection con = GetConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement header = con.prepareStatement(insertOrder, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement lines = con.prepareStatement(insertItem);
+                 PreparedStatement due = con.prepareStatement(addDue)) {
+                header.setInt(1, vendorId);
+                header.setBigDecimal(2, total);
+                header.executeUpdate();
+                int orderId;
+                try (ResultSet keys = header.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        throw new SQLException("No order id generated");
+                    }
+                    orderId = keys.getInt(1);
+                }
+
+                for (int i = 0; i < prices.length; i++) {
+                    OrderItem item = items.get(i);
+                    lines.setInt(1, orderId);
+                    lines.setInt(2, item.getProductId());
+                    lines.setInt(3, item.getQty());
+                    lines.setString(4, item.getMode());
+                    lines.setBigDecimal(5, prices[i]);
+                    lines.addBatch();
+                }
+                lines.executeBatch();
+                due.setBigDecimal(1, total);
+                due.setInt(2, vendorId);
+                due.executeUpdate();
+                if (fromCart) {
+                    try (PreparedStatement cart = con.prepareStatement(clearCart)) {
+                        cart.setInt(1, vendorId);
+                        cart.executeUpdate();
+                    }
+                }
+                con.commit();
+                committed = true;
+
+                if (requested != null) {
+                    for (OrderItem item : requested) {
+                        item.setOrderId(orderId);
+                    }
+                }
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+            GetConnection.recordWrite(vendorId);
+            ledger.applyDelta(vendorId, total.doubleValue());
+            return true;
         } catch (SQLException e) {
             e.printStackTrace();
-            success = false;
+            return false;
+        } finally {
+            // Whatever went wrong after reserving, the units are either sold or free again
+            if (committed) {
+                stock.commit(reservation);
+            } else {
+                stock.release(reservation);
+            }
+            ledger.endWrite(vendorId);
         }
-        return success;
     }
 
     @Override
@@ -97,6 +330,10 @@ public class OrderImplementor implements OrderOperations {
 
     @Override
     public double calculateOrderTotal(int orderId) {
+        Double cached = TERMINAL_TOTALS.get(orderId);
+        if (cached != null) {
+            return cached;
+        }
         double total = 0;
         String query = "SELECT IFNULL(SUM(qty * price), 0) AS total FROM order_items WHERE order_id = ?";
         try (Connection con = GetConnection.getConnection();
@@ -113,6 +350,84 @@ public class OrderImplementor implements OrderOperations {
         return total;
     }
 
+    /**
+     * Totals for many orders with one grouped query per chunk of ids, instead
+     * of one query per order. Unknown order ids are left out of the result;
+     * read it with get(orderId, 0) to match calculateOrderTotal.
+     */
+    @Override
+    public IntDoubleMap calculateOrderTotals(Collection<Integer> orderIds) {
+        IntDoubleMap totals = new IntDoubleMap(orderIds.size());
+        int[] pending = new int[orderIds.size()];
+        int count = 0;
+        for (Integer id : orderIds) {
+            if (id == null) {
+                continue;
+            }
+            Double cached = TERMINAL_TOTALS.get(id);
+            if (cached != null) {
+                totals.put(id, cached);
+            } else {
+                pending[count++] = id;
+            }
+        }
+
+        try (Connection con = GetConnection.getReadConnection()) {
+            for (int from = 0; from < count; from += MAX_IN_LIST_SIZE) {
+                int n = Math.min(MAX_IN_LIST_SIZE, count - from);
+                int size = inListSize(n);
+                try (PreparedStatement ps = con.prepareStatement(totalsQuery(size))) {
+                    bindInList(ps, 1, size, pending, from, n);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            int orderId = rs.getInt("order_id");
+                            double total = rs.getDouble("total");
+                            totals.put(orderId, total);
+                            if (TERMINAL_STATUS.equals(rs.getString("status"))) {
+                                TERMINAL_TOTALS.put(orderId, total);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return totals;
+    }
+
+    private static String totalsQuery(int inListSize) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT o.order_id, o.status, IFNULL(SUM(oi.qty * oi.price), 0) AS total "
+                + "FROM orders o LEFT JOIN order_items oi ON oi.order_id = o.order_id WHERE o.order_id IN (");
+        appendPlaceholders(sql, inListSize);
+        return sql.append(") GROUP BY o.order_id, o.status").toString();
+    }
+
+    /** The padded IN-list size to use for n ids (n <= MAX_IN_LIST_SIZE). */
+    static int inListSize(int n) {
+        for (int size : IN_LIST_SIZES) {
+            if (size >= n) {
+                return size;
+            }
+        }
+        return MAX_IN_LIST_SIZE;
+    }
+
+    static void appendPlaceholders(StringBuilder sql, int count) {
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+    }
+
+    /** Binds ids[from..from+n) to size placeholders, padding by repeating the last id; IN ignores duplicates. */
+    static int bindInList(PreparedStatement ps, int index, int size, int[] ids, int from, int n) throws SQLException {
+        for (int i = 0; i < size; i++) {
+            ps.setInt(index++, ids[from + Math.min(i, n - 1)]);
+        }
+        return index;
+    }
+
     private Order mapOrder(ResultSet rs) throws SQLException {
         Order o = new Order();
         o.setOrderId(rs.getInt("order_id"));
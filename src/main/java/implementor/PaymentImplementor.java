@@ -3,16 +3,22 @@ package implementor;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import db_config.GetConnection;
 import model.Payment;
+import operation.DataAccessException;
 import operation.PaymentOperations;
+import util.IntDoubleMap;
 
 public class PaymentImplementor implements PaymentOperations {
+    private static final String PAYMENT_COLUMNS = "payment_id, vendor_id, order_id, amount_paid, mode, paid_on";
 
     @Override
     public boolean makePayment(int vendorId, int orderId, double amount, String mode, Timestamp paymentDate) {
         String call = "{CALL sp_make_payment(?, ?, ?, ?, ?, ?)}";
+        VendorDueLedger ledger = VendorDueLedger.shared();
+        ledger.beginWrite(vendorId);
         try (Connection con = GetConnection.getConnection();
              CallableStatement cs = con.prepareCall(call)) {
              
@@ -26,11 +32,18 @@ public class PaymentImplementor implements PaymentOperations {
             cs.execute();
             
             String status = cs.getString(6);
-            return status != null && status.toLowerCase().contains("success");
+            boolean success = status != null && status.toLowerCase().contains("success");
+            if (success) {
+                GetConnection.recordWrite(vendorId);
+                ledger.applyDelta(vendorId, -amount);
+            }
+            return success;
             
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            ledger.endWrite(vendorId);
         }
     }
 
@@ -38,7 +51,7 @@ public class PaymentImplementor implements PaymentOperations {
     public List<Payment> getPaymentsByVendor(int vendorId) {
         List<Payment> payments = new ArrayList<>();
         String query = "SELECT * FROM payments WHERE vendor_id = ?";
-        try (Connection con = GetConnection.getConnection();
+        try (Connection con = GetConnection.getReadConnection(vendorId);
              PreparedStatement ps = con.prepareStatement(query)) {
              
             ps.setInt(1, vendorId);
@@ -53,22 +66,101 @@ public class PaymentImplementor implements PaymentOperations {
         return payments;
     }
 
+    /**
+     * Keyset-paginated payments of a vendor, newest first. For the first page
+     * pass afterPaidOn = null; for the next ones pass the paidOn and paymentId
+     * of the last payment received. fromDate/toDate are optional (null = any).
+     */
     @Override
-    public double calculateDueAmount(int vendorId) {
-        double dueAmount = 0.0;
-        String query = "SELECT due_amount FROM vendors WHERE vendor_id = ?";
-        try (Connection con = GetConnection.getConnection();
-             PreparedStatement ps = con.prepareStatement(query)) {
-             
+    public List<Payment> getPaymentsByVendor(int vendorId, Timestamp afterPaidOn, int afterPaymentId, int pageSize,
+                                             Timestamp fromDate, Timestamp toDate) {
+        int limit = pageSize <= 0 ? OrderImplementor.DEFAULT_PAGE_SIZE
+                : Math.min(pageSize, OrderImplementor.MAX_PAGE_SIZE);
+        List<Payment> payments = new ArrayList<>(limit);
+        StringBuilder query = new StringBuilder("SELECT ").append(PAYMENT_COLUMNS)
+                .append(" FROM payments WHERE vendor_id = ?");
+        if (afterPaidOn != null) {
+            // (paid_on, payment_id) < (?, ?), spelled out so MySQL can range-scan the index
+            query.append(" AND (paid_on < ? OR (paid_on = ? AND payment_id < ?))");
+        }
+        appendDateFilters(query, fromDate, toDate);
+        query.append(" ORDER BY paid_on DESC, payment_id DESC LIMIT ?");
+        try (Connection con = GetConnection.getReadConnection(vendorId);
+             PreparedStatement ps = con.prepareStatement(query.toString())) {
+            int i = 1;
+            ps.setInt(i++, vendorId);
+            if (afterPaidOn != null) {
+                ps.setTimestamp(i++, afterPaidOn);
+                ps.setTimestamp(i++, afterPaidOn);
+                ps.setInt(i++, afterPaymentId);
+            }
+            i = bindDateFilters(ps, i, fromDate, toDate);
+            ps.setInt(i, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    payments.add(mapPayment(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return payments;
+    }
+
+    /** Streams all matching payments of a vendor, newest first, without holding them in memory. */
+    @Override
+    public void forEachPaymentByVendor(int vendorId, Timestamp fromDate, Timestamp toDate,
+                                       Consumer<Payment> consumer) {
+        StringBuilder query = new StringBuilder("SELECT ").append(PAYMENT_COLUMNS)
+                .append(" FROM payments WHERE vendor_id = ?");
+        appendDateFilters(query, fromDate, toDate);
+        query.append(" ORDER BY paid_on DESC, payment_id DESC");
+        try (Connection con = GetConnection.getReadConnection(vendorId);
+             PreparedStatement ps = con.prepareStatement(query.toString(),
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(OrderImplementor.STREAM_FETCH_SIZE);
             ps.setInt(1, vendorId);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                dueAmount = rs.getDouble("due_amount");
+            bindDateFilters(ps, 2, fromDate, toDate);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(mapPayment(rs));
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
+            throw new DataAccessException(e);
+        }
+    }
+
+    private static void appendDateFilters(StringBuilder query, Timestamp fromDate, Timestamp toDate) {
+        if (fromDate != null) {
+            query.append(" AND paid_on >= ?");
+        }
+        if (toDate != null) {
+            query.append(" AND paid_on < ?");
+        }
+    }
+
+    private static int bindDateFilters(PreparedStatement ps, int index, Timestamp fromDate, Timestamp toDate)
+            throws SQLException {
+        if (fromDate != null) {
+            ps.setTimestamp(index++, fromDate);
         }
-        return dueAmount;
+        if (toDate != null) {
+            ps.setTimestamp(index++, toDate);
+        }
+        return index;
+    }
+
+    @Override
+    public double calculateDueAmount(int vendorId) {
+        return VendorDueLedger.shared().getDue(vendorId);
+    }
+
+    /** Due amount of every vendor, keyed by vendorId, served from the in-process ledger. */
+    @Override
+    public IntDoubleMap getAllDueAmounts() {
+        return VendorDueLedger.shared().getAllDues();
     }
 
     private Payment mapPayment(ResultSet rs) throws SQLException {
@@ -0,0 +1,238 @@
+package implementor;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import model.CartItem;
+import model.OrderItem;
+import model.Product;
+import operation.ProductOperations;
+
+/**
+ * Prices carts and orders from the catalog, in whole paise.
+ *
+ * Quantities are first converted to units (a box line counts qty * qtyPerBox)
+ * and summed per product, then each product is billed as the cheapest mix
+ * of boxes and loose units for exactly that many units: as many whole boxes
+ * as possible when a box costs less than qtyPerBox units, otherwise units
+ * only. The catalog is copied into sorted primitive arrays whenever the
+ * catalog snapshot changes, so quoting does not touch the database and is
+ * one pass over primitive arrays.
+ */
+public class PricingEngine {
+    private static final PricingEngine SHARED = new PricingEngine(CachingProductImplementor.shared());
+
+    // Per-thread scratch indexed by catalog position; all zero between quotes
+    private static final ThreadLocal<long[]> UNITS_AT = ThreadLocal.withInitial(() -> new long[0]);
+
+    private final ProductOperations catalog;
+    private volatile Table table;
+
+    public PricingEngine(ProductOperations catalog) {
+        this.catalog = catalog;
+    }
+
+    /** The engine over the shared catalog snapshot. */
+    public static PricingEngine shared() {
+        return SHARED;
+    }
+
+    /** Prices a cart, ignoring the prices stored on its lines. */
+    public Quote quoteCart(List<CartItem> items) {
+        int n = items.size();
+        int[] productIds = new int[n];
+        long[] qty = new long[n];
+        boolean[] box = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            CartItem item = items.get(i);
+            productIds[i] = item.getProductId();
+            qty[i] = item.getQty();
+            box[i] = "box".equals(item.getMode());
+        }
+        return quote(productIds, qty, box, n);
+    }
+
+    /** Prices order lines, ignoring the prices on them. */
+    public Quote quoteOrder(List<OrderItem> items) {
+        int n = items.size();
+        int[] productIds = new int[n];
+        long[] qty = new long[n];
+        boolean[] box = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            OrderItem item = items.get(i);
+            productIds[i] = item.getProductId();
+            qty[i] = item.getQty();
+            box[i] = "box".equals(item.getMode());
+        }
+        return quote(productIds, qty, box, n);
+    }
+
+    /**
+     * Prices count lines of qty[i] of productIds[i], in boxes where box[i]
+     * (box may be null: all units). The arrays are not modified.
+     */
+    public Quote quote(int[] productIds, long[] qty, boolean[] box, int count) {
+        Table t = currentTable();
+        // Units summed per catalog position, so lines of the same product meet without sorting
+        long[] unitsAt = UNITS_AT.get();
+        if (unitsAt.length < t.ids.length) {
+            unitsAt = new long[t.ids.length];
+            UNITS_AT.set(unitsAt);
+        }
+        int[] positions = new int[count];   // distinct products, in first-seen order
+        int[] unknownIds = new int[count];
+        int distinct = 0;
+        int unknown = 0;
+        for (int i = 0; i < count; i++) {
+            int p = Arrays.binarySearch(t.ids, productIds[i]);
+            if (p < 0) {
+                unknownIds[unknown++] = productIds[i];
+                continue;
+            }
+            if (unitsAt[p] == 0) {
+                positions[distinct++] = p;
+            }
+            unitsAt[p] += box != null && box[i] ? qty[i] * t.perBox[p] : qty[i];
+        }
+
+        Quote q = new Quote(distinct, Arrays.copyOf(unknownIds, unknown));
+        int lines = 0;
+        for (int k = 0; k < distinct; k++) {
+            int p = positions[k];
+            long totalUnits = unitsAt[p];
+            unitsAt[p] = 0;   // leave the scratch array clean for the next quote
+            if (totalUnits <= 0) {
+                continue;
+            }
+            long boxes = 0;
+            long perBox = t.perBox[p];
+            if (perBox > 0 && t.boxPaise[p] < perBox * t.unitPaise[p]) {
+                boxes = totalUnits / perBox;
+            }
+            long loose = totalUnits - boxes * perBox;
+            q.productIds[lines] = t.ids[p];
+            q.boxes[lines] = boxes;
+            q.units[lines] = loose;
+            q.totalUnits[lines] = totalUnits;
+            q.boxPaise[lines] = t.boxPaise[p];
+            q.unitPaise[lines] = t.unitPaise[p];
+            q.linePaise[lines] = boxes * t.boxPaise[p] + loose * t.unitPaise[p];
+            q.totalPaise += q.linePaise[lines];
+            lines++;
+        }
+        q.size = lines;
+        return q;
+    }
+
+    // The catalog as sorted arrays, rebuilt when the catalog snapshot is replaced
+    private Table currentTable() {
+        List<Product> products = catalog.getAllActiveProducts();
+        Table t = table;
+        if (t == null || t.source != products) {
+            t = new Table(products);
+            table = t;
+        }
+        return t;
+    }
+
+    private static final class Table {
+        final List<Product> source;
+        final int[] ids;
+        final long[] unitPaise;
+        final long[] boxPaise;
+        final long[] perBox;
+
+        Table(List<Product> products) {
+            source = products;
+            Product[] sorted = products.toArray(new Product[0]);
+            Arrays.sort(sorted, (a, b) -> Integer.compare(a.getProductId(), b.getProductId()));
+            int n = sorted.length;
+            ids = new int[n];
+            unitPaise = new long[n];
+            boxPaise = new long[n];
+            perBox = new long[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = sorted[i].getProductId();
+                unitPaise[i] = Math.round(sorted[i].getUnitPrice() * 100);   // DECIMAL(10,2): exact in paise
+                boxPaise[i] = Math.round(sorted[i].getBoxPrice() * 100);
+                perBox[i] = sorted[i].getQtyPerBox();
+            }
+        }
+    }
+
+    /** The priced lines, one per product in order of first appearance, and their total. */
+    public static final class Quote {
+        private int size;
+        private final int[] productIds;
+        private final long[] boxes;
+        private final long[] units;
+        private final long[] totalUnits;
+        private final long[] boxPaise;
+        private final long[] unitPaise;
+        private final long[] linePaise;
+        private long totalPaise;
+        private final int[] unknownProductIds;
+
+        Quote(int capacity, int[] unknownProductIds) {
+            productIds = new int[capacity];
+            boxes = new long[capacity];
+            units = new long[capacity];
+            totalUnits = new long[capacity];
+            boxPaise = new long[capacity];
+            unitPaise = new long[capacity];
+            linePaise = new long[capacity];
+            this.unknownProductIds = unknownProductIds;
+        }
+
+        public int size() { return size; }
+        public int getProductId(int i) { return productIds[i]; }
+        public long getBoxes(int i) { return boxes[i]; }
+        public long getUnits(int i) { return units[i]; }
+        public long getTotalUnits(int i) { return totalUnits[i]; }
+        public long getBoxPricePaise(int i) { return boxPaise[i]; }
+        public long getUnitPricePaise(int i) { return unitPaise[i]; }
+        public long getLinePaise(int i) { return linePaise[i]; }
+        public long getTotalPaise() { return totalPaise; }
+
+        public BigDecimal getTotal() {
+            return BigDecimal.valueOf(totalPaise, 2);
+        }
+
+        /** Products not in the active catalog; they are left out of the quote. */
+        public int[] getUnknownProductIds() {
+            return unknownProductIds.clone();
+        }
+
+        public boolean isComplete() {
+            return unknownProductIds.length == 0;
+        }
+
+        /**
+         * The quote as order lines: a box line and/or a unit line per product.
+         * (product, mode) is unique, which is how return items find their line.
+         */
+        public List<OrderItem> toOrderItems() {
+            List<OrderItem> items = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                if (boxes[i] > 0) {
+                    items.add(orderItem(productIds[i], boxes[i], "box", boxPaise[i]));
+                }
+                if (units[i] > 0) {
+                    items.add(orderItem(productIds[i], units[i], "unit", unitPaise[i]));
+                }
+            }
+            return items;
+        }
+
+        private static OrderItem orderItem(int productId, long qty, String mode, long pricePaise) {
+            OrderItem item = new OrderItem();
+            item.setProductId(productId);
+            item.setQty(Math.toIntExact(qty));
+            item.setMode(mode);
+            item.setPrice(pricePaise / 100.0);
+            return item;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package implementor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+import model.Product;
+
+/**
+ * Streams products out of a CSV file one row at a time.
+ *
+ * The first line is a header naming the columns, in any order:
+ * name, unit_price, box_price, qty_per_box (required) and image_url,
+ * is_active, stock_quantity (optional). Fields may be double-quoted.
+ * Rows that cannot be parsed come back with an error instead of a product.
+ */
+class ProductCsvReader implements Iterator<ProductCsvReader.Row> {
+
+    /** One input row: either a product or the reason it was rejected. */
+    static final class Row {
+        final int rowNumber;
+        final Product product;
+        final String error;
+
+        Row(int rowNumber, Product product, String error) {
+            this.rowNumber = rowNumber;
+            this.product = product;
+            this.error = error;
+        }
+    }
+
+    private final BufferedReader reader;
+    private int lineNumber;
+    private int name = -1, unitPrice = -1, boxPrice = -1, qtyPerBox = -1;
+    private int imageUrl = -1, isActive = -1, stockQuantity = -1;
+    private Row next;
+    private String headerError;
+
+    ProductCsvReader(BufferedReader reader) {
+        this.reader = reader;
+        try {
+            readHeader();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Non-null when the header is missing or lacks a required column; no rows are returned then. */
+    String getHeaderError() {
+        return headerError;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && headerError == null) {
+            try {
+                next = readRow();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Row next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Row row = next;
+        next = null;
+        return row;
+    }
+
+    private void readHeader() throws IOException {
+        List<String> header = readRecord();
+        if (header == null) {
+            headerError = "CSV file is empty";
+            return;
+        }
+        for (int i = 0; i < header.size(); i++) {
+            switch (header.get(i).trim().toLowerCase(Locale.ROOT)) {
+                case "name": name = i; break;
+                case "unit_price": unitPrice = i; break;
+                case "box_price": boxPrice = i; break;
+                case "qty_per_box": qtyPerBox = i; break;
+                case "image_url": imageUrl = i; break;
+                case "is_active": isActive = i; break;
+                case "stock_quantity": stockQuantity = i; break;
+                default: break;
+            }
+        }
+        if (name < 0 || unitPrice < 0 || boxPrice < 0 || qtyPerBox < 0) {
+            headerError = "Header must contain name, unit_price, box_price and qty_per_box";
+        }
+    }
+
+    private Row readRow() throws IOException {
+        List<String> fields;
+        int rowNumber;
+        do {
+            rowNumber = lineNumber + 1;
+            fields = readRecord();
+            if (fields == null) {
+                return null;
+            }
+        } while (fields.size() == 1 && fields.get(0).trim().isEmpty());   // skip blank lines
+
+        try {
+            Product p = new Product();
+            p.setName(field(fields, name));
+            p.setUnitPrice(Double.parseDouble(field(fields, unitPrice)));
+            p.setBoxPrice(Double.parseDouble(field(fields, boxPrice)));
+            p.setQtyPerBox(Integer.parseInt(field(fields, qtyPerBox)));
+            String url = field(fields, imageUrl);
+            p.setImageUrl(url.isEmpty() ? null : url);
+            String active = field(fields, isActive);
+            p.setActive(active.isEmpty() || active.equals("1") || active.equalsIgnoreCase("true"));
+            String stock = field(fields, stockQuantity);
+            p.setStockQuantity(stock.isEmpty() ? 0 : Integer.parseInt(stock));
+            return new Row(rowNumber, p, null);
+        } catch (NumberFormatException e) {
+            return new Row(rowNumber, null, "Invalid number: " + e.getMessage());
+        }
+    }
+
+    private static String field(List<String> fields, int index) {
+        return index >= 0 && index < fields.size() ? fields.get(index).trim() : "";
+    }
+
+    // Reads one CSV record; a quoted field may span several lines
+    private List<String> readRecord() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        lineNumber++;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (quoted) {
+                    String more = reader.readLine();
+                    if (more != null) {
+                        lineNumber++;
+                        field.append('\n');
+                        line = more;
+                        i = 0;
+                        continue;
+                    }
+                }
+                fields.add(field.toString());
+                return fields;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c == '"') {
+                    if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+    }
+}
@@ -1,20 +1,52 @@
 package implementor;
 
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
+import model.ImportReport;
 import model.Product;
 import operation.ProductOperations;
 import db_config.GetConnection;
+import db_config.PoolConfig;
 
 public class ProductImplementor implements ProductOperations {
+    private static final String INSERT_PRODUCT =
+            "INSERT INTO products (name, unit_price, box_price, qty_per_box, image_url, is_active, stock_quantity) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private final int importBatchSize;
+
+    public ProductImplementor() {
+        this(PoolConfig.getInt("db.import.batchSize", 1000));
+    }
+
+    /** @param importBatchSize rows per JDBC batch and per transaction in bulk imports */
+    public ProductImplementor(int importBatchSize) {
+        this.importBatchSize = Math.max(1, importBatchSize);
+    }
 
     @Override
     public List<Product> getAllActiveProducts() {
+        List<Product> products = loadActiveProducts(false);
+        return products != null ? products : new ArrayList<>();
+    }
+
+    /**
+     * The active products, read from the primary when fromPrimary (right after a
+     * catalog write the replica may not have yet). Null if the query failed, so a
+     * failure can be told apart from an empty catalog.
+     */
+    List<Product> loadActiveProducts(boolean fromPrimary) {
         List<Product> products = new ArrayList<>();
         String query = "CALL sp_get_active_products()";
-        try (Connection con = GetConnection.getConnection();
+        try (Connection con = fromPrimary ? GetConnection.getConnection() : GetConnection.getReadConnection();
              PreparedStatement ps = con.prepareStatement(query)) {
 
             ResultSet rs = ps.executeQuery();
@@ -24,6 +56,7 @@ public class ProductImplementor implements ProductOperations {
             }
         } catch (SQLException e) {
             e.printStackTrace();
+            return null;
         }
         return products;
     }
@@ -47,7 +80,7 @@ public class ProductImplementor implements ProductOperations {
 
     @Override
     public boolean addProduct(Product product) {
-        String query = "CALL sp_add_product(?, ?, ?, ?, ?, ?, ?, ?)";
+        String query = "CALL sp_add_product(?, ?, ?, ?, ?, ?, ?, ?, ?)";
         try (Connection con = GetConnection.getConnection();
              CallableStatement cs = con.prepareCall(query)) {
             cs.setString(1, product.getName());
@@ -56,13 +89,14 @@ public class ProductImplementor implements ProductOperations {
             cs.setInt(4, product.getQtyPerBox());
             cs.setString(5, product.getImageUrl());
             cs.setBoolean(6, product.isActive());
-            cs.registerOutParameter(7, Types.INTEGER);
-            cs.registerOutParameter(8, Types.VARCHAR);
+            cs.setInt(7, product.getStockQuantity());
+            cs.registerOutParameter(8, Types.INTEGER);
+            cs.registerOutParameter(9, Types.VARCHAR);
 
             cs.execute();
 
-            int productId = cs.getInt(7);
-            String status = cs.getString(8);
+            int productId = cs.getInt(8);
+            String status = cs.getString(9);
 
             return "Product added successfully".equalsIgnoreCase(status);
         } catch (SQLException e) {
@@ -73,7 +107,7 @@ public class ProductImplementor implements ProductOperations {
 
     @Override
     public boolean updateProduct(Product product) {
-        String query = "CALL sp_update_product(?, ?, ?, ?, ?, ?, ?, ?)";
+        String query = "CALL sp_update_product(?, ?, ?, ?, ?, ?, ?, ?, ?)";
         try (Connection con = GetConnection.getConnection();
              CallableStatement cs = con.prepareCall(query)) {
             cs.setInt(1, product.getProductId());
@@ -83,11 +117,12 @@ public class ProductImplementor implements ProductOperations {
             cs.setInt(5, product.getQtyPerBox());
             cs.setString(6, product.getImageUrl());
             cs.setBoolean(7, product.isActive());
-            cs.registerOutParameter(8, Types.VARCHAR);
+            cs.setInt(8, product.getStockQuantity());
+            cs.registerOutParameter(9, Types.VARCHAR);
 
             cs.execute();
 
-            String status = cs.getString(8);
+            String status = cs.getString(9);
             return "Product updated successfully".equalsIgnoreCase(status);
         } catch (SQLException e) {
             e.printStackTrace();
@@ -130,6 +165,135 @@ public class ProductImplementor implements ProductOperations {
         return isActive;
     }
 
+    @Override
+    public ImportReport addProducts(Iterable<Product> products) {
+        Iterator<Product> source = products.iterator();
+        Iterator<ProductCsvReader.Row> rows = new Iterator<ProductCsvReader.Row>() {
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public ProductCsvReader.Row next() {
+                return new ProductCsvReader.Row(++position, source.next(), null);
+            }
+        };
+        return importRows(rows, new ImportReport());
+    }
+
+    @Override
+    public ImportReport importProducts(InputStream csv) {
+        ImportReport report = new ImportReport();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8));
+        try {
+            ProductCsvReader rows = new ProductCsvReader(reader);
+            if (rows.getHeaderError() != null) {
+                report.addError(1, rows.getHeaderError());
+                return report;
+            }
+            return importRows(rows, report);
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+            report.addError(0, "Could not read CSV: " + e.getCause().getMessage());
+            return report;
+        }
+    }
+
+    /**
+     * Inserts rows in JDBC batches of importBatchSize, committing each batch.
+     * A batch that fails is rolled back and replayed row by row so the report
+     * can name the offending rows while the good ones are still imported.
+     */
+    private ImportReport importRows(Iterator<ProductCsvReader.Row> rows, ImportReport report) {
+        List<ProductCsvReader.Row> chunk = new ArrayList<>(Math.min(importBatchSize, 4096));
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(INSERT_PRODUCT)) {
+            con.setAutoCommit(false);
+            while (rows.hasNext()) {
+                ProductCsvReader.Row row = rows.next();
+                report.setTotalRows(report.getTotalRows() + 1);
+                String error = row.error != null ? row.error : validate(row.product);
+                if (error != null) {
+                    report.addError(row.rowNumber, error);
+                    continue;
+                }
+                bindProduct(ps, row.product);
+                ps.addBatch();
+                chunk.add(row);
+                if (chunk.size() >= importBatchSize) {
+                    flushChunk(con, ps, chunk, report);
+                }
+            }
+            flushChunk(con, ps, chunk, report);
+        } catch (SQLException | UncheckedIOException e) {
+            e.printStackTrace();
+            report.addError(0, "Import stopped: " + e.getMessage());
+        }
+        return report;
+    }
+
+    private void flushChunk(Connection con, PreparedStatement ps, List<ProductCsvReader.Row> chunk,
+                            ImportReport report) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            ps.executeBatch();
+            con.commit();
+            report.setImportedRows(report.getImportedRows() + chunk.size());
+        } catch (SQLException batchError) {
+            con.rollback();
+            ps.clearBatch();
+            for (ProductCsvReader.Row row : chunk) {
+                try {
+                    bindProduct(ps, row.product);
+                    ps.executeUpdate();
+                    con.commit();
+                    report.setImportedRows(report.getImportedRows() + 1);
+                } catch (SQLException rowError) {
+                    con.rollback();
+                    report.addError(row.rowNumber, rowError.getMessage());
+                }
+            }
+        }
+        chunk.clear();
+    }
+
+    private static String validate(Product p) {
+        if (p == null) {
+            return "Missing product";
+        }
+        if (p.getName() == null || p.getName().trim().isEmpty()) {
+            return "Name is required";
+        }
+        if (p.getName().length() > 255) {
+            return "Name is longer than 255 characters";
+        }
+        if (p.getUnitPrice() < 0 || p.getBoxPrice() < 0) {
+            return "Prices cannot be negative";
+        }
+        if (p.getQtyPerBox() <= 0) {
+            return "qty_per_box must be positive";
+        }
+        if (p.getStockQuantity() < 0) {
+            return "stock_quantity cannot be negative";
+        }
+        return null;
+    }
+
+    private static void bindProduct(PreparedStatement ps, Product p) throws SQLException {
+        ps.setString(1, p.getName().trim());
+        ps.setDouble(2, p.getUnitPrice());
+        ps.setDouble(3, p.getBoxPrice());
+        ps.setInt(4, p.getQtyPerBox());
+        ps.setString(5, p.getImageUrl());
+        ps.setBoolean(6, p.isActive());
+        ps.setInt(7, p.getStockQuantity());
+    }
+
     private Product mapProduct(ResultSet rs) throws SQLException {
         Product p = new Product();
         p.setProductId(rs.getInt("product_id"));
@@ -139,6 +303,7 @@ public class ProductImplementor implements ProductOperations {
         p.setQtyPerBox(rs.getInt("qty_per_box"));
         p.setImageUrl(rs.getString("image_url"));
         p.setActive(rs.getBoolean("is_active"));
+        p.setStockQuantity(rs.getInt("stock_quantity"));
         return p;
     }
 }
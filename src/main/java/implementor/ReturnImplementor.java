@@ -1,21 +1,46 @@
 package implementor;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import db_config.GetConnection;
+import model.ChangeFeed;
 import model.Return;
 import model.ReturnItem;
+import operation.DataAccessException;
 import operation.ReturnOperations;
+import util.IntDoubleMap;
+import util.JsonWriter;
 
 public class ReturnImplementor implements ReturnOperations {
+    private static final String RETURN_COLUMNS = "return_id, order_id, return_date, return_status, overall_reason, updated_at";
+    // Reused per request thread so building the items JSON does not allocate a new buffer each time
+    private static final ThreadLocal<JsonWriter> JSON = ThreadLocal.withInitial(JsonWriter::new);
+    private static final int AMOUNT_CACHE_CAPACITY = 10_000;
+
+    // A return's items and their order prices never change once raised, so computed
+    // amounts (in paise) are remembered across calls
+    private static final Map<Integer, Long> AMOUNT_CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<Integer, Long>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                    return size() > AMOUNT_CACHE_CAPACITY;
+                }
+            });
 
     @Override
     public List<Return> getReturnsByVendor(int vendorId) {
         List<Return> returns = new ArrayList<>();
         String query = "SELECT r.* FROM returns r JOIN orders o ON r.order_id = o.order_id WHERE o.vendor_id = ?";
-        try (Connection con = GetConnection.getConnection();
+        try (Connection con = GetConnection.getReadConnection(vendorId);
              PreparedStatement ps = con.prepareStatement(query)) {
             ps.setInt(1, vendorId);
             ResultSet rs = ps.executeQuery();
@@ -28,6 +53,27 @@ public class ReturnImplementor implements ReturnOperations {
         return returns;
     }
 
+    @Override
+    public void forEachReturnByVendor(int vendorId, Consumer<Return> consumer) {
+        String query = "SELECT r.return_id, r.order_id, r.return_date, r.return_status, r.overall_reason "
+                + "FROM returns r JOIN orders o ON r.order_id = o.order_id WHERE o.vendor_id = ? "
+                + "ORDER BY r.return_id DESC";
+        try (Connection con = GetConnection.getReadConnection(vendorId);
+             PreparedStatement ps = con.prepareStatement(query,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(OrderImplementor.STREAM_FETCH_SIZE);
+            ps.setInt(1, vendorId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(mapReturn(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new DataAccessException(e);
+        }
+    }
+
     @Override
     public Return getReturnDetails(int returnId) {
         Return r = null;
@@ -59,7 +105,11 @@ public class ReturnImplementor implements ReturnOperations {
             cs.registerOutParameter(5, Types.VARCHAR); // out status
             cs.execute();
             String status = cs.getString(5);
-            return status != null && status.toLowerCase().contains("success");
+            boolean success = status != null && status.toLowerCase().contains("success");
+            if (success) {
+                recordVendorWrite(con, orderId);
+            }
+            return success;
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
@@ -74,7 +124,12 @@ public class ReturnImplementor implements ReturnOperations {
             cs.registerOutParameter(2, Types.VARCHAR);
             cs.execute();
             String status = cs.getString(2);
-            return status != null && status.toLowerCase().contains("approved");
+            boolean success = status != null && status.toLowerCase().contains("approved");
+            if (success) {
+                refreshVendorDue(con, returnId);
+                refreshReturnedStock(con, returnId);
+            }
+            return success;
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
@@ -114,11 +169,90 @@ public class ReturnImplementor implements ReturnOperations {
         return amount;
     }
 
+    /**
+     * Return amounts for many returns with one query per 512 ids instead of one
+     * fn_calculate_return_amount call each. Items are priced in Java with the
+     * same rule as the function: qty times the price of the order line the item
+     * was matched to when raised, summed in exact paise. Ids without items map to 0.
+     */
+    @Override
+    public IntDoubleMap calculateReturnAmounts(Collection<Integer> returnIds) {
+        IntDoubleMap amounts = new IntDoubleMap(returnIds.size());
+        int[] pending = new int[returnIds.size()];
+        int count = 0;
+        for (Integer id : returnIds) {
+            if (id == null) {
+                continue;
+            }
+            Long cached = AMOUNT_CACHE.get(id);
+            if (cached != null) {
+                amounts.put(id, cached / 100.0);
+            } else {
+                amounts.put(id, 0.0);
+                pending[count++] = id;
+            }
+        }
+
+        // Primary, not replica: a lagging replica could have the return but not yet its items
+        try (Connection con = GetConnection.getConnection()) {
+            for (int from = 0; from < count; from += OrderImplementor.MAX_IN_LIST_SIZE) {
+                int n = Math.min(OrderImplementor.MAX_IN_LIST_SIZE, count - from);
+                int size = OrderImplementor.inListSize(n);
+                try (PreparedStatement ps = con.prepareStatement(returnItemPricesQuery(size))) {
+                    OrderImplementor.bindInList(ps, 1, size, pending, from, n);
+                    priceReturnItems(ps, amounts);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return amounts;
+    }
+
+    private static void priceReturnItems(PreparedStatement ps, IntDoubleMap amounts) throws SQLException {
+        // Rows arrive grouped by return; sum each group in paise so the total is exact
+        int currentId = 0;
+        long paise = 0;
+        boolean any = false;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                int returnId = rs.getInt("return_id");
+                if (any && returnId != currentId) {
+                    storeAmount(amounts, currentId, paise);
+                    paise = 0;
+                }
+                currentId = returnId;
+                any = true;
+                // price is DECIMAL(10,2), so its unscaled value at scale 2 is exact
+                long pricePaise = rs.getBigDecimal("price").movePointRight(2).longValueExact();
+                paise += rs.getLong("qty") * pricePaise;
+            }
+        }
+        if (any) {
+            storeAmount(amounts, currentId, paise);
+        }
+    }
+
+    private static void storeAmount(IntDoubleMap amounts, int returnId, long paise) {
+        amounts.put(returnId, paise / 100.0);
+        AMOUNT_CACHE.put(returnId, paise);
+    }
+
+    // Same join as fn_calculate_return_amount
+    private static String returnItemPricesQuery(int inListSize) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT ri.return_id, ri.qty, oi.price FROM return_items ri "
+                + "JOIN order_items oi ON oi.order_item_id = ri.order_item_id "
+                + "WHERE ri.return_id IN (");
+        OrderImplementor.appendPlaceholders(sql, inListSize);
+        return sql.append(") ORDER BY ri.return_id").toString();
+    }
+
     @Override
     public List<Return> getPendingReturns() {
         List<Return> returns = new ArrayList<>();
         String call = "{CALL sp_get_pending_returns()}";
-        try (Connection con = GetConnection.getConnection();
+        try (Connection con = GetConnection.getReadConnection();
              CallableStatement cs = con.prepareCall(call)) {
             ResultSet rs = cs.executeQuery();
             while (rs.next()) {
@@ -130,6 +264,84 @@ public class ReturnImplementor implements ReturnOperations {
         return returns;
     }
 
+    /**
+     * Returns that changed after the watermark, for polling admin screens.
+     * Pass sinceUpdatedAt = null on the first poll to get the pending returns;
+     * later polls return every changed return whatever its status, so a
+     * return that was approved or rejected shows up and can be dropped.
+     * Reads go to the primary so no committed change can be missed.
+     */
+    @Override
+    public ChangeFeed<Return> getReturnChanges(Timestamp sinceUpdatedAt, int sinceReturnId, int limit) {
+        try (Connection con = GetConnection.getConnection()) {
+            if (sinceUpdatedAt == null) {
+                return ChangeFeedReader.snapshot(con,
+                        "SELECT " + RETURN_COLUMNS + " FROM returns WHERE return_status = 'Pending'",
+                        this::mapChangedReturn);
+            }
+            String query = "SELECT " + RETURN_COLUMNS + ", NOW(6) AS db_now FROM returns "
+                    + "WHERE updated_at > ? OR (updated_at = ? AND return_id > ?) "
+                    + "ORDER BY updated_at, return_id LIMIT ?";
+            return ChangeFeedReader.changes(con, query, "return_id", this::mapChangedReturn,
+                    sinceUpdatedAt, sinceReturnId, limit);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private Return mapChangedReturn(ResultSet rs) throws SQLException {
+        Return ret = mapReturn(rs);
+        ret.setUpdatedAt(rs.getTimestamp("updated_at"));
+        return ret;
+    }
+
+    // The vendor who raised the return should see it on their next read. Only matters with a replica,
+    // so the vendor lookup is skipped without one
+    private void recordVendorWrite(Connection con, int orderId) throws SQLException {
+        if (GetConnection.getRouter().getReplica() == null) {
+            return;
+        }
+        try (PreparedStatement ps = con.prepareStatement("SELECT vendor_id FROM orders WHERE order_id = ?")) {
+            ps.setInt(1, orderId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    GetConnection.recordWrite(rs.getInt("vendor_id"));
+                }
+            }
+        }
+    }
+
+    // sp_approve_return puts the returned items back in stock; let the reservations see it
+    private void refreshReturnedStock(Connection con, int returnId) throws SQLException {
+        String query = "SELECT DISTINCT product_id FROM return_items WHERE return_id = ?";
+        try (PreparedStatement ps = con.prepareStatement(query)) {
+            ps.setInt(1, returnId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    StockReservations.shared().invalidate(rs.getInt("product_id"));
+                }
+            }
+        }
+    }
+
+    // sp_approve_return credits the return to the vendor's due; copy the new due into the ledger
+    private void refreshVendorDue(Connection con, int returnId) throws SQLException {
+        String query = "SELECT v.vendor_id, v.due_amount FROM returns r "
+                + "JOIN orders o ON o.order_id = r.order_id "
+                + "JOIN vendors v ON v.vendor_id = o.vendor_id WHERE r.return_id = ?";
+        try (PreparedStatement ps = con.prepareStatement(query)) {
+            ps.setInt(1, returnId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    int vendorId = rs.getInt("vendor_id");
+                    GetConnection.recordWrite(vendorId);
+                    VendorDueLedger.shared().set(vendorId, rs.getDouble("due_amount"));
+                }
+            }
+        }
+    }
+
     private Return mapReturn(ResultSet rs) throws SQLException {
         Return ret = new Return();
         ret.setReturnId(rs.getInt("return_id"));
@@ -141,21 +353,21 @@ public class ReturnImplementor implements ReturnOperations {
     }
 
     private String toJson(List<ReturnItem> items) {
-        // For simplicity, build JSON array string manually; better use a library like Jackson/Gson
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for (int i = 0; i < items.size(); i++) {
-            ReturnItem item = items.get(i);
-            sb.append("{");
-            sb.append("\"product_id\":").append(item.getProductId()).append(",");
-            sb.append("\"qty\":").append(item.getQty()).append(",");
-            sb.append("\"reason\":\"").append(item.getReason()).append("\"");
-            sb.append("}");
-            if (i < items.size() - 1) {
-                sb.append(",");
-            }
-        }
-        sb.append("]");
-        return sb.toString();
+        JsonWriter json = JSON.get().reset();
+        try {
+            json.beginArray();
+            for (ReturnItem item : items) {
+                json.beginObject()
+                    .field("product_id", item.getProductId())
+                    .field("qty", item.getQty())
+                    .field("mode", item.getMode())
+                    .field("reason", item.getReason())
+                    .endObject();
+            }
+            json.endArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);   // in-memory writer; cannot happen
+        }
+        return json.toString();
     }
 }
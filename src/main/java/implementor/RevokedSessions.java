@@ -0,0 +1,202 @@
+package implementor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import db_config.GetConnection;
+import db_config.PoolConfig;
+
+/**
+ * Users whose session tokens were revoked (logout everywhere, password
+ * change, deletion), held in memory for the token check on every request.
+ *
+ * Only revocations younger than the token lifetime matter, since every older
+ * token has expired anyway; they are re-read from user_revocations in the
+ * background so other application nodes see them too. The set is bounded by
+ * auth.maxRevocations: past that, tokens issued before the oldest revocation
+ * kept are all treated as revoked.
+ */
+public class RevokedSessions {
+    private static final RevokedSessions SHARED = new RevokedSessions(
+            PoolConfig.getLong("auth.tokenTtlMs", 8 * 60 * 60 * 1000L),
+            PoolConfig.getInt("auth.maxRevocations", 100_000),
+            PoolConfig.getLong("auth.revocationRefreshMs", 10_000L));
+
+    private final long tokenTtlMs;
+    private final int maxEntries;
+    private final long refreshMs;
+    private volatile Snapshot snapshot = new Snapshot(new int[0], new long[0], 0);
+    private ScheduledExecutorService refresher;
+
+    public RevokedSessions(long tokenTtlMs, int maxEntries, long refreshMs) {
+        this.tokenTtlMs = tokenTtlMs;
+        this.maxEntries = maxEntries;
+        this.refreshMs = refreshMs;
+    }
+
+    public static RevokedSessions shared() {
+        return SHARED;
+    }
+
+    /** Loads the revocations and keeps them current in the background. */
+    public synchronized void start() {
+        refresh();
+        if (refresher == null && refreshMs > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "vmms-revocations");
+                t.setDaemon(true);
+                return t;
+            });
+            refresher.scheduleWithFixedDelay(this::refresh, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /** Whether a token issued at issuedAt (epoch millis) for userId has been revoked. Memory only. */
+    public boolean isRevoked(int userId, long issuedAt) {
+        Snapshot s = snapshot;
+        if (issuedAt <= s.revokedBefore) {
+            return true;
+        }
+        int i = Arrays.binarySearch(s.userIds, userId);
+        return i >= 0 && issuedAt <= s.revokedAt[i];
+    }
+
+    /** Revokes every token issued to the user until now, here and (after a refresh) on other nodes. */
+    public boolean revoke(int userId) {
+        long now = System.currentTimeMillis();
+        String sql = "INSERT INTO user_revocations (user_id, revoked_at) VALUES (?, ?) "
+                + "ON DUPLICATE KEY UPDATE revoked_at = VALUES(revoked_at)";
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(sql)) {
+            ps.setInt(1, userId);
+            ps.setTimestamp(2, new Timestamp(now));
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+        addLocally(userId, now);
+        return true;
+    }
+
+    private synchronized void addLocally(int userId, long revokedAt) {
+        Snapshot s = snapshot;
+        int i = Arrays.binarySearch(s.userIds, userId);
+        if (i < 0 || s.revokedAt[i] < revokedAt) {
+            snapshot = s.with(userId, revokedAt);
+        }
+    }
+
+    void refresh() {
+        String sql = "SELECT user_id, revoked_at FROM user_revocations WHERE revoked_at > ? "
+                + "ORDER BY revoked_at DESC LIMIT ?";
+        int[] ids = new int[16];
+        long[] times = new long[16];
+        int n = 0;
+        long revokedBefore = 0;
+        long cutoff = System.currentTimeMillis() - tokenTtlMs;   // tokens issued before this have expired
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(sql)) {
+            ps.setTimestamp(1, new Timestamp(cutoff));
+            ps.setInt(2, maxEntries + 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    long revokedAt = rs.getTimestamp("revoked_at").getTime();
+                    if (n == maxEntries) {
+                        // Too many to hold: refuse everything issued before the oldest one kept
+                        revokedBefore = times[n - 1];
+                        break;
+                    }
+                    if (n == ids.length) {
+                        ids = Arrays.copyOf(ids, n * 2);
+                        times = Arrays.copyOf(times, n * 2);
+                    }
+                    ids[n] = rs.getInt("user_id");
+                    times[n] = revokedAt;
+                    n++;
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();   // keep serving the last snapshot
+            return;
+        }
+        // Sort by user id for binary search
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        final int[] unsortedIds = ids;
+        Arrays.sort(order, (a, b) -> Integer.compare(unsortedIds[a], unsortedIds[b]));
+        int[] sortedIds = new int[n];
+        long[] sortedTimes = new long[n];
+        for (int i = 0; i < n; i++) {
+            sortedIds[i] = ids[order[i]];
+            sortedTimes[i] = times[order[i]];
+        }
+        synchronized (this) {
+            snapshot = merge(new Snapshot(sortedIds, sortedTimes, revokedBefore), snapshot, cutoff);
+        }
+    }
+
+    // Keeps local revocations newer than what the database returned (e.g. written after the read began),
+    // dropping those older than the token lifetime so the set cannot outgrow what the database returns
+    private static Snapshot merge(Snapshot fresh, Snapshot old, long cutoff) {
+        Snapshot result = fresh;
+        for (int i = 0; i < old.userIds.length; i++) {
+            int j = Arrays.binarySearch(result.userIds, old.userIds[i]);
+            if (j < 0 || result.revokedAt[j] < old.revokedAt[i]) {
+                if (old.revokedAt[i] <= cutoff || old.revokedAt[i] <= fresh.revokedBefore) {
+                    continue;
+                }
+                result = result.with(old.userIds[i], old.revokedAt[i]);
+            }
+        }
+        return result;
+    }
+
+    private static final class Snapshot {
+        final int[] userIds;       // sorted
+        final long[] revokedAt;
+        final long revokedBefore;  // tokens issued at or before this are all revoked
+
+        Snapshot(int[] userIds, long[] revokedAt, long revokedBefore) {
+            this.userIds = userIds;
+            this.revokedAt = revokedAt;
+            this.revokedBefore = revokedBefore;
+        }
+
+        Snapshot with(int userId, long time) {
+            int i = Arrays.binarySearch(userIds, userId);
+            if (i >= 0) {
+                long[] times = revokedAt.clone();
+                times[i] = time;
+                return new Snapshot(userIds, times, revokedBefore);
+            }
+            int at = -i - 1;
+            int n = userIds.length;
+            int[] ids = new int[n + 1];
+            long[] times = new long[n + 1];
+            System.arraycopy(userIds, 0, ids, 0, at);
+            System.arraycopy(revokedAt, 0, times, 0, at);
+            ids[at] = userId;
+            times[at] = time;
+            System.arraycopy(userIds, at, ids, at + 1, n - at);
+            System.arraycopy(revokedAt, at, times, at + 1, n - at);
+            return new Snapshot(ids, times, revokedBefore);
+        }
+    }
+}
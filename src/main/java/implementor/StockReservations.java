@@ -0,0 +1,486 @@
+package implementor;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import db_config.GetConnection;
+import db_config.PoolConfig;
+import model.Product;
+
+/**
+ * Product stock, counted in units, reserved in memory so concurrent orders
+ * cannot oversell without locking product rows.
+ *
+ * Each product's free stock is an atomic counter loaded from
+ * products.stock_quantity on first use and only ever taken with
+ * compare-and-set, so a reservation either gets all the units it asks for
+ * or none. A vendor's cart holds the units in it for stock.reservationTtlMs
+ * after the last cart change; expired holds go back to free stock. An order
+ * commits its reservation: the units are sold, and subtracted from
+ * products.stock_quantity by a background writer in batches every
+ * stock.flushIntervalMs (and on shutdown).
+ *
+ * Changes made to stock_quantity elsewhere (admin edits, approved returns)
+ * are picked up by {@link #invalidate(int)} as the difference from what this
+ * node last wrote, added to free stock atomically, so they never undo a
+ * concurrent reservation. If such a change left a product with fewer units
+ * than were sold meanwhile, the writer logs the shortfall, sets the stock to
+ * zero rather than negative, and re-reads the product.
+ *
+ * The counters live in one JVM, so only one node may take stock: the one
+ * holding the stock_lease row. The writer renews it on every flush; other
+ * nodes refuse reservations (orders and cart edits fail as out of stock)
+ * and take the lease over only after it has been expired for another
+ * stock.leaseMs, which leaves the old owner time to write what it sold.
+ * A node that gets the lease back after a gap re-reads every counter first.
+ */
+public class StockReservations {
+    private static final StockReservations SHARED = new StockReservations(
+            PoolConfig.getLong("stock.reservationTtlMs", 15 * 60 * 1000L),
+            PoolConfig.getLong("stock.flushIntervalMs", 1000L),
+            PoolConfig.getLong("stock.leaseMs", 10_000L));
+    private static final long LEASE_RETRY_MS = 1000L;
+
+    private static final String SELECT_STOCK = "SELECT stock_quantity FROM products WHERE product_id = ?";
+    // Never below zero: a row with fewer units than were sold is left to CLEAR_STOCK
+    private static final String SUBTRACT_STOCK =
+            "UPDATE products SET stock_quantity = stock_quantity - ? WHERE product_id = ? AND stock_quantity >= ?";
+    private static final String CLEAR_STOCK = "UPDATE products SET stock_quantity = 0 WHERE product_id = ?";
+    // Renews the lease if this node holds it, or takes it once it has been expired for a second lease length
+    private static final String CLAIM_LEASE = "UPDATE stock_lease SET node = ?, expires_at = TIMESTAMPADD(MICROSECOND, ?, NOW(3)) "
+            + "WHERE lease_id = 1 AND (node = ? OR expires_at < TIMESTAMPADD(MICROSECOND, ?, NOW(3)))";
+
+    private final ConcurrentHashMap<Integer, Stock> stock = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Reservation> carts = new ConcurrentHashMap<>();
+    private final Set<Integer> unflushedProducts = ConcurrentHashMap.newKeySet();
+    private final Object flushLock = new Object();
+    private final Object leaseLock = new Object();
+    private final String node = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+
+    private final long ttlMs;
+    private final long flushIntervalMs;
+    private final long leaseMs;
+    private volatile long leaseUntil;   // local time this node's lease runs out; 0 if not held
+    private long nextClaimAt;           // after a refused claim; under leaseLock
+    private ScheduledExecutorService worker;
+
+    public StockReservations(long ttlMs, long flushIntervalMs, long leaseMs) {
+        this.ttlMs = ttlMs;
+        this.flushIntervalMs = flushIntervalMs;
+        this.leaseMs = leaseMs;
+    }
+
+    /** The reservations configured from db.properties. */
+    public static StockReservations shared() {
+        return SHARED;
+    }
+
+    /** A set of held units, per product; a vendor's cart or one order. */
+    public static final class Reservation {
+        private final Map<Integer, Long> units = new HashMap<>();
+        private long expiresAt;
+        private boolean closed;   // committed, released or expired
+
+        private Reservation() {
+        }
+    }
+
+    /** Schedules the stock writer and the expiry of cart holds. Called once at application start. */
+    public synchronized void start() {
+        if (worker == null && flushIntervalMs > 0) {
+            worker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "vmms-stock-writer");
+                t.setDaemon(true);
+                return t;
+            });
+            worker.scheduleWithFixedDelay(this::flushAndExpire, flushIntervalMs, flushIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Stops the background work and writes all sold stock. */
+    public void shutdown() {
+        synchronized (this) {
+            if (worker != null) {
+                worker.shutdownNow();
+                worker = null;
+            }
+        }
+        flush();
+    }
+
+    /** Units in qty of the product in the given mode; -1 if the product is not in the active catalog. */
+    public static long units(int productId, long qty, boolean box) {
+        if (!box) {
+            return qty;
+        }
+        Product p = CachingProductImplementor.shared().getProductById(productId);
+        return p == null || !p.isActive() ? -1 : qty * p.getQtyPerBox();
+    }
+
+    /**
+     * Makes the vendor's cart hold exactly units of the product, taking more
+     * from free stock or returning some, and restarts the hold's TTL. False
+     * if there is not enough free stock (or no such product); the hold is
+     * then unchanged.
+     */
+    public boolean holdForCart(int vendorId, int productId, long units) {
+        while (true) {
+            Reservation r = carts.computeIfAbsent(vendorId, k -> new Reservation());
+            synchronized (r) {
+                if (r.closed) {
+                    carts.remove(vendorId, r);
+                    continue;
+                }
+                r.expiresAt = System.currentTimeMillis() + ttlMs;
+                return set(r, productId, units);
+            }
+        }
+    }
+
+    /**
+     * Turns the vendor's cart hold into the reservation of the order placed
+     * from it: exactly units[i] of productIds[i], re-taking any hold that
+     * expired and returning held products not listed. Null if some product
+     * is short; the cart keeps what it holds until the hold expires. The
+     * order must then commit or release the reservation.
+     */
+    public Reservation takeCart(int vendorId, int[] productIds, long[] units, int count) {
+        while (true) {
+            Reservation r = carts.computeIfAbsent(vendorId, k -> new Reservation());
+            synchronized (r) {
+                if (r.closed) {
+                    carts.remove(vendorId, r);
+                    continue;
+                }
+                r.expiresAt = System.currentTimeMillis() + ttlMs;
+                Set<Integer> listed = new HashSet<>();
+                for (int i = 0; i < count; i++) {
+                    if (!set(r, productIds[i], units[i])) {
+                        return null;
+                    }
+                    listed.add(productIds[i]);
+                }
+                for (Integer productId : new ArrayList<>(r.units.keySet())) {
+                    if (!listed.contains(productId)) {
+                        set(r, productId, 0);
+                    }
+                }
+                carts.remove(vendorId, r);
+                return r;
+            }
+        }
+    }
+
+    /** Returns everything the vendor's cart holds to free stock. */
+    public void releaseCart(int vendorId) {
+        Reservation r = carts.remove(vendorId);
+        if (r != null) {
+            release(r);
+        }
+    }
+
+    /**
+     * Reserves units[i] of productIds[i] for one order, all or nothing; null
+     * if any product is short. The order must then commit or release it.
+     */
+    public Reservation reserve(int[] productIds, long[] units, int count) {
+        Reservation r = new Reservation();
+        synchronized (r) {
+            for (int i = 0; i < count; i++) {
+                long already = r.units.getOrDefault(productIds[i], 0L);
+                if (!set(r, productIds[i], already + units[i])) {
+                    release(r);
+                    return null;
+                }
+            }
+        }
+        return r;
+    }
+
+    /** The reserved units are sold; they are subtracted from products.stock_quantity shortly. */
+    public void commit(Reservation r) {
+        synchronized (r) {
+            if (r.closed) {
+                return;
+            }
+            r.closed = true;
+            for (Map.Entry<Integer, Long> e : r.units.entrySet()) {
+                Stock s = stock.get(e.getKey());
+                long u = e.getValue();
+                s.unflushed.addAndGet(u);
+                unflushedProducts.add(e.getKey());
+            }
+            r.units.clear();
+        }
+    }
+
+    /** Returns the reserved units to free stock. */
+    public void release(Reservation r) {
+        synchronized (r) {
+            if (r.closed) {
+                return;
+            }
+            r.closed = true;
+            for (Map.Entry<Integer, Long> e : r.units.entrySet()) {
+                Stock s = stock.get(e.getKey());
+                s.available.addAndGet(e.getValue());
+            }
+            r.units.clear();
+        }
+    }
+
+    /** Free units of the product (not held, not sold); -1 if it cannot be loaded. */
+    public long available(int productId) {
+        Stock s = stock(productId);
+        return s == null ? -1 : s.available.get();
+    }
+
+    /**
+     * Re-reads the product's stock after stock_quantity was changed outside
+     * this class, e.g. by an admin or an approved return.
+     */
+    public void invalidate(int productId) {
+        Stock s = stock.get(productId);
+        if (s == null) {
+            return;
+        }
+        synchronized (flushLock) {   // no write of ours between reading the row and comparing
+            reload(productId, s);
+        }
+    }
+
+    // Adds the change to stock_quantity since this node last wrote it to free stock; caller holds flushLock
+    private void reload(int productId, Stock s) {
+        Long db = loadStock(productId);
+        if (db != null) {
+            s.available.addAndGet(db - s.written);
+            s.written = db;
+        }
+    }
+
+    // Sets r's units of the product; caller holds r's lock
+    private boolean set(Reservation r, int productId, long units) {
+        long current = r.units.getOrDefault(productId, 0L);
+        long delta = units - current;
+        if (delta == 0) {
+            return true;
+        }
+        Stock s = stock(productId);
+        if (s == null) {
+            return false;
+        }
+        if (delta > 0) {
+            if (!hasLease() || !take(s.available, delta)) {
+                return false;
+            }
+        } else {
+            s.available.addAndGet(-delta);
+        }
+        if (units == 0) {
+            r.units.remove(productId);
+        } else {
+            r.units.put(productId, units);
+        }
+        return true;
+    }
+
+    // Takes units from free stock if that many are there
+    private static boolean take(AtomicLong available, long units) {
+        while (true) {
+            long free = available.get();
+            if (free < units) {
+                return false;
+            }
+            if (available.compareAndSet(free, free - units)) {
+                return true;
+            }
+        }
+    }
+
+    private Stock stock(int productId) {
+        Stock s = stock.get(productId);
+        if (s != null) {
+            return s;
+        }
+        Long db = loadStock(productId);
+        if (db == null) {
+            return null;
+        }
+        s = stock.putIfAbsent(productId, new Stock(db));
+        return s != null ? s : stock.get(productId);
+    }
+
+    private Long loadStock(int productId) {
+        // The primary: a replica may not have the latest sales yet
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(SELECT_STOCK)) {
+            ps.setInt(1, productId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void flushAndExpire() {
+        try {
+            renewLease(false);
+            flush();
+            long now = System.currentTimeMillis();
+            for (Iterator<Map.Entry<Integer, Reservation>> it = carts.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Integer, Reservation> e = it.next();
+                Reservation r = e.getValue();
+                synchronized (r) {
+                    if (r.expiresAt <= now) {
+                        release(r);
+                        carts.remove(e.getKey(), r);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();   // keep the schedule alive
+        }
+    }
+
+    /** Writes the sold units to products.stock_quantity in one batch. */
+    public boolean flush() {
+        synchronized (flushLock) {
+            List<Integer> productIds = new ArrayList<>(unflushedProducts);
+            if (productIds.isEmpty()) {
+                return true;
+            }
+            long[] written = new long[productIds.size()];
+            List<Integer> shortfalls = new ArrayList<>();
+            try (Connection con = GetConnection.getConnection()) {
+                con.setAutoCommit(false);
+                try (PreparedStatement ps = con.prepareStatement(SUBTRACT_STOCK);
+                     PreparedStatement clear = con.prepareStatement(CLEAR_STOCK)) {
+                    for (int i = 0; i < written.length; i++) {
+                        int productId = productIds.get(i);
+                        unflushedProducts.remove(productId);
+                        written[i] = stock.get(productId).unflushed.get();
+                        ps.setLong(1, written[i]);
+                        ps.setInt(2, productId);
+                        ps.setLong(3, written[i]);
+                        ps.addBatch();
+                    }
+                    int[] counts = ps.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == 0) {
+                            shortfalls.add(i);
+                            clear.setInt(1, productIds.get(i));
+                            clear.addBatch();
+                        }
+                    }
+                    if (!shortfalls.isEmpty()) {
+                        clear.executeBatch();
+                    }
+                    con.commit();
+                } catch (SQLException e) {
+                    con.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                unflushedProducts.addAll(productIds);   // try again next time
+                shortfalls.clear();
+                return false;
+            }
+            for (int i = 0; i < written.length; i++) {
+                Stock s = stock.get(productIds.get(i));
+                s.unflushed.addAndGet(-written[i]);
+                s.written -= written[i];
+            }
+            for (int i : shortfalls) {
+                int productId = productIds.get(i);
+                System.err.println("Stock shortfall: sold " + written[i] + " units of product " + productId
+                        + " but products.stock_quantity had fewer; set it to 0");
+                reload(productId, stock.get(productId));
+            }
+            return true;
+        }
+    }
+
+    // Whether this node may take stock; claims the lease on the spot if it is not held
+    private boolean hasLease() {
+        return System.currentTimeMillis() < leaseUntil || renewLease(true);
+    }
+
+    /**
+     * Renews or claims the stock lease. With onlyIfLapsed, a lease still held
+     * is left alone and a refused claim is not retried for LEASE_RETRY_MS, so
+     * the nodes without the lease do not query for it on every reservation.
+     */
+    private boolean renewLease(boolean onlyIfLapsed) {
+        synchronized (leaseLock) {
+            long now = System.currentTimeMillis();
+            boolean held = now < leaseUntil;
+            if (onlyIfLapsed && (held || now < nextClaimAt)) {
+                return held;
+            }
+            if (!claimLease()) {
+                if (held || nextClaimAt == 0) {
+                    System.err.println("Stock lease is held by another node; node " + node + " refuses stock reservations");
+                }
+                leaseUntil = 0;
+                nextClaimAt = now + LEASE_RETRY_MS;
+                return false;
+            }
+            if (!held) {
+                // Another node may have sold stock while this one did not hold the lease
+                synchronized (flushLock) {
+                    for (Map.Entry<Integer, Stock> e : stock.entrySet()) {
+                        reload(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            leaseUntil = now + leaseMs;   // measured from before the claim, so it ends before the row does
+            nextClaimAt = 0;
+            return true;
+        }
+    }
+
+    private boolean claimLease() {
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(CLAIM_LEASE)) {
+            ps.setString(1, node);
+            ps.setLong(2, leaseMs * 1000);
+            ps.setString(3, node);
+            ps.setLong(4, -leaseMs * 1000);
+            return ps.executeUpdate() == 1;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static final class Stock {
+        final AtomicLong available;                    // free to reserve
+        final AtomicLong unflushed = new AtomicLong(); // sold, not yet subtracted in products
+        long written;                                  // stock_quantity as this node left it; under flushLock
+
+        Stock(long stockQuantity) {
+            available = new AtomicLong(stockQuantity);
+            written = stockQuantity;
+        }
+    }
+}
@@ -3,17 +3,31 @@ package implementor;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import model.User;
 import operation.UserOperations;
 import db_config.GetConnection;
 
 public class UserImplementor implements UserOperations {
+    // Users with the contact from their role's table, in one query instead of one lookup per user
+    private static final String SELECT_USERS =
+            "SELECT u.user_id, u.username, u.password_hash, u.role, u.last_login, "
+            + "CASE u.role WHEN 'Vendor' THEN v.contact WHEN 'Admin' THEN ma.contact "
+            + "WHEN 'DeliveryPartner' THEN dp.contact END AS contact "
+            + "FROM users u "
+            + "LEFT JOIN vendors v ON u.role = 'Vendor' AND v.user_id = u.user_id "
+            + "LEFT JOIN middleware_admins ma ON u.role = 'Admin' AND ma.user_id = u.user_id "
+            + "LEFT JOIN delivery_partners dp ON u.role = 'DeliveryPartner' AND dp.user_id = u.user_id ";
+
+    // A user's vendor or delivery partner row never changes, so the ids are looked up once
+    private static final ConcurrentHashMap<Integer, Integer> VENDOR_IDS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, Integer> DELIVERY_PARTNER_IDS = new ConcurrentHashMap<>();
 
     @Override
     public User getUserById(int userId) {
         User user = null;
-        String query = "SELECT * FROM users WHERE user_id = ?";
+        String query = SELECT_USERS + "WHERE u.user_id = ?";
         try (Connection con = GetConnection.getConnection();
              PreparedStatement ps = con.prepareStatement(query)) {
             ps.setInt(1, userId);
@@ -30,7 +44,7 @@ public class UserImplementor implements UserOperations {
     @Override
     public User getUserByUsername(String username) {
         User user = null;
-        String query = "SELECT * FROM users WHERE username = ?";
+        String query = SELECT_USERS + "WHERE u.username = ?";
         try (Connection con = GetConnection.getConnection();
              PreparedStatement ps = con.prepareStatement(query)) {
             ps.setString(1, username);
@@ -47,7 +61,7 @@ public class UserImplementor implements UserOperations {
     @Override
     public List<User> getAllUsersByRole(String role) {
         List<User> users = new ArrayList<>();
-        String query = "SELECT * FROM users WHERE role = ?";
+        String query = SELECT_USERS + "WHERE u.role = ?";
         try (Connection con = GetConnection.getConnection();
              PreparedStatement ps = con.prepareStatement(query)) {
             ps.setString(1, role);
@@ -103,7 +117,11 @@ public class UserImplementor implements UserOperations {
             cs.execute();
             
             String status = cs.getString(4);
-            return "Profile updated".equalsIgnoreCase(status);
+            boolean updated = "Profile updated".equalsIgnoreCase(status);
+            if (updated && user.getPasswordHash() != null && !user.getPasswordHash().isEmpty()) {
+                revokeSessions(user.getUserId());   // sessions signed in with the old password end
+            }
+            return updated;
             
         } catch (SQLException e) {
             e.printStackTrace();
@@ -118,11 +136,15 @@ public class UserImplementor implements UserOperations {
         try (Connection con = GetConnection.getConnection();
              PreparedStatement ps = con.prepareStatement(query)) {
             ps.setInt(1, userId);
-            return ps.executeUpdate() > 0;
+            if (ps.executeUpdate() == 0) {
+                return false;
+            }
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
         }
+        revokeSessions(userId);
+        return true;
     }
 
     @Override
@@ -159,30 +181,65 @@ public class UserImplementor implements UserOperations {
             return false;
         }
     }
+
+    @Override
+    public User authenticate(String username, String passwordHash) {
+        try (Connection con = GetConnection.getConnection();
+             CallableStatement cs = con.prepareCall("{CALL sp_login_user(?, ?, ?, ?, ?)}")) {
+            cs.setString(1, username);
+            cs.setString(2, passwordHash);
+            cs.registerOutParameter(3, Types.INTEGER); // p_user_id
+            cs.registerOutParameter(4, Types.VARCHAR); // p_role
+            cs.registerOutParameter(5, Types.VARCHAR); // p_status
+            cs.execute();
+            if (!"Login successful".equalsIgnoreCase(cs.getString(5))) {
+                return null;
+            }
+            User u = new User();
+            u.setUserId(cs.getInt(3));
+            u.setUsername(username);
+            u.setRole(cs.getString(4));
+            return u;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean revokeSessions(int userId) {
+        return RevokedSessions.shared().revoke(userId);
+    }
     
-    private String getUserContact(int userId, String role, Connection con) throws SQLException {
-        String sql = null;
-        switch (role) {
-            case "Vendor":
-                sql = "SELECT contact FROM vendors WHERE user_id = ?";
-                break;
-            case "Admin":
-                sql = "SELECT contact FROM middleware_admins WHERE user_id = ?";
-                break;
-            case "DeliveryPartner":
-                sql = "SELECT contact FROM delivery_partners WHERE user_id = ?";
-                break;
+    @Override
+    public int getVendorId(int userId) {
+        return roleId(VENDOR_IDS, "SELECT vendor_id FROM vendors WHERE user_id = ?", userId);
+    }
+
+    @Override
+    public int getDeliveryPartnerId(int userId) {
+        return roleId(DELIVERY_PARTNER_IDS, "SELECT delivery_partner_id FROM delivery_partners WHERE user_id = ?", userId);
+    }
+
+    private static int roleId(ConcurrentHashMap<Integer, Integer> cache, String query, int userId) {
+        Integer id = cache.get(userId);
+        if (id != null) {
+            return id;
         }
-        if (sql != null) {
-            try (PreparedStatement ps = con.prepareStatement(sql)) {
-                ps.setInt(1, userId);
-                ResultSet rs = ps.executeQuery();
+        try (Connection con = GetConnection.getReadConnection();
+             PreparedStatement ps = con.prepareStatement(query)) {
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
-                    return rs.getString("contact");
+                    id = rs.getInt(1);
+                    cache.put(userId, id);
+                    return id;
                 }
             }
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
-        return null;
+        return 0;
     }
 
     private User mapUser(ResultSet rs) throws SQLException {
@@ -192,11 +249,7 @@ public class UserImplementor implements UserOperations {
         u.setPasswordHash(rs.getString("password_hash"));
         u.setRole(rs.getString("role"));
         u.setLastLogin(rs.getTimestamp("last_login"));
-
-        // Fetch contact from respective table
-        String contact = getUserContact(u.getUserId(), u.getRole(), rs.getStatement().getConnection());
-        u.setContact(contact);
-
+        u.setContact(rs.getString("contact"));
         return u;
     }
 
@@ -0,0 +1,378 @@
+package implementor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import db_config.GetConnection;
+import db_config.PoolConfig;
+import util.IntDoubleMap;
+
+/**
+ * In-process copy of vendors.due_amount.
+ *
+ * Loaded once from the database, then kept current by the write paths:
+ * makePayment and placeOrder apply their amount as a delta, approveReturn
+ * re-reads the affected vendor. Dues live in striped primitive maps, so
+ * reading one vendor's due or listing every vendor's due is a memory read.
+ * A background job periodically compares the ledger with the database,
+ * reports any drift and adopts the database value.
+ *
+ * A write that applies a delta is bracketed by beginWrite and endWrite, and
+ * every change to an entry bumps its version. Reconciliation leaves alone
+ * any vendor with a write in flight or whose version moved while it read the
+ * database, as the database may already hold a delta the ledger is about to
+ * apply.
+ */
+public class VendorDueLedger {
+    private static final VendorDueLedger SHARED =
+            new VendorDueLedger(PoolConfig.getLong("ledger.reconcileIntervalMs", 5 * 60 * 1000L));
+
+    private static final int STRIPES = 32;              // power of two
+    private static final double EPSILON = 0.005;        // below one paisa is not drift
+    private static final int MAX_REPORTED_DRIFTS = 100;
+
+    private final IntDoubleMap[] stripes = new IntDoubleMap[STRIPES];
+    // Changed under the vendor's stripe lock
+    private final ConcurrentHashMap<Integer, Writes> writes = new ConcurrentHashMap<>();
+    private final long reconcileIntervalMs;
+    private volatile boolean loaded;
+    private volatile DriftReport lastReport;
+    private ScheduledExecutorService reconciler;
+
+    public VendorDueLedger(long reconcileIntervalMs) {
+        this.reconcileIntervalMs = reconcileIntervalMs;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new IntDoubleMap();
+        }
+    }
+
+    /** The ledger shared by the Operations implementations. */
+    public static VendorDueLedger shared() {
+        return SHARED;
+    }
+
+    /** Loads the ledger and schedules reconciliation. Called once at application start. */
+    public synchronized void start() {
+        ensureLoaded();
+        if (reconciler == null && reconcileIntervalMs > 0) {
+            reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "vmms-due-reconciler");
+                t.setDaemon(true);
+                return t;
+            });
+            reconciler.scheduleWithFixedDelay(this::reconcileQuietly, reconcileIntervalMs, reconcileIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+    }
+
+    /** Due amount of one vendor; a vendor the ledger has not seen yet is read from the database. */
+    public double getDue(int vendorId) {
+        ensureLoaded();
+        IntDoubleMap stripe = stripe(vendorId);
+        synchronized (stripe) {
+            if (stripe.containsKey(vendorId)) {
+                return stripe.get(vendorId, 0);
+            }
+        }
+        return refresh(vendorId);
+    }
+
+    /** Copy of every vendor's due amount, keyed by vendorId. */
+    public IntDoubleMap getAllDues() {
+        ensureLoaded();
+        IntDoubleMap all = new IntDoubleMap(size());
+        for (IntDoubleMap stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEach(all::put);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Announces a change to vendors.due_amount that will be passed to
+     * applyDelta. Call before the change is committed and call endWrite in a
+     * finally block, whether or not it committed.
+     */
+    public void beginWrite(int vendorId) {
+        IntDoubleMap stripe = stripe(vendorId);
+        synchronized (stripe) {
+            Writes w = writes.computeIfAbsent(vendorId, k -> new Writes());
+            w.pending++;
+            w.version++;
+        }
+    }
+
+    public void endWrite(int vendorId) {
+        IntDoubleMap stripe = stripe(vendorId);
+        synchronized (stripe) {
+            Writes w = writes.get(vendorId);
+            if (w != null && w.pending > 0) {
+                w.pending--;
+                w.version++;
+            }
+        }
+    }
+
+    /**
+     * Applies a change that has just been committed to vendors.due_amount:
+     * positive for new orders, negative for payments and refunds.
+     */
+    public void applyDelta(int vendorId, double delta) {
+        if (!loaded) {
+            return;   // the initial load will read the committed value
+        }
+        IntDoubleMap stripe = stripe(vendorId);
+        synchronized (stripe) {
+            if (stripe.containsKey(vendorId)) {
+                stripe.put(vendorId, round(stripe.get(vendorId, 0) + delta));
+                bump(vendorId);
+                return;
+            }
+        }
+        refresh(vendorId);
+    }
+
+    /** Re-reads one vendor's due from the database, for changes whose amount the caller does not know. */
+    public double refresh(int vendorId) {
+        String query = "SELECT due_amount FROM vendors WHERE vendor_id = ?";
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement(query)) {
+            ps.setInt(1, vendorId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    double due = rs.getDouble("due_amount");
+                    set(vendorId, due);
+                    return due;
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0.0;
+    }
+
+    void set(int vendorId, double due) {
+        IntDoubleMap stripe = stripe(vendorId);
+        synchronized (stripe) {
+            stripe.put(vendorId, round(due));
+            bump(vendorId);
+        }
+    }
+
+    /**
+     * Compares every vendor's ledger value with the database and adopts the
+     * database value where they differ. A vendor with a write in flight, or
+     * whose entry changes while the check runs, is left alone and looked at
+     * again next time.
+     */
+    public DriftReport reconcile() throws SQLException {
+        ensureLoaded();
+        IntDoubleMap before = new IntDoubleMap(size());
+        Map<Integer, Long> versions = new HashMap<>();
+        for (IntDoubleMap stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEach((vendorId, due) -> {
+                    before.put(vendorId, due);
+                    Writes w = writes.get(vendorId);
+                    if (w == null || w.pending == 0) {
+                        versions.put(vendorId, w == null ? 0L : w.version);
+                    }
+                });
+            }
+        }
+        DriftReport report = new DriftReport();
+        try (Connection con = GetConnection.getConnection();
+             PreparedStatement ps = con.prepareStatement("SELECT vendor_id, due_amount FROM vendors");
+             ResultSet rs = ps.executeQuery()) {
+            IntDoubleMap seen = new IntDoubleMap(before.size());
+            while (rs.next()) {
+                int vendorId = rs.getInt("vendor_id");
+                double dbDue = round(rs.getDouble("due_amount"));
+                seen.put(vendorId, dbDue);
+                report.vendorsChecked++;
+                if (!before.containsKey(vendorId)) {
+                    addIfAbsent(vendorId, dbDue);
+                    continue;
+                }
+                Long version = versions.get(vendorId);
+                if (version == null) {
+                    report.vendorsSkipped++;
+                    continue;
+                }
+                double ledgerDue = before.get(vendorId, 0);
+                if (Math.abs(ledgerDue - dbDue) > EPSILON) {
+                    if (replaceIfUnchanged(vendorId, version, dbDue)) {
+                        report.addDrift(vendorId, ledgerDue, dbDue);
+                    } else {
+                        report.vendorsSkipped++;
+                    }
+                }
+            }
+            // Vendors deleted from the database
+            for (int vendorId : before.keys()) {
+                Long version = versions.get(vendorId);
+                if (!seen.containsKey(vendorId) && version != null) {
+                    IntDoubleMap stripe = stripe(vendorId);
+                    synchronized (stripe) {
+                        if (isUnchanged(vendorId, version)) {
+                            stripe.remove(vendorId);
+                            writes.remove(vendorId);
+                        }
+                    }
+                }
+            }
+        }
+        lastReport = report;
+        return report;
+    }
+
+    private void reconcileQuietly() {
+        try {
+            DriftReport report = reconcile();
+            if (report.getDriftCount() > 0) {
+                System.err.println("Vendor due ledger drift: " + report);
+            }
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Adopts the database value unless the entry was written since the snapshot at version
+    private boolean replaceIfUnchanged(int vendorId, long version, double replacement) {
+        IntDoubleMap stripe = stripe(vendorId);
+        synchronized (stripe) {
+            if (!stripe.containsKey(vendorId) || !isUnchanged(vendorId, version)) {
+                return false;
+            }
+            stripe.put(vendorId, replacement);
+            bump(vendorId);
+            return true;
+        }
+    }
+
+    // A vendor that appeared after the snapshot; refresh may have added it meanwhile
+    private void addIfAbsent(int vendorId, double due) {
+        IntDoubleMap stripe = stripe(vendorId);
+        synchronized (stripe) {
+            Writes w = writes.get(vendorId);
+            if (!stripe.containsKey(vendorId) && (w == null || w.pending == 0)) {
+                stripe.put(vendorId, due);
+            }
+        }
+    }
+
+    // Caller holds the vendor's stripe lock
+    private boolean isUnchanged(int vendorId, long version) {
+        Writes w = writes.get(vendorId);
+        return w == null ? version == 0L : w.pending == 0 && w.version == version;
+    }
+
+    // Caller holds the vendor's stripe lock
+    private void bump(int vendorId) {
+        writes.computeIfAbsent(vendorId, k -> new Writes()).version++;
+    }
+
+    /** The most recent reconciliation result, or null before the first run. */
+    public DriftReport getLastReport() {
+        return lastReport;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            try (Connection con = GetConnection.getConnection();
+                 PreparedStatement ps = con.prepareStatement("SELECT vendor_id, due_amount FROM vendors");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    set(rs.getInt("vendor_id"), rs.getDouble("due_amount"));
+                }
+                loaded = true;
+            } catch (SQLException e) {
+                // Stay unloaded; the next call tries again
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private int size() {
+        int n = 0;
+        for (IntDoubleMap stripe : stripes) {
+            synchronized (stripe) {
+                n += stripe.size();
+            }
+        }
+        return n;
+    }
+
+    private IntDoubleMap stripe(int vendorId) {
+        return stripes[vendorId & (STRIPES - 1)];
+    }
+
+    private static double round(double amount) {
+        return Math.round(amount * 100) / 100.0;
+    }
+
+    // Writes in flight and changes seen for one vendor; guarded by its stripe lock
+    private static final class Writes {
+        long version;
+        int pending;
+    }
+
+    /** Outcome of one reconciliation run. */
+    public static class DriftReport {
+        private final Date checkedAt = new Date();
+        private int vendorsChecked;
+        private int vendorsSkipped;
+        private int driftCount;
+        private double totalAbsoluteDrift;
+        private final List<String> drifts = new ArrayList<>();
+
+        void addDrift(int vendorId, double ledgerDue, double dbDue) {
+            driftCount++;
+            totalAbsoluteDrift += Math.abs(ledgerDue - dbDue);
+            if (drifts.size() < MAX_REPORTED_DRIFTS) {
+                drifts.add("vendor " + vendorId + ": ledger " + ledgerDue + ", db " + dbDue);
+            }
+        }
+
+        public Date getCheckedAt() { return checkedAt; }
+        public int getVendorsChecked() { return vendorsChecked; }
+        /** Vendors written to while the check ran, left for the next run. */
+        public int getVendorsSkipped() { return vendorsSkipped; }
+        public int getDriftCount() { return driftCount; }
+        public double getTotalAbsoluteDrift() { return round(totalAbsoluteDrift); }
+        /** Up to the first 100 drifted vendors, described. */
+        public List<String> getDrifts() { return Collections.unmodifiableList(drifts); }
+
+        @Override
+        public String toString() {
+            return driftCount + " of " + vendorsChecked + " vendors drifted (total " + getTotalAbsoluteDrift()
+                    + ", " + vendorsSkipped + " skipped) at " + checkedAt + (drifts.isEmpty() ? "" : ": " + drifts);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package model;
+
+public class CartChange {
+    private String action;    // "add", "update" or "remove"
+    private int cartId;       // update, remove
+    private int productId;    // add
+    private int qty;          // add (added to the line), update (new quantity)
+    private String mode;      // "unit" or "box"; add, update
+    private double price;     // add, update; optional, checked against the catalog when given
+
+    // Getters and setters
+    public String getAction() { return action; }
+    public void setAction(String action) { this.action = action; }
+    public int getCartId() { return cartId; }
+    public void setCartId(int cartId) { this.cartId = cartId; }
+    public int getProductId() { return productId; }
+    public void setProductId(int productId) { this.productId = productId; }
+    public int getQty() { return qty; }
+    public void setQty(int qty) { this.qty = qty; }
+    public String getMode() { return mode; }
+    public void setMode(String mode) { this.mode = mode; }
+    public double getPrice() { return price; }
+    public void setPrice(double price) { this.price = price; }
+}
@@ -0,0 +1,32 @@
+package model;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * One poll of a "changed since" feed: the rows inserted or updated after the
+ * caller's watermark, ordered by (updatedAt, id), plus the watermark to send
+ * on the next poll. A row can be delivered more than once; callers should
+ * upsert by id.
+ */
+public class ChangeFeed<T> {
+    private final List<T> rows;
+    private final Timestamp watermarkUpdatedAt;
+    private final int watermarkId;
+    private final boolean hasMore;
+
+    public ChangeFeed(List<T> rows, Timestamp watermarkUpdatedAt, int watermarkId, boolean hasMore) {
+        this.rows = rows;
+        this.watermarkUpdatedAt = watermarkUpdatedAt;
+        this.watermarkId = watermarkId;
+        this.hasMore = hasMore;
+    }
+
+    public List<T> getRows() { return rows; }
+    /** Pass back as sinceUpdatedAt on the next poll. */
+    public Timestamp getWatermarkUpdatedAt() { return watermarkUpdatedAt; }
+    /** Pass back as sinceId on the next poll. */
+    public int getWatermarkId() { return watermarkId; }
+    /** True when the page was full; poll again right away to catch up. */
+    public boolean hasMore() { return hasMore; }
+}
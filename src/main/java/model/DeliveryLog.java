@@ -10,6 +10,7 @@ public class DeliveryLog {
     private String status;               // "Pending", "Delivered", "Failed"
     private Date deliveredOn;
     private boolean confirmedByVendor;
+    private Date updatedAt;              // last insert/update, for change feeds
 
     // Getters & Setters
     public int getDeliveryId() { return deliveryId; }
@@ -26,4 +27,6 @@ public class DeliveryLog {
     public void setDeliveredOn(Date deliveredOn) { this.deliveredOn = deliveredOn; }
     public boolean isConfirmedByVendor() { return confirmedByVendor; }
     public void setConfirmedByVendor(boolean confirmedByVendor) { this.confirmedByVendor = confirmedByVendor; }
+    public Date getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Date updatedAt) { this.updatedAt = updatedAt; }
 }
@@ -0,0 +1,35 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ImportReport {
+    private int totalRows;
+    private int importedRows;
+    private final List<RowError> errors = new ArrayList<>();
+
+    public void addError(int row, String message) {
+        errors.add(new RowError(row, message));
+    }
+
+    // Getters & Setters
+    public int getTotalRows() { return totalRows; }
+    public void setTotalRows(int totalRows) { this.totalRows = totalRows; }
+    public int getImportedRows() { return importedRows; }
+    public void setImportedRows(int importedRows) { this.importedRows = importedRows; }
+    public List<RowError> getErrors() { return errors; }
+    public boolean hasErrors() { return !errors.isEmpty(); }
+
+    public static class RowError {
+        private final int row;          // CSV line number or 1-based position; 0 = whole import
+        private final String message;
+
+        public RowError(int row, String message) {
+            this.row = row;
+            this.message = message;
+        }
+
+        public int getRow() { return row; }
+        public String getMessage() { return message; }
+    }
+}
@@ -8,6 +8,7 @@ public class Return {
     private Date returnDate;
     private String returnStatus;  // "Pending", "Approved", "Rejected"
     private String overallReason;
+    private Date updatedAt;       // last insert/update, for change feeds
 
     // Getters & Setters
     public int getReturnId() { return returnId; }
@@ -20,4 +21,6 @@ public class Return {
     public void setReturnStatus(String returnStatus) { this.returnStatus = returnStatus; }
     public String getOverallReason() { return overallReason; }
     public void setOverallReason(String overallReason) { this.overallReason = overallReason; }
+    public Date getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Date updatedAt) { this.updatedAt = updatedAt; }
 }
@@ -5,6 +5,7 @@ public class ReturnItem {
     private int returnId;       // FK
     private int productId;      // FK
     private int qty;
+    private String mode;        // "unit", "box"
     private String reason;
 
     // Getters & Setters
@@ -16,6 +17,8 @@ public class ReturnItem {
     public void setProductId(int productId) { this.productId = productId; }
     public int getQty() { return qty; }
     public void setQty(int qty) { this.qty = qty; }
+    public String getMode() { return mode; }
+    public void setMode(String mode) { this.mode = mode; }
     public String getReason() { return reason; }
     public void setReason(String reason) { this.reason = reason; }
 }
@@ -6,4 +6,6 @@ import model.CalculatorHistory;
 public interface CalculatorOperations {
     boolean addCalculatorEntry(int userId, String mode, String expression, String result);
     List<CalculatorHistory> getCalculatorHistory(int userId);
+    // Result of a "Normal" or "Billing" expression; throws Expression.ExpressionException if it is invalid
+    String evaluate(String mode, String expression);
 }
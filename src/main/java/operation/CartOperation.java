@@ -1,6 +1,7 @@
 package operation;
 
 import java.util.List;
+import model.CartChange;
 import model.CartItem;
 
 public interface CartOperation {
@@ -8,4 +9,7 @@ public interface CartOperation {
     boolean updateCartItem(int cartId, int qty, String mode);
     boolean removeCartItem(int cartId);
     List<CartItem> getCartItems(int vendorId);
+    // Applies all changes in one transaction, or none (IllegalArgumentException, OutOfStockException);
+    // returns the cart afterwards, or null if it could not be loaded or written
+    List<CartItem> applyCartChanges(int vendorId, List<CartChange> changes);
 }
@@ -0,0 +1,16 @@
+package operation;
+
+import java.sql.SQLException;
+
+/**
+ * A database read that failed while its rows were being handed to a
+ * consumer. The forEach... operations throw it so that a caller streaming
+ * the rows can tell a failed read from a short one.
+ */
+public class DataAccessException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DataAccessException(SQLException cause) {
+        super(cause.getMessage(), cause);
+    }
+}
@@ -1,10 +1,22 @@
 package operation;
 
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import model.ChangeFeed;
 import model.DeliveryLog;
 
 public interface DeliveryOperations {
     List<DeliveryLog> getDeliveriesByPartner(int deliveryPartnerId);
+    // Null if the read failed: unlike an empty page, it has no watermark to hand back
+    ChangeFeed<DeliveryLog> getDeliveryChangesByPartner(int deliveryPartnerId, Timestamp sinceUpdatedAt,
+                                                        int sinceDeliveryId, int limit);
     boolean assignDelivery(int orderId, int deliveryPartnerId);
+    boolean queueForAssignment(int orderId);
     boolean updateDeliveryStatus(int deliveryId, String status, java.util.Date deliveredOn, boolean confirmedByVendor);
+    // confirmedByVendor null leaves the flag unchanged
+    boolean queueDeliveryStatus(int deliveryId, String status, java.util.Date deliveredOn, Boolean confirmedByVendor);
+    // deliveryId -> assigned delivery_partner_id, unassigned and unknown deliveries left out; null if the read failed
+    Map<Integer, Integer> getDeliveryPartnerIds(Collection<Integer> deliveryIds);
 }
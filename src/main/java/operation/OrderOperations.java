@@ -1,13 +1,21 @@
 package operation;
 
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 import model.Order;
 import model.OrderItem;
+import util.IntDoubleMap;
 
 public interface OrderOperations {
     List<Order> getOrdersByVendor(int vendorId);
+    List<Order> getOrdersByVendor(int vendorId, int afterOrderId, int pageSize, String status, Timestamp fromDate, Timestamp toDate);
+    // Streams the vendor's orders, newest first, to consumer as they are read; throws DataAccessException if the read fails
+    void forEachOrderByVendor(int vendorId, String status, Timestamp fromDate, Timestamp toDate, Consumer<Order> consumer);
     Order getOrderDetails(int orderId);
     boolean placeOrder(int vendorId, List<OrderItem> items);
     boolean updateOrderStatus(int orderId, String status);
     double calculateOrderTotal(int orderId);
+    IntDoubleMap calculateOrderTotals(Collection<Integer> orderIds);
 }
@@ -0,0 +1,13 @@
+package operation;
+
+/**
+ * A cart change that needs more of a product than is free. The cart is left
+ * as it was; unlike an invalid change, trying again later may succeed.
+ */
+public class OutOfStockException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public OutOfStockException(String message) {
+        super(message);
+    }
+}
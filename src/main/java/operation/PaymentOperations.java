@@ -2,11 +2,18 @@ package operation;
 
 import java.sql.Timestamp;
 import java.util.List;
+import java.util.function.Consumer;
 
 import model.Payment;
+import util.IntDoubleMap;
 
 public interface PaymentOperations {
     boolean makePayment(int vendorId, int orderId, double amount, String mode, Timestamp paymentDate);
     List<Payment> getPaymentsByVendor(int vendorId);
+    List<Payment> getPaymentsByVendor(int vendorId, Timestamp afterPaidOn, int afterPaymentId, int pageSize,
+                                      Timestamp fromDate, Timestamp toDate);
+    // Streams the vendor's payments, newest first, to consumer as they are read; throws DataAccessException if the read fails
+    void forEachPaymentByVendor(int vendorId, Timestamp fromDate, Timestamp toDate, Consumer<Payment> consumer);
     double calculateDueAmount(int vendorId);
+    IntDoubleMap getAllDueAmounts();
 }
@@ -1,6 +1,8 @@
 package operation;
 
+import java.io.InputStream;
 import java.util.List;
+import model.ImportReport;
 import model.Product;
 
 public interface ProductOperations {
@@ -10,4 +12,6 @@ public interface ProductOperations {
     boolean updateProduct(Product product);
     boolean deleteProduct(int productId);
     boolean isProductActive(int productId);
+    ImportReport addProducts(Iterable<Product> products);
+    ImportReport importProducts(InputStream csv);
 }
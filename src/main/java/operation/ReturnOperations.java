@@ -1,15 +1,25 @@
 package operation;
 
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
+import model.ChangeFeed;
 import model.Return;
 import model.ReturnItem;
+import util.IntDoubleMap;
 
 public interface ReturnOperations {
     List<Return> getReturnsByVendor(int vendorId);
+    // Streams the vendor's returns, newest first, to consumer as they are read; throws DataAccessException if the read fails
+    void forEachReturnByVendor(int vendorId, Consumer<Return> consumer);
     Return getReturnDetails(int returnId);
     boolean raiseReturnRequest(int orderId, List<ReturnItem> items, String overallReason);
     boolean approveReturn(int returnId);
     boolean rejectReturn(int returnId, String reason);
     double calculateReturnAmount(int returnId);
+    IntDoubleMap calculateReturnAmounts(Collection<Integer> returnIds);
     List<Return> getPendingReturns();
+    // Null if the read failed: unlike an empty page, it has no watermark to hand back
+    ChangeFeed<Return> getReturnChanges(Timestamp sinceUpdatedAt, int sinceReturnId, int limit);
 }
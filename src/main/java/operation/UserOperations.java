@@ -12,4 +12,12 @@ public interface UserOperations {
     boolean deleteUser(int userId);
     String getUserRole(int userId);
     boolean validateLogin(String username, String passwordHash);
+    // The user (id and role only) if the credentials are valid, otherwise null
+    User authenticate(String username, String passwordHash);
+    // Ends every session token issued to the user so far
+    boolean revokeSessions(int userId);
+    // The vendor_id of a Vendor user, 0 if there is none
+    int getVendorId(int userId);
+    // The delivery_partner_id of a DeliveryPartner user, 0 if there is none
+    int getDeliveryPartnerId(int userId);
 }
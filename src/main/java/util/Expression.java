@@ -0,0 +1,337 @@
+package util;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A calculator expression compiled once into postfix code and evaluated any
+ * number of times with exact BigDecimal arithmetic.
+ *
+ * Syntax: numbers, + - * / (also the multiplication and division signs), unary minus, parentheses, and a
+ * postfix % meaning "divided by 100". Billing expressions may also use
+ * unit(productId, qty) and box(productId, qty), the product's unit or box
+ * price times qty; their results are rounded to paise. Instances are
+ * immutable and safe to share between threads.
+ */
+public final class Expression {
+
+    /** Product prices for billing expressions. */
+    public interface Prices {
+        /** The unit price, or null if there is no such (active) product. */
+        BigDecimal unitPrice(int productId);
+        /** The box price, or null if there is no such (active) product. */
+        BigDecimal boxPrice(int productId);
+    }
+
+    /** The expression cannot be compiled or evaluated; the message is meant for the user. */
+    public static class ExpressionException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        public ExpressionException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int PUSH = 0;
+    private static final int ADD = 1;
+    private static final int SUB = 2;
+    private static final int MUL = 3;
+    private static final int DIV = 4;
+    private static final int NEG = 5;
+    private static final int PERCENT = 6;
+    private static final int UNIT = 7;
+    private static final int BOX = 8;
+
+    private static final MathContext DIVISION = MathContext.DECIMAL64;
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    private static final int MAX_LENGTH = 1000;
+
+    private final String source;
+    private final boolean billing;
+    private final int[] code;              // opcodes; PUSH is followed by an index into constants
+    private final BigDecimal[] constants;
+    private final int maxDepth;
+
+    private Expression(String source, boolean billing, int[] code, BigDecimal[] constants, int maxDepth) {
+        this.source = source;
+        this.billing = billing;
+        this.code = code;
+        this.constants = constants;
+        this.maxDepth = maxDepth;
+    }
+
+    /** Compiles a Normal (billing false) or Billing expression. */
+    public static Expression compile(String source, boolean billing) {
+        if (source == null || source.trim().isEmpty()) {
+            throw new ExpressionException("Expression is empty");
+        }
+        if (source.length() > MAX_LENGTH) {
+            throw new ExpressionException("Expression is longer than " + MAX_LENGTH + " characters");
+        }
+        Compiler c = new Compiler(source, billing);
+        c.expression();
+        c.skipSpaces();
+        if (c.pos < source.length()) {
+            throw c.error("Unexpected '" + source.charAt(c.pos) + "'");
+        }
+        return new Expression(source, billing, Arrays.copyOf(c.code, c.size),
+                c.constants.toArray(new BigDecimal[0]), c.maxDepth);
+    }
+
+    /**
+     * The value of the expression. Billing results are rounded half-up to two
+     * places; Normal results are exact except for division, which keeps 16
+     * significant digits.
+     */
+    public BigDecimal evaluate(Prices prices) {
+        BigDecimal[] stack = new BigDecimal[maxDepth];
+        int top = 0;
+        int[] code = this.code;
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case PUSH:
+                    stack[top++] = constants[code[++pc]];
+                    break;
+                case ADD:
+                    top--;
+                    stack[top - 1] = stack[top - 1].add(stack[top]);
+                    break;
+                case SUB:
+                    top--;
+                    stack[top - 1] = stack[top - 1].subtract(stack[top]);
+                    break;
+                case MUL:
+                    top--;
+                    stack[top - 1] = stack[top - 1].multiply(stack[top]);
+                    break;
+                case DIV:
+                    top--;
+                    if (stack[top].signum() == 0) {
+                        throw new ExpressionException("Division by zero");
+                    }
+                    stack[top - 1] = stack[top - 1].divide(stack[top], DIVISION);
+                    break;
+                case NEG:
+                    stack[top - 1] = stack[top - 1].negate();
+                    break;
+                case PERCENT:
+                    stack[top - 1] = stack[top - 1].divide(HUNDRED);
+                    break;
+                case UNIT:
+                case BOX:
+                    top--;
+                    int productId = productId(stack[top - 1]);
+                    BigDecimal price = code[pc] == UNIT ? prices.unitPrice(productId) : prices.boxPrice(productId);
+                    if (price == null) {
+                        throw new ExpressionException("No active product " + productId);
+                    }
+                    stack[top - 1] = price.multiply(stack[top]);
+                    break;
+                default:
+                    throw new IllegalStateException("Bad opcode " + code[pc]);
+            }
+        }
+        BigDecimal result = stack[0];
+        return billing ? result.setScale(2, RoundingMode.HALF_UP) : result;
+    }
+
+    /** The result as the calculator shows it: plain notation, no trailing zeros outside billing. */
+    public String evaluateToString(Prices prices) {
+        BigDecimal result = evaluate(prices);
+        if (!billing) {
+            result = result.signum() == 0 ? BigDecimal.ZERO : result.stripTrailingZeros();
+        }
+        return result.toPlainString();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public boolean isBilling() {
+        return billing;
+    }
+
+    private static int productId(BigDecimal value) {
+        try {
+            return value.intValueExact();
+        } catch (ArithmeticException e) {
+            throw new ExpressionException("Product id must be a whole number: " + value.toPlainString());
+        }
+    }
+
+    // Recursive-descent parser emitting postfix code
+    private static final class Compiler {
+        final String s;
+        final boolean billing;
+        int pos;
+        int[] code = new int[32];
+        int size;
+        final List<BigDecimal> constants = new ArrayList<>();
+        int depth;
+        int maxDepth;
+
+        Compiler(String s, boolean billing) {
+            this.s = s;
+            this.billing = billing;
+        }
+
+        // expression := term (('+' | '-') term)*
+        void expression() {
+            term();
+            while (true) {
+                int c = next();
+                if (c == '+' || c == '-') {
+                    pos++;
+                    term();
+                    emit(c == '+' ? ADD : SUB, -1);
+                } else {
+                    return;
+                }
+            }
+        }
+
+        // term := unary (('*' | '/') unary)*
+        void term() {
+            unary();
+            while (true) {
+                int c = next();
+                if (c == '*' || c == '\u00d7' || c == '/' || c == '\u00f7') {
+                    pos++;
+                    unary();
+                    emit(c == '*' || c == '\u00d7' ? MUL : DIV, -1);
+                } else {
+                    return;
+                }
+            }
+        }
+
+        // unary := ('-' | '+') unary | primary '%'*
+        void unary() {
+            int c = next();
+            if (c == '-' || c == '+') {
+                pos++;
+                unary();
+                if (c == '-') {
+                    emit(NEG, 0);
+                }
+                return;
+            }
+            primary();
+            while (next() == '%') {
+                pos++;
+                emit(PERCENT, 0);
+            }
+        }
+
+        // primary := number | '(' expression ')' | ('unit' | 'box') '(' expression ',' expression ')'
+        void primary() {
+            int c = next();
+            if (c == '(') {
+                pos++;
+                expression();
+                expect(')');
+            } else if ((c >= '0' && c <= '9') || c == '.') {
+                number();
+            } else if (Character.isLetter(c)) {
+                function();
+            } else if (c == -1) {
+                throw error("Unexpected end of expression");
+            } else {
+                throw error("Unexpected '" + (char) c + "'");
+            }
+        }
+
+        void number() {
+            int start = pos;
+            while (pos < s.length() && (Character.isDigit(s.charAt(pos)) || s.charAt(pos) == '.')) {
+                pos++;
+            }
+            try {
+                push(new BigDecimal(s.substring(start, pos)));
+            } catch (NumberFormatException e) {
+                pos = start;
+                throw error("Bad number");
+            }
+        }
+
+        void function() {
+            int start = pos;
+            while (pos < s.length() && Character.isLetter(s.charAt(pos))) {
+                pos++;
+            }
+            String name = s.substring(start, pos).toLowerCase();
+            int op;
+            if ("unit".equals(name)) {
+                op = UNIT;
+            } else if ("box".equals(name)) {
+                op = BOX;
+            } else {
+                pos = start;
+                throw error("Unknown function '" + name + "'");
+            }
+            if (!billing) {
+                pos = start;
+                throw error(name + "() is only available in Billing mode");
+            }
+            expect('(');
+            expression();
+            expect(',');
+            expression();
+            expect(')');
+            emit(op, -1);
+        }
+
+        void push(BigDecimal value) {
+            int index = constants.indexOf(value);
+            if (index < 0) {
+                index = constants.size();
+                constants.add(value);
+            }
+            add(PUSH);
+            add(index);
+            if (++depth > maxDepth) {
+                maxDepth = depth;
+            }
+        }
+
+        void emit(int op, int stackChange) {
+            add(op);
+            depth += stackChange;
+        }
+
+        void add(int value) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size++] = value;
+        }
+
+        void expect(char c) {
+            if (next() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        // Next non-space character, not consumed; -1 at the end
+        int next() {
+            skipSpaces();
+            return pos < s.length() ? s.charAt(pos) : -1;
+        }
+
+        void skipSpaces() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        ExpressionException error(String message) {
+            return new ExpressionException(message + " at position " + (pos + 1));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from int to double, for id-keyed amounts where a
+ * HashMap&lt;Integer, Double&gt; would box every key and value. Not thread-safe.
+ */
+public class IntDoubleMap {
+
+    /** Callback for {@link #forEach(Visitor)}. */
+    public interface Visitor {
+        void accept(int key, double value);
+    }
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private double[] values;
+    private boolean[] used;
+    private int size;
+    private int resizeAt;
+
+    public IntDoubleMap() {
+        this(16);
+    }
+
+    public IntDoubleMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return used[slot(key)];
+    }
+
+    /** Returns the value for key, or defaultValue when the key is absent. */
+    public double get(int key, double defaultValue) {
+        int i = slot(key);
+        return used[i] ? values[i] : defaultValue;
+    }
+
+    public void put(int key, double value) {
+        int i = slot(key);
+        values[i] = value;
+        if (!used[i]) {
+            keys[i] = key;
+            used[i] = true;
+            if (++size >= resizeAt) {
+                rehash(keys.length << 1);
+            }
+        }
+    }
+
+    /** Adds delta to the value for key (absent keys count as 0) and returns the new value. */
+    public double add(int key, double delta) {
+        int i = slot(key);
+        if (used[i]) {
+            return values[i] += delta;
+        }
+        put(key, delta);
+        return delta;
+    }
+
+    /** Removes key if present; returns whether it was there. */
+    public boolean remove(int key) {
+        int i = slot(key);
+        if (!used[i]) {
+            return false;
+        }
+        used[i] = false;
+        size--;
+        // Shift later entries of the same probe run back so lookups still find them
+        int mask = keys.length - 1;
+        int free = i;
+        for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+            int home = mix(keys[j]) & mask;
+            boolean movable = free <= j ? (home <= free || home > j) : (home <= free && home > j);
+            if (movable) {
+                keys[free] = keys[j];
+                values[free] = values[j];
+                used[free] = true;
+                used[j] = false;
+                free = j;
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                visitor.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /** The keys, in no particular order. */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                result[n++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    // Linear probing; the table is never more than half full, so a free slot always exists
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new double[capacity];
+        used = new boolean[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+                used[j] = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+
+/**
+ * Minimal pull parser for JSON request bodies, the reading counterpart of
+ * {@link JsonWriter}. Values are read one at a time straight from the
+ * Reader, so a large array is never held in memory as a whole. Input longer
+ * than maxChars, or nested deeper than MAX_DEPTH, is rejected. Not thread-safe.
+ */
+public class JsonReader implements Closeable {
+
+    /** Deepest nesting accepted; request bodies need a few levels, and skipValue recurses once per level. */
+    public static final int MAX_DEPTH = 64;
+
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END }
+
+    /** Thrown for syntax errors or oversized input; the request, not the server, is at fault. */
+    public static class MalformedJsonException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+
+    private final Reader in;
+    private final long maxChars;
+    private final char[] buf = new char[2048];
+    private int pos;
+    private int limit;
+    private long consumed;
+
+    // Per open container: is it an object, and has it had a member yet
+    private final boolean[] isObject = new boolean[MAX_DEPTH];
+    private final boolean[] hasMember = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean expectingValue;   // a name was read; its value comes next
+    private final StringBuilder scratch = new StringBuilder();
+
+    public JsonReader(Reader in, long maxChars) {
+        this.in = in;
+        this.maxChars = maxChars;
+    }
+
+    /** The kind of the next value, or NAME when an object member name comes next. */
+    public Token peek() throws IOException {
+        int c = peekChar();
+        if (depth > 0 && !expectingValue) {
+            if (c == (isObject[depth - 1] ? '}' : ']')) {
+                return isObject[depth - 1] ? Token.END_OBJECT : Token.END_ARRAY;
+            }
+            if (hasMember[depth - 1]) {
+                if (c != ',') {
+                    throw syntax("Expected ','");
+                }
+                pos++;
+                hasMember[depth - 1] = false;   // the comma is consumed; the next member is "first" again
+                c = peekChar();
+                if (c == '}' || c == ']') {
+                    throw syntax("Trailing ','");
+                }
+            }
+            if (isObject[depth - 1]) {
+                if (c != '"') {
+                    throw syntax("Expected member name");
+                }
+                return Token.NAME;
+            }
+        }
+        switch (c) {
+            case -1: return Token.END;
+            case '{': return Token.BEGIN_OBJECT;
+            case '[': return Token.BEGIN_ARRAY;
+            case '"': return Token.STRING;
+            case 't': case 'f': return Token.BOOLEAN;
+            case 'n': return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw syntax("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /** True while the current array or object has more members. */
+    public boolean hasNext() throws IOException {
+        Token t = peek();
+        return t != Token.END_ARRAY && t != Token.END_OBJECT && t != Token.END;
+    }
+
+    public void beginObject() throws IOException {
+        open(Token.BEGIN_OBJECT, true);
+    }
+
+    public void endObject() throws IOException {
+        close(Token.END_OBJECT);
+    }
+
+    public void beginArray() throws IOException {
+        open(Token.BEGIN_ARRAY, false);
+    }
+
+    public void endArray() throws IOException {
+        close(Token.END_ARRAY);
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        String name = readString();
+        if (peekChar() != ':') {
+            throw syntax("Expected ':'");
+        }
+        pos++;
+        expectingValue = true;
+        return name;
+    }
+
+    public String nextString() throws IOException {
+        expect(Token.STRING);
+        String s = readString();
+        valueDone();
+        return s;
+    }
+
+    public long nextLong() throws IOException {
+        String n = readNumber();
+        try {
+            return Long.parseLong(n);
+        } catch (NumberFormatException e) {
+            throw syntax("Not an integer: " + n);
+        }
+    }
+
+    public int nextInt() throws IOException {
+        long v = nextLong();
+        if (v != (int) v) {
+            throw syntax("Integer out of range: " + v);
+        }
+        return (int) v;
+    }
+
+    public double nextDouble() throws IOException {
+        return Double.parseDouble(readNumber());
+    }
+
+    public BigDecimal nextBigDecimal() throws IOException {
+        return new BigDecimal(readNumber());
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        boolean value = peekChar() == 't';
+        literal(value ? "true" : "false");
+        valueDone();
+        return value;
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        literal("null");
+        valueDone();
+    }
+
+    /** Skips the next value, including everything nested in it. */
+    public void skipValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case STRING: nextString(); break;
+            case NUMBER: readNumber(); break;
+            case BOOLEAN: nextBoolean(); break;
+            case NULL: nextNull(); break;
+            default: throw syntax("No value to skip");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void open(Token token, boolean object) throws IOException {
+        expect(token);
+        if (depth == MAX_DEPTH) {
+            throw syntax("Nested deeper than " + MAX_DEPTH + " levels");
+        }
+        pos++;
+        isObject[depth] = object;
+        hasMember[depth] = false;
+        depth++;
+        expectingValue = false;
+    }
+
+    private void close(Token token) throws IOException {
+        expect(token);
+        pos++;
+        depth--;
+        valueDone();
+    }
+
+    // A complete value was read: its container now has a member, and a comma must precede the next
+    private void valueDone() {
+        expectingValue = false;
+        if (depth > 0) {
+            hasMember[depth - 1] = true;
+        }
+    }
+
+    private void expect(Token token) throws IOException {
+        Token actual = peek();
+        if (actual != token) {
+            throw syntax("Expected " + token + " but was " + actual);
+        }
+    }
+
+    private String readString() throws IOException {
+        pos++;   // opening quote
+        scratch.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw syntax("Unterminated string");
+            }
+            if (c == '"') {
+                return scratch.toString();
+            }
+            if (c == '\\') {
+                int e = read();
+                switch (e) {
+                    case '"': case '\\': case '/': scratch.append((char) e); break;
+                    case 'n': scratch.append('\n'); break;
+                    case 'r': scratch.append('\r'); break;
+                    case 't': scratch.append('\t'); break;
+                    case 'b': scratch.append('\b'); break;
+                    case 'f': scratch.append('\f'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int d = Character.digit(read(), 16);
+                            if (d < 0) {
+                                throw syntax("Bad \\u escape");
+                            }
+                            code = (code << 4) | d;
+                        }
+                        scratch.append((char) code);
+                        break;
+                    default: throw syntax("Bad escape");
+                }
+            } else if (c < 0x20) {
+                throw syntax("Control character in string");
+            } else {
+                scratch.append((char) c);
+            }
+        }
+    }
+
+    private String readNumber() throws IOException {
+        expect(Token.NUMBER);
+        scratch.setLength(0);
+        while (true) {
+            int c = peekRaw();
+            if (c == -1 || !(c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            scratch.append((char) c);
+            pos++;
+        }
+        valueDone();
+        return scratch.toString();
+    }
+
+    private void literal(String word) throws IOException {
+        for (int i = 0; i < word.length(); i++) {
+            if (read() != word.charAt(i)) {
+                throw syntax("Expected " + word);
+            }
+        }
+    }
+
+    // Next non-whitespace character, not consumed
+    private int peekChar() throws IOException {
+        while (true) {
+            int c = peekRaw();
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    private int peekRaw() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            return false;
+        }
+        consumed += n;
+        if (consumed > maxChars) {
+            throw new MalformedJsonException("Input exceeds " + maxChars + " characters");
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private MalformedJsonException syntax(String message) {
+        return new MalformedJsonException(message + " at character " + (consumed - limit + pos));
+    }
+}
@@ -0,0 +1,282 @@
+package util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+
+/**
+ * Minimal JSON writer that appends straight into a reusable char buffer.
+ *
+ * Values are written with explicit calls (no reflection); commas and string
+ * escaping are handled here. A writer built on a {@link Writer} hands its
+ * buffer to it whenever the buffer fills, so a response of any length is
+ * produced in bounded memory. A writer built without one collects the whole
+ * document for {@link #toString()} and can be {@link #reset()} and reused.
+ * Not thread-safe.
+ */
+public class JsonWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int FLUSH_THRESHOLD = 8 * 1024;
+
+    private final Writer out;
+    private char[] buf;
+    private int len;
+    // One flag per open object/array: true until its first member is written
+    private boolean[] first = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    /** Collects the document in memory; read it with {@link #toString()}. */
+    public JsonWriter() {
+        this(null);
+    }
+
+    /** Streams the document to out, buffering at most a few KB. */
+    public JsonWriter(Writer out) {
+        this.out = out;
+        this.buf = new char[out == null ? DEFAULT_CAPACITY : FLUSH_THRESHOLD + 256];
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() {
+        return close(']');
+    }
+
+    /** Writes a member name; the next call must write its value. */
+    public JsonWriter name(String name) throws IOException {
+        separator();
+        string(name);
+        append(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separator();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separator();
+        appendLong(value);
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();   // not representable in JSON
+        }
+        separator();
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            appendLong((long) value);
+        } else {
+            append(Double.toString(value));
+        }
+        return this;
+    }
+
+    public JsonWriter value(BigDecimal value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separator();
+        append(value.toPlainString());
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separator();
+        append(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separator();
+        append("null");
+        return this;
+    }
+
+    // Shorthands for the common name/value pairs
+
+    public JsonWriter field(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, long value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, double value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, boolean value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(String name, BigDecimal value) throws IOException {
+        return name(name).value(value);
+    }
+
+    /** Hands everything written so far to the underlying Writer and flushes it. */
+    public void flush() throws IOException {
+        if (out != null) {
+            drain();
+            out.flush();
+        }
+    }
+
+    /** Empties the writer for the next document, giving back an oversized buffer. */
+    public JsonWriter reset() {
+        len = 0;
+        depth = 0;
+        afterName = false;
+        if (buf.length > MAX_RETAINED_CAPACITY) {
+            buf = new char[DEFAULT_CAPACITY];
+        }
+        return this;
+    }
+
+    /** The document written since the last reset (in-memory writers only). */
+    @Override
+    public String toString() {
+        return new String(buf, 0, len);
+    }
+
+    private JsonWriter open(char c) throws IOException {
+        separator();
+        append(c);
+        if (depth == first.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(first, 0, grown, 0, depth);
+            first = grown;
+        }
+        first[depth++] = true;
+        return this;
+    }
+
+    private JsonWriter close(char c) {
+        if (depth == 0) {
+            throw new IllegalStateException("Nothing to close");
+        }
+        depth--;
+        ensure(1);
+        buf[len++] = c;
+        return this;
+    }
+
+    private void separator() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (first[depth - 1]) {
+                first[depth - 1] = false;
+            } else {
+                append(',');
+            }
+        }
+        if (out != null && len >= FLUSH_THRESHOLD) {
+            drain();
+        }
+    }
+
+    private void string(String s) {
+        int n = s.length();
+        ensure(n + 2);
+        buf[len++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                buf[len++] = c;
+                continue;
+            }
+            ensure(6 + n - i);
+            buf[len++] = '\\';
+            switch (c) {
+                case '"': buf[len++] = '"'; break;
+                case '\\': buf[len++] = '\\'; break;
+                case '\n': buf[len++] = 'n'; break;
+                case '\r': buf[len++] = 'r'; break;
+                case '\t': buf[len++] = 't'; break;
+                case '\b': buf[len++] = 'b'; break;
+                case '\f': buf[len++] = 'f'; break;
+                default:
+                    // Other control characters, and the two line separators JavaScript rejects
+                    buf[len++] = 'u';
+                    buf[len++] = HEX[(c >> 12) & 0xF];
+                    buf[len++] = HEX[(c >> 8) & 0xF];
+                    buf[len++] = HEX[(c >> 4) & 0xF];
+                    buf[len++] = HEX[c & 0xF];
+                    break;
+            }
+        }
+        buf[len++] = '"';
+    }
+
+    private void appendLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            append(Long.toString(v));
+            return;
+        }
+        ensure(20);
+        if (v < 0) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int start = len;
+        do {
+            buf[len++] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        // Digits were written backwards
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            char t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    private void append(char c) {
+        ensure(1);
+        buf[len++] = c;
+    }
+
+    private void append(String s) {
+        int n = s.length();
+        ensure(n);
+        s.getChars(0, n, buf, len);
+        len += n;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            char[] grown = new char[Math.max(buf.length * 2, len + extra)];
+            System.arraycopy(buf, 0, grown, 0, len);
+            buf = grown;
+        }
+    }
+
+    private void drain() throws IOException {
+        out.write(buf, 0, len);
+        len = 0;
+    }
+}
@@ -0,0 +1,112 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import db_config.PoolConfig;
+
+/**
+ * Translated labels for every supported language, read once from
+ * i18n/messages_<code>.properties (UTF-8) on the classpath and never changed
+ * afterwards, so rendering a label is a map lookup with no I/O.
+ *
+ * The supported codes come from i18n.languages (default "en,hi", the values
+ * of language_settings.selected_language). Each bundle already contains the
+ * default language's entries for keys it does not translate.
+ */
+public final class MessageBundles {
+    public static final String DEFAULT_LANGUAGE = "en";
+
+    private static final Map<String, Map<String, String>> BUNDLES = loadAll();
+
+    private MessageBundles() {
+    }
+
+    /** Loads the bundles now; called at deployment so a missing file shows up at once. */
+    public static void init() {
+        // BUNDLES is loaded by the class initializer
+    }
+
+    /** The supported language codes, default first. */
+    public static Set<String> languages() {
+        return BUNDLES.keySet();
+    }
+
+    public static boolean isSupported(String languageCode) {
+        return languageCode != null && BUNDLES.containsKey(languageCode);
+    }
+
+    /** The canonical (shared) instance of a supported code, or the default language. */
+    public static String canonical(String languageCode) {
+        for (String code : BUNDLES.keySet()) {
+            if (code.equals(languageCode)) {
+                return code;
+            }
+        }
+        return DEFAULT_LANGUAGE;
+    }
+
+    /** All labels of a language (the default language if unsupported); unmodifiable. */
+    public static Map<String, String> bundle(String languageCode) {
+        Map<String, String> bundle = languageCode == null ? null : BUNDLES.get(languageCode);
+        return bundle != null ? bundle : BUNDLES.get(DEFAULT_LANGUAGE);
+    }
+
+    /** The label for key in the language, or the key itself if no bundle defines it. */
+    public static String message(String languageCode, String key) {
+        String message = bundle(languageCode).get(key);
+        return message != null ? message : key;
+    }
+
+    private static Map<String, Map<String, String>> loadAll() {
+        Set<String> codes = new LinkedHashSet<>();
+        codes.add(DEFAULT_LANGUAGE);
+        for (String code : PoolConfig.get("i18n.languages", "en,hi").split(",")) {
+            if (!code.trim().isEmpty()) {
+                codes.add(code.trim().intern());
+            }
+        }
+        Map<String, String> defaults = load(DEFAULT_LANGUAGE);
+        Map<String, Map<String, String>> bundles = new LinkedHashMap<>();   // default first
+        for (String code : codes) {
+            Map<String, String> bundle = new HashMap<>(defaults);
+            if (!code.equals(DEFAULT_LANGUAGE)) {
+                bundle.putAll(load(code));
+            }
+            bundles.put(code, Collections.unmodifiableMap(bundle));
+        }
+        return Collections.unmodifiableMap(bundles);
+    }
+
+    private static Map<String, String> load(String code) {
+        String resource = "i18n/messages_" + code + ".properties";
+        Map<String, String> messages = new HashMap<>();
+        try (InputStream in = MessageBundles.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                System.err.println(resource + " not found on classpath; '" + code + "' falls back to "
+                        + DEFAULT_LANGUAGE);
+                return messages;
+            }
+            Properties props = new Properties();
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            }
+            for (String key : props.stringPropertyNames()) {
+                messages.put(key, props.getProperty(key));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return messages;
+    }
+}
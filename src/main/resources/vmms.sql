@@ -89,19 +89,27 @@ CREATE TABLE returns (
     return_date DATETIME NOT NULL,
     return_status ENUM('Pending', 'Approved', 'Rejected') DEFAULT 'Pending',
     overall_reason TEXT,
+    -- Bumped on every change; drives the "changed since" feed of returns
+    updated_at TIMESTAMP(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) ON UPDATE CURRENT_TIMESTAMP(6),
     FOREIGN KEY (order_id) REFERENCES orders(order_id) ON DELETE CASCADE,
-    INDEX idx_order_id (order_id)
+    INDEX idx_order_id (order_id),
+    INDEX idx_updated (updated_at, return_id)
 ) ENGINE=InnoDB;
 
 -- Return items: supports partial returns
+-- An order can hold a box line and a unit line of the same product, so each item says which
+-- it returns (mode) and keeps the order line it was matched to when raised (NULL if none)
 CREATE TABLE return_items (
     return_item_id INT AUTO_INCREMENT PRIMARY KEY,
     return_id INT NOT NULL,
     product_id INT NOT NULL,
     qty INT NOT NULL,
+    mode ENUM('unit', 'box') NOT NULL DEFAULT 'unit',
+    order_item_id INT,
     reason TEXT,
     FOREIGN KEY (return_id) REFERENCES returns(return_id) ON DELETE CASCADE,
-    FOREIGN KEY (product_id) REFERENCES products(product_id) ON DELETE RESTRICT
+    FOREIGN KEY (product_id) REFERENCES products(product_id) ON DELETE RESTRICT,
+    FOREIGN KEY (order_item_id) REFERENCES order_items(order_item_id) ON DELETE SET NULL
 ) ENGINE=InnoDB;
 
 -- Payments made by vendors
@@ -114,7 +122,8 @@ CREATE TABLE payments (
     paid_on DATETIME NOT NULL,
     FOREIGN KEY (vendor_id) REFERENCES vendors(vendor_id) ON DELETE CASCADE,
     FOREIGN KEY (order_id) REFERENCES orders(order_id) ON DELETE CASCADE,
-    INDEX idx_vendor_order (vendor_id, order_id)
+    INDEX idx_vendor_order (vendor_id, order_id),
+    INDEX idx_vendor_paid_on (vendor_id, paid_on)   -- keyset pagination of a vendor's payments
 ) ENGINE=InnoDB;
 
 -- Delivery tracking log
@@ -126,11 +135,14 @@ CREATE TABLE delivery_log (
     status ENUM('Pending', 'Delivered', 'Failed') DEFAULT 'Pending',
     delivered_on DATETIME,
     confirmed_by_vendor BOOLEAN DEFAULT FALSE,
+    -- Bumped on every change; drives the per-partner "changed since" feed
+    updated_at TIMESTAMP(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) ON UPDATE CURRENT_TIMESTAMP(6),
     FOREIGN KEY (order_id) REFERENCES orders(order_id) ON DELETE CASCADE,
     FOREIGN KEY (vendor_id) REFERENCES vendors(vendor_id) ON DELETE CASCADE,
     FOREIGN KEY (delivery_partner_id) REFERENCES delivery_partners(delivery_partner_id) ON DELETE SET NULL,
     INDEX idx_order_id (order_id),
-    INDEX idx_delivery_partner (delivery_partner_id)
+    INDEX idx_delivery_partner (delivery_partner_id),
+    INDEX idx_partner_updated (delivery_partner_id, updated_at, delivery_id)
 ) ENGINE=InnoDB;
 
 
@@ -153,6 +165,24 @@ CREATE TABLE language_settings (
     FOREIGN KEY (user_id) REFERENCES users(user_id) ON DELETE CASCADE
 ) ENGINE=InnoDB;
 
+-- Session tokens issued to a user at or before revoked_at are no longer accepted
+-- (logout everywhere, password change). No foreign key: a deleted user's
+-- revocation must outlive the users row until the tokens expire.
+CREATE TABLE user_revocations (
+    user_id INT PRIMARY KEY,
+    revoked_at TIMESTAMP(3) NOT NULL,
+    INDEX idx_revoked_at (revoked_at)
+) ENGINE=InnoDB;
+
+-- The one application node allowed to reserve stock (StockReservations keeps the counters in
+-- its memory). The owner renews expires_at; another node may take over once it is well past.
+CREATE TABLE stock_lease (
+    lease_id TINYINT PRIMARY KEY,
+    node VARCHAR(100) NOT NULL,
+    expires_at DATETIME(3) NOT NULL
+) ENGINE=InnoDB;
+INSERT INTO stock_lease (lease_id, node, expires_at) VALUES (1, '', '2000-01-01 00:00:00');
+
 -- User Management Module 
 -- 1. Functions
 
@@ -288,7 +318,7 @@ END;
 DELIMITER ;
 
 -- Stored Procedures
--- Adds a new product with unit & box pricing, quantity per box, image URL, and active status.
+-- Adds a new product with unit & box pricing, quantity per box, image URL, active status and stock in units.
 DELIMITER //
 CREATE PROCEDURE sp_add_product(
     IN p_name VARCHAR(255),
@@ -297,14 +327,15 @@ CREATE PROCEDURE sp_add_product(
     IN p_qty_per_box INT,
     IN p_image_url TEXT,
     IN p_is_active BOOLEAN,
+    IN p_stock_quantity INT,
     OUT p_product_id INT,
     OUT p_status VARCHAR(50)
 )
 BEGIN
     INSERT INTO products
-    (name, unit_price, box_price, qty_per_box, image_url, is_active)
+    (name, unit_price, box_price, qty_per_box, image_url, is_active, stock_quantity)
     VALUES
-    (p_name, p_unit_price, p_box_price, p_qty_per_box, p_image_url, p_is_active);
+    (p_name, p_unit_price, p_box_price, p_qty_per_box, p_image_url, p_is_active, p_stock_quantity);
 
     SET p_product_id = LAST_INSERT_ID();
     SET p_status = 'Product added successfully';
@@ -322,6 +353,7 @@ CREATE PROCEDURE sp_update_product(
     IN p_qty_per_box INT,
     IN p_image_url TEXT,
     IN p_is_active BOOLEAN,
+    IN p_stock_quantity INT,
     OUT p_status VARCHAR(50)
 )
 BEGIN
@@ -331,7 +363,8 @@ BEGIN
         box_price = p_box_price,
         qty_per_box = p_qty_per_box,
         image_url = p_image_url,
-        is_active = p_is_active
+        is_active = p_is_active,
+        stock_quantity = p_stock_quantity
     WHERE product_id = p_product_id;
 
     SET p_status = 'Product updated successfully';
@@ -358,7 +391,7 @@ DELIMITER ;
 DELIMITER //
 CREATE PROCEDURE sp_get_active_products()
 BEGIN
-    SELECT product_id, name, unit_price, box_price, qty_per_box, image_url
+    SELECT product_id, name, unit_price, box_price, qty_per_box, image_url, is_active, stock_quantity
     FROM products
     WHERE is_active = TRUE;
 END;
@@ -419,8 +452,8 @@ DELIMITER ;
 -- 2. Stored Procedures
 -- a. sp_add_to_cart
 
--- Table cart_items assumed: cart_id PK, vendor_id FK, product_id FK,
--- qty INT, mode ENUM('unit','box'), price DECIMAL(10,2)
+-- Table cart_items: cart_item_id PK, vendor_id FK, product_id FK,
+-- qty INT, mode ENUM('unit','box'), price DECIMAL(10,2), one line per product and mode
 
 DELIMITER //
 CREATE PROCEDURE sp_add_to_cart(
@@ -458,7 +491,7 @@ CREATE PROCEDURE sp_update_cart_item(
 BEGIN
     UPDATE cart_items
     SET qty = p_qty, mode = p_mode
-    WHERE cart_id = p_cart_id;
+    WHERE cart_item_id = p_cart_id;
 
     SET p_status = 'Cart item updated';
 END;
@@ -472,7 +505,7 @@ CREATE PROCEDURE sp_remove_cart_item(
     OUT p_status VARCHAR(50)
 )
 BEGIN
-    DELETE FROM cart_items WHERE cart_id = p_cart_id;
+    DELETE FROM cart_items WHERE cart_item_id = p_cart_id;
     SET p_status = 'Cart item removed';
 END;
 //
@@ -484,7 +517,7 @@ CREATE PROCEDURE sp_get_cart_items(
     IN p_vendor_id INT
 )
 BEGIN
-    SELECT cart_id, product_id, qty, mode, price
+    SELECT cart_item_id AS cart_id, product_id, qty, mode, price
     FROM cart_items
     WHERE vendor_id = p_vendor_id;
 END;
@@ -538,6 +571,7 @@ BEGIN
     CLOSE cur;
 
     UPDATE orders SET total_amount = v_total WHERE order_id = p_order_id;
+    UPDATE vendors SET due_amount = due_amount + v_total WHERE vendor_id = p_vendor_id;
     DELETE FROM cart_items WHERE vendor_id = p_vendor_id;
 
     COMMIT;
@@ -554,6 +588,7 @@ CREATE TABLE cart_items (
     mode ENUM('unit', 'box') NOT NULL,
     price DECIMAL(10,2) NOT NULL,
     added_on TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_cart_line (vendor_id, product_id, mode),
     FOREIGN KEY (vendor_id) REFERENCES vendors(vendor_id) ON DELETE CASCADE,
     FOREIGN KEY (product_id) REFERENCES products(product_id) ON DELETE CASCADE
 ) ENGINE=InnoDB; 
@@ -606,7 +641,10 @@ DELIMITER ;
 
 -- 3. Triggers
 -- a. trg_after_payment_insert
--- Automatically updates vendor due amount after any payment insertion (real-time reconciliation).
+-- Automatically updates vendor due amount after any payment insertion.
+-- due_amount is maintained incrementally (orders add, payments and approved
+-- returns subtract), so the payment is subtracted rather than the due being
+-- recomputed from orders and payments, which would drop return credits.
 
 DELIMITER //
 CREATE TRIGGER trg_after_payment_insert
@@ -614,7 +652,7 @@ AFTER INSERT ON payments
 FOR EACH ROW
 BEGIN
     UPDATE vendors v
-    SET v.due_amount = fn_calculate_due_amount(v.vendor_id)
+    SET v.due_amount = v.due_amount - NEW.amount_paid
     WHERE v.vendor_id = NEW.vendor_id;
 END;
 //
@@ -648,12 +686,12 @@ DETERMINISTIC
 BEGIN
     DECLARE v_total_return DECIMAL(10,2);
 
+    -- Each item is priced from the one order line it was matched to
     SELECT SUM(ri.qty * oi.price)
     INTO v_total_return
     FROM return_items ri
-    JOIN order_items oi ON ri.product_id = oi.product_id AND ri.return_id = p_return_id AND oi.order_id = (
-        SELECT order_id FROM returns WHERE return_id = p_return_id
-    );
+    JOIN order_items oi ON oi.order_item_id = ri.order_item_id
+    WHERE ri.return_id = p_return_id;
 
     RETURN IFNULL(v_total_return, 0);
 END;
@@ -667,7 +705,7 @@ DELIMITER ;
 DELIMITER //
 CREATE PROCEDURE sp_raise_return_request(
     IN p_order_id INT,
-    IN p_items_json JSON,  -- array of {product_id, qty, reason}
+    IN p_items_json JSON,  -- array of {product_id, qty, mode, reason}
     IN p_overall_reason TEXT,
     OUT p_return_id INT,
     OUT p_status VARCHAR(100)
@@ -679,6 +717,8 @@ BEGIN
     DECLARE item JSON;
     DECLARE v_product_id INT;
     DECLARE v_qty INT;
+    DECLARE v_mode VARCHAR(10);
+    DECLARE v_order_item_id INT;
     DECLARE v_reason TEXT;
 
     -- Insert Return header
@@ -693,10 +733,17 @@ BEGIN
         SET item = JSON_EXTRACT(p_items_json, CONCAT('$[', i, ']'));
         SET v_product_id = JSON_UNQUOTE(JSON_EXTRACT(item, '$.product_id'));
         SET v_qty = JSON_EXTRACT(item, '$.qty');
+        SET v_mode = IFNULL(JSON_UNQUOTE(JSON_EXTRACT(item, '$.mode')), 'unit');
         SET v_reason = JSON_UNQUOTE(JSON_EXTRACT(item, '$.reason'));
 
-        INSERT INTO return_items (return_id, product_id, qty, reason)
-        VALUES (v_return_id, v_product_id, v_qty, v_reason);
+        -- The order line of that product and mode (the first, should there be several)
+        SET v_order_item_id = (
+            SELECT MIN(order_item_id) FROM order_items
+            WHERE order_id = p_order_id AND product_id = v_product_id AND mode = v_mode
+        );
+
+        INSERT INTO return_items (return_id, product_id, qty, mode, order_item_id, reason)
+        VALUES (v_return_id, v_product_id, v_qty, v_mode, v_order_item_id, v_reason);
 
         SET i = i + 1;
     END WHILE;
@@ -710,6 +757,8 @@ DELIMITER ;
 
 -- b) Approve Return Request
 -- Upon approval, update return status, adjust inventory, and refund dues if applicable.
+-- Stock is counted in units: an item matched to a box line of the order (the line
+-- fn_calculate_return_amount prices it from) puts back qty_per_box units per box.
 DELIMITER //
 CREATE PROCEDURE sp_approve_return(
     IN p_return_id INT,
@@ -737,9 +786,16 @@ BEGIN
     SET v_return_amount = fn_calculate_return_amount(p_return_id);
 
     UPDATE products p
-    JOIN return_items ri ON p.product_id = ri.product_id
-    SET p.stock_quantity = p.stock_quantity + ri.qty
-    WHERE ri.return_id = p_return_id;
+    JOIN (
+        SELECT oi.product_id,
+               SUM(IF(oi.mode = 'box', ri.qty, 0)) AS boxes,
+               SUM(IF(oi.mode = 'box', 0, ri.qty)) AS units
+        FROM return_items ri
+        JOIN order_items oi ON oi.order_item_id = ri.order_item_id
+        WHERE ri.return_id = p_return_id
+        GROUP BY oi.product_id
+    ) r ON r.product_id = p.product_id
+    SET p.stock_quantity = p.stock_quantity + r.units + r.boxes * p.qty_per_box;
 
     UPDATE vendors SET due_amount = due_amount - v_return_amount WHERE vendor_id = v_vendor_id;
 
@@ -1030,8 +1086,8 @@ BEGIN
         -- Metric 3: Total Approved Returns Count
         (SELECT COUNT(*) FROM returns r WHERE r.return_date BETWEEN p_start_date AND p_end_date AND r.return_status = 'Approved') AS total_returns_count,
         
-        -- Metric 4: Top Selling Product Name
-        (SELECT p.name FROM order_items oi JOIN orders o ON oi.order_id = o.order_id JOIN products p ON oi.product_id = p.product_id WHERE o.order_date BETWEEN p_start_date AND p_end_date AND o.status IN ('Confirmed', 'Delivered') GROUP BY p.name ORDER BY SUM(oi.qty) DESC LIMIT 1) AS top_product_name;
+        -- Metric 4: Top Selling Product Name (counted in units: an order holds a box line and a unit line per product)
+        (SELECT p.name FROM order_items oi JOIN orders o ON oi.order_id = o.order_id JOIN products p ON oi.product_id = p.product_id WHERE o.order_date BETWEEN p_start_date AND p_end_date AND o.status IN ('Confirmed', 'Delivered') GROUP BY p.name ORDER BY SUM(IF(oi.mode = 'box', oi.qty * p.qty_per_box, oi.qty)) DESC LIMIT 1) AS top_product_name;
 
     -- You would still run the query for the top 5 products list separately
     -- as it returns multiple rows.
@@ -1052,34 +1108,14 @@ DELIMITER ;
 DELIMITER //
 CREATE PROCEDURE sp_get_pending_returns()
 BEGIN
-    SELECT r.return_id, r.order_id, r.return_date, r.overall_reason
+    SELECT r.return_id, r.order_id, r.return_date, r.return_status, r.overall_reason
     FROM returns r
     WHERE r.return_status = 'Pending';
 END;
 //
 DELIMITER ;
 
---  trigger. It will automatically deduct stock for each item as an order is created.
-DELIMITER //
-CREATE TRIGGER trg_update_stock_on_order
-AFTER INSERT ON order_items
-FOR EACH ROW
-BEGIN
-    DECLARE current_stock INT;
-
-    -- Lock the product row to prevent race conditions
-    SELECT stock_quantity INTO current_stock FROM products WHERE product_id = NEW.product_id FOR UPDATE;
-
-    -- Check for sufficient stock
-    IF current_stock < NEW.qty THEN
-        -- Raise an error to cancel the transaction
-        SIGNAL SQLSTATE '45000' SET MESSAGE_TEXT = 'Error: Insufficient stock for the product.';
-    END IF;
-
-    -- Deduct stock
-    UPDATE products 
-    SET stock_quantity = stock_quantity - NEW.qty 
-    WHERE product_id = NEW.product_id;
-END;
-//
-DELIMITER ;
\ No newline at end of file
+--  Stock is no longer deducted by a trigger on order_items: locking the product row for every
+--  order line serialised all vendors. The application reserves stock in memory (StockReservations,
+--  on the node holding stock_lease) and subtracts sold units from products.stock_quantity in batches.
+DROP TRIGGER IF EXISTS trg_update_stock_on_order;
\ No newline at end of file
@@ -0,0 +1,149 @@
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import util.Expression;
+
+/**
+ * JMH comparison of util.Expression against a naive parser that evaluates
+ * while it parses, re-reading the text on every call. evaluateCompiled is a
+ * calculator request whose expression is already in the cache;
+ * compileAndEvaluate is a cache miss.
+ *
+ * Needs jmh-core and jmh-generator-annprocess on the test classpath; run with:
+ * java -cp &lt;test classes and jars&gt; org.openjdk.jmh.Main ExpressionBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+    private static final Expression.Prices NO_PRICES = new Expression.Prices() {
+        @Override
+        public BigDecimal unitPrice(int productId) {
+            return null;
+        }
+
+        @Override
+        public BigDecimal boxPrice(int productId) {
+            return null;
+        }
+    };
+
+    @Param({
+        "12.5 * 4",
+        "(12.5 + 7.25) * 3 - 48 / 4 + 15%",
+        "((1250.75 - 310.5) * 18% + 42) / 3 - -(7.125 * (2 + 3 * (4 - 1))) + 99.99 * 12 - 0.5%"
+    })
+    public String source;
+
+    private Expression compiled;
+
+    @Setup
+    public void setUp() {
+        compiled = Expression.compile(source, false);
+        BigDecimal naive = new NaiveParser(source).parse();
+        if (naive.compareTo(compiled.evaluate(NO_PRICES)) != 0) {
+            throw new IllegalStateException("Parsers disagree on " + source);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal evaluateCompiled() {
+        return compiled.evaluate(NO_PRICES);
+    }
+
+    @Benchmark
+    public BigDecimal compileAndEvaluate() {
+        return Expression.compile(source, false).evaluate(NO_PRICES);
+    }
+
+    @Benchmark
+    public BigDecimal naiveParser() {
+        return new NaiveParser(source).parse();
+    }
+
+    // Evaluates during a recursive descent over the text; same grammar as Expression without billing
+    private static final class NaiveParser {
+        private final String s;
+        private int pos;
+
+        NaiveParser(String s) {
+            this.s = s.replace(" ", "");
+        }
+
+        BigDecimal parse() {
+            BigDecimal value = expression();
+            if (pos != s.length()) {
+                throw new IllegalArgumentException("Unexpected '" + s.charAt(pos) + "'");
+            }
+            return value;
+        }
+
+        private BigDecimal expression() {
+            BigDecimal value = term();
+            while (pos < s.length() && (s.charAt(pos) == '+' || s.charAt(pos) == '-')) {
+                char op = s.charAt(pos++);
+                BigDecimal right = term();
+                value = op == '+' ? value.add(right) : value.subtract(right);
+            }
+            return value;
+        }
+
+        private BigDecimal term() {
+            BigDecimal value = unary();
+            while (pos < s.length() && (s.charAt(pos) == '*' || s.charAt(pos) == '/')) {
+                char op = s.charAt(pos++);
+                BigDecimal right = unary();
+                value = op == '*' ? value.multiply(right) : value.divide(right, MathContext.DECIMAL64);
+            }
+            return value;
+        }
+
+        private BigDecimal unary() {
+            if (s.charAt(pos) == '-') {
+                pos++;
+                return unary().negate();
+            }
+            if (s.charAt(pos) == '+') {
+                pos++;
+                return unary();
+            }
+            BigDecimal value = primary();
+            while (pos < s.length() && s.charAt(pos) == '%') {
+                pos++;
+                value = value.divide(BigDecimal.valueOf(100));
+            }
+            return value;
+        }
+
+        private BigDecimal primary() {
+            if (s.charAt(pos) == '(') {
+                pos++;
+                BigDecimal value = expression();
+                pos++;   // ')'
+                return value;
+            }
+            int start = pos;
+            while (pos < s.length() && (Character.isDigit(s.charAt(pos)) || s.charAt(pos) == '.')) {
+                pos++;
+            }
+            return new BigDecimal(s.substring(start, pos));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import util.Expression;
+
+/**
+ * Checks util.Expression: precedence and associativity, unary minus and
+ * percent, exact decimal results, billing functions and rounding, and the
+ * errors shown to the user.
+ *
+ * Run with: java ExpressionTest
+ */
+public class ExpressionTest {
+    private static final Prices PRICES = new Prices()
+            .product(1, "12.35", "140.00")
+            .product(2, "0.333", "3.99");
+
+    public static void main(String[] args) {
+        followsPrecedenceAndAssociativity();
+        handlesUnaryMinusAndPercent();
+        keepsDecimalResultsExact();
+        pricesBillingLinesInPaise();
+        rejectsBadInput();
+        evaluatesTheSameCompiledExpressionRepeatedly();
+        System.out.println("ExpressionTest passed");
+    }
+
+    static void followsPrecedenceAndAssociativity() {
+        checkNormal("1 + 2 * 3", "7");
+        checkNormal("(1 + 2) * 3", "9");
+        checkNormal("10 - 4 - 3", "3");
+        checkNormal("64 / 4 / 2", "8");
+        checkNormal("2 \u00d7 3 \u00f7 4", "1.5");
+        checkNormal("  7\t*\n6 ", "42");
+    }
+
+    static void handlesUnaryMinusAndPercent() {
+        checkNormal("-3 + 5", "2");
+        checkNormal("--3", "3");
+        checkNormal("2 * -(1 + 2)", "-6");
+        checkNormal("+4", "4");
+        checkNormal("50%", "0.5");
+        checkNormal("200 * 15%", "30");
+        checkNormal("10%%", "0.001");
+        checkNormal("-50%", "-0.5");
+    }
+
+    static void keepsDecimalResultsExact() {
+        checkNormal("0.1 + 0.2", "0.3");
+        checkNormal("1.10 * 3", "3.3");
+        checkNormal("1 / 3", "0.3333333333333333");
+        checkNormal("1 / 8", "0.125");
+        checkNormal("5 - 5.00", "0");
+        checkNormal(".5 + .25", "0.75");
+    }
+
+    static void pricesBillingLinesInPaise() {
+        checkBilling("unit(1, 3)", "37.05");
+        checkBilling("box(1, 2) + unit(1, 5)", "341.75");
+        checkBilling("unit(2, 1)", "0.33");
+        checkBilling("unit(2, 3)", "1.00");
+        checkBilling("box(2, 1) * 10%", "0.40");
+        checkBilling("unit(1 + 1, 2 * 3)", "2.00");
+        checkBilling("UNIT(1, 1)", "12.35");
+        checkBilling("2 / 3", "0.67");
+    }
+
+    static void rejectsBadInput() {
+        checkError("", false, "Expression is empty");
+        checkError("   ", false, "Expression is empty");
+        checkError("1 +", false, "Unexpected end of expression at position 4");
+        checkError("2 * (3 + 4", false, "Expected ')' at position 11");
+        checkError("4 4", false, "Unexpected '4' at position 3");
+        checkError("1.2.3", false, "Bad number at position 1");
+        checkError("1 / (2 - 2)", false, "Division by zero");
+        checkError("sqrt(4)", true, "Unknown function 'sqrt' at position 1");
+        checkError("unit(1, 2)", false, "unit() is only available in Billing mode at position 1");
+        checkError("unit(9, 1)", true, "No active product 9");
+        checkError("box(1.5, 1)", true, "Product id must be a whole number: 1.5");
+        checkError("unit(1 2)", true, "Expected ',' at position 8");
+        StringBuilder tooLong = new StringBuilder("1");
+        while (tooLong.length() <= 1000) {
+            tooLong.append("+1");
+        }
+        checkError(tooLong.toString(), false, "Expression is longer than 1000 characters");
+    }
+
+    static void evaluatesTheSameCompiledExpressionRepeatedly() {
+        Expression e = Expression.compile("box(1, 2) - unit(2, 10) * 2", true);
+        for (int i = 0; i < 3; i++) {
+            check("273.34".equals(e.evaluateToString(PRICES)), "evaluation " + i + " gave " + e.evaluateToString(PRICES));
+        }
+        Prices cheaper = new Prices().product(1, "10.00", "100.00").product(2, "1.00", "10.00");
+        check("180.00".equals(e.evaluateToString(cheaper)), "prices are not read at evaluation time");
+        check(e.isBilling() && "box(1, 2) - unit(2, 10) * 2".equals(e.getSource()), "source or mode not kept");
+    }
+
+    private static void checkNormal(String source, String expected) {
+        String actual = Expression.compile(source, false).evaluateToString(PRICES);
+        check(expected.equals(actual), source + " = " + actual + ", expected " + expected);
+    }
+
+    private static void checkBilling(String source, String expected) {
+        String actual = Expression.compile(source, true).evaluateToString(PRICES);
+        check(expected.equals(actual), source + " = " + actual + ", expected " + expected);
+    }
+
+    private static void checkError(String source, boolean billing, String expected) {
+        try {
+            String result = Expression.compile(source, billing).evaluateToString(PRICES);
+            throw new AssertionError(source + " = " + result + ", expected error: " + expected);
+        } catch (Expression.ExpressionException e) {
+            check(expected.equals(e.getMessage()), source + ": error \"" + e.getMessage() + "\", expected \"" + expected + "\"");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    // Fixed prices by product id
+    private static final class Prices implements Expression.Prices {
+        private final Map<Integer, BigDecimal[]> byId = new HashMap<>();
+
+        Prices product(int productId, String unitPrice, String boxPrice) {
+            byId.put(productId, new BigDecimal[] { new BigDecimal(unitPrice), new BigDecimal(boxPrice) });
+            return this;
+        }
+
+        @Override
+        public BigDecimal unitPrice(int productId) {
+            BigDecimal[] p = byId.get(productId);
+            return p == null ? null : p[0];
+        }
+
+        @Override
+        public BigDecimal boxPrice(int productId) {
+            BigDecimal[] p = byId.get(productId);
+            return p == null ? null : p[1];
+        }
+    }
+}
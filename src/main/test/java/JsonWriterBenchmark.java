@@ -0,0 +1,104 @@
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.ReturnItem;
+import util.JsonWriter;
+
+/**
+ * JMH comparison of util.JsonWriter against the StringBuilder toJson that
+ * ReturnImplementor used to build the sp_raise_return_request items with.
+ * Both write the same fields; the reasons need no escaping, so the old code
+ * produces valid JSON and the two outputs are checked to be equal. The
+ * writer is reused across calls, as ReturnImplementor does per thread.
+ *
+ * Needs jmh-core and jmh-generator-annprocess on the test classpath; run with:
+ * java -cp &lt;test classes and jars&gt; org.openjdk.jmh.Main JsonWriterBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonWriterBenchmark {
+    private static final String[] REASONS = { "Damaged in transit", "Expired", "Wrong product delivered", "" };
+
+    @Param({ "1", "20", "1000" })
+    public int items;
+
+    private List<ReturnItem> returnItems;
+    private JsonWriter writer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        returnItems = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            ReturnItem item = new ReturnItem();
+            item.setProductId(1 + random.nextInt(2000));
+            item.setQty(1 + random.nextInt(50));
+            item.setReason(REASONS[random.nextInt(REASONS.length)]);
+            returnItems.add(item);
+        }
+        writer = new JsonWriter();
+        if (!stringBuilderToJson().equals(jsonWriter())) {
+            throw new IllegalStateException("The two writers disagree");
+        }
+    }
+
+    @Benchmark
+    public String jsonWriter() {
+        JsonWriter json = writer.reset();
+        try {
+            json.beginArray();
+            for (ReturnItem item : returnItems) {
+                json.beginObject()
+                    .field("product_id", item.getProductId())
+                    .field("qty", item.getQty())
+                    .field("reason", item.getReason())
+                    .endObject();
+            }
+            json.endArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return json.toString();
+    }
+
+    // ReturnImplementor.toJson before JsonWriter (no escaping)
+    @Benchmark
+    public String stringBuilderToJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        for (int i = 0; i < returnItems.size(); i++) {
+            ReturnItem item = returnItems.get(i);
+            sb.append("{");
+            sb.append("\"product_id\":").append(item.getProductId()).append(",");
+            sb.append("\"qty\":").append(item.getQty()).append(",");
+            sb.append("\"reason\":\"").append(item.getReason()).append("\"");
+            sb.append("}");
+            if (i < returnItems.size() - 1) {
+                sb.append(",");
+            }
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,150 @@
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import implementor.PricingEngine;
+import model.CartItem;
+import model.ImportReport;
+import model.Product;
+import operation.ProductOperations;
+
+/**
+ * JMH comparison of PricingEngine.quoteCart against pricing each cart line
+ * on its own from a product map in BigDecimal, the way the cart used to be
+ * totalled line by line. Both run over an in-memory catalog, so only the
+ * pricing itself is measured.
+ *
+ * Needs jmh-core and jmh-generator-annprocess on the test classpath; run with:
+ * java -cp &lt;test classes and jars&gt; org.openjdk.jmh.Main PricingEngineBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PricingEngineBenchmark {
+    private static final int CATALOG_SIZE = 2000;
+
+    @Param({ "10", "1000", "5000" })
+    public int lines;
+
+    private PricingEngine engine;
+    private Map<Integer, Product> byId;
+    private List<CartItem> cart;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<Product> products = new ArrayList<>();
+        byId = new HashMap<>();
+        for (int id = 1; id <= CATALOG_SIZE; id++) {
+            Product p = new Product();
+            p.setProductId(id);
+            p.setName("Product " + id);
+            p.setUnitPrice(1 + random.nextInt(50000) / 100.0);
+            p.setQtyPerBox(6 + random.nextInt(19));
+            p.setBoxPrice(Math.round(p.getUnitPrice() * p.getQtyPerBox() * 90) / 100.0);
+            p.setActive(true);
+            products.add(p);
+            byId.put(id, p);
+        }
+        engine = new PricingEngine(new Catalog(products));
+
+        cart = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            CartItem item = new CartItem();
+            item.setProductId(1 + random.nextInt(CATALOG_SIZE));
+            item.setQty(1 + random.nextInt(20));
+            item.setMode(random.nextBoolean() ? "box" : "unit");
+            cart.add(item);
+        }
+    }
+
+    @Benchmark
+    public long quoteCart() {
+        return engine.quoteCart(cart).getTotalPaise();
+    }
+
+    @Benchmark
+    public void perLineBigDecimal(Blackhole bh) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (CartItem item : cart) {
+            Product p = byId.get(item.getProductId());
+            if (p == null) {
+                continue;
+            }
+            BigDecimal price = BigDecimal.valueOf("box".equals(item.getMode()) ? p.getBoxPrice() : p.getUnitPrice());
+            total = total.add(price.multiply(BigDecimal.valueOf(item.getQty())));
+        }
+        bh.consume(total);
+    }
+
+    // Serves a fixed list, the same instance every call, like the catalog snapshot
+    private static final class Catalog implements ProductOperations {
+        private final List<Product> products;
+
+        Catalog(List<Product> products) {
+            this.products = products;
+        }
+
+        @Override
+        public List<Product> getAllActiveProducts() {
+            return products;
+        }
+
+        @Override
+        public Product getProductById(int productId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean addProduct(Product product) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean updateProduct(Product product) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean deleteProduct(int productId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isProductActive(int productId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ImportReport addProducts(Iterable<Product> products) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ImportReport importProducts(InputStream csv) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
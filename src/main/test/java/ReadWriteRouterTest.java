@@ -0,0 +1,97 @@
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import db_config.ConnectionPool;
+import db_config.PoolConfig;
+import db_config.ReadWriteRouter;
+
+/**
+ * Routing checks for ReadWriteRouter with two embedded databases
+ * ({@link StubDriver}) standing in for the primary and the replica: writes
+ * go to the primary, reads to the replica, a vendor's reads stay on the
+ * primary for the read-your-writes window after their write, and reads fall
+ * back to the primary when the replica cannot be reached.
+ *
+ * Run with: java ReadWriteRouterTest
+ */
+public class ReadWriteRouterTest {
+    private static final long WINDOW_MS = 200;
+
+    public static void main(String[] args) throws Exception {
+        StubDriver.Database primary = StubDriver.database("router-primary");
+        StubDriver.Database replica = StubDriver.database("router-replica");
+        System.setProperty("router.primary.url", primary.url());
+        System.setProperty("router.replica.url", replica.url());
+        System.setProperty("router.down.url", "jdbc:unreachable:replica");
+        System.setProperty("router.down.connectionTimeoutMs", "100");
+
+        try (ReadWriteRouter router = new ReadWriteRouter(pool("router.primary"), pool("router.replica"), WINDOW_MS)) {
+            sendsWritesToThePrimaryAndReadsToTheReplica(router, primary, replica);
+            keepsAVendorOnThePrimaryAfterTheirWrite(router, primary, replica);
+        }
+        try (ReadWriteRouter router = new ReadWriteRouter(pool("router.primary"), pool("router.down"), WINDOW_MS)) {
+            fallsBackToThePrimaryWhenTheReplicaIsDown(router, primary);
+        }
+        System.out.println("ReadWriteRouterTest passed");
+    }
+
+    static void sendsWritesToThePrimaryAndReadsToTheReplica(ReadWriteRouter router, StubDriver.Database primary,
+            StubDriver.Database replica) throws SQLException {
+        reset(primary, replica);
+        query(router.getWriteConnection());
+        check(primary.executions() == 1 && replica.executions() == 0, "write did not go to the primary");
+
+        reset(primary, replica);
+        query(router.getReadConnection());
+        query(router.getReadConnection(42));
+        check(primary.executions() == 0 && replica.executions() == 2, "reads did not go to the replica");
+    }
+
+    static void keepsAVendorOnThePrimaryAfterTheirWrite(ReadWriteRouter router, StubDriver.Database primary,
+            StubDriver.Database replica) throws Exception {
+        router.recordWrite(7);
+        reset(primary, replica);
+        query(router.getReadConnection(7));
+        check(primary.executions() == 1 && replica.executions() == 0, "vendor 7 read the replica right after writing");
+
+        reset(primary, replica);
+        query(router.getReadConnection(8));
+        check(replica.executions() == 1, "vendor 8 did not write, but was kept off the replica");
+
+        Thread.sleep(WINDOW_MS + 50);
+        reset(primary, replica);
+        query(router.getReadConnection(7));
+        check(replica.executions() == 1, "vendor 7 still reads the primary after the window");
+    }
+
+    static void fallsBackToThePrimaryWhenTheReplicaIsDown(ReadWriteRouter router, StubDriver.Database primary)
+            throws SQLException {
+        primary.reset();
+        query(router.getReadConnection());
+        check(primary.executions() == 1, "read failed instead of falling back to the primary");
+    }
+
+    private static ConnectionPool pool(String prefix) {
+        return new ConnectionPool(PoolConfig.load(prefix));
+    }
+
+    private static void query(Connection connection) throws SQLException {
+        try (Connection con = connection;
+             PreparedStatement ps = con.prepareStatement("SELECT 1")) {
+            ps.executeQuery().close();
+        }
+    }
+
+    private static void reset(StubDriver.Database primary, StubDriver.Database replica) {
+        primary.reset();
+        replica.reset();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import implementor.ReturnImplementor;
+import util.IntDoubleMap;
+
+/**
+ * ReturnImplementor.calculateReturnAmounts prices return items in Java; this
+ * checks it against fn_calculate_return_amount, return by return, on a real
+ * MySQL database loaded from vmms.sql. Besides up to 1000 of the returns
+ * already there, it adds a few of its own covering the edge cases (a product
+ * ordered on a box line and a unit line, a returned product or mode that is
+ * not in the order, a return with no items), checks their amounts and the
+ * stock sp_approve_return puts back, and deletes them again afterwards.
+ *
+ * Needs -Dvmms.test.mysql.url (and .user, .password); skipped without it:
+ * java -Dvmms.test.mysql.url=jdbc:mysql://localhost:3306/vmms_db -Dvmms.test.mysql.user=root ReturnAmountParityTest
+ */
+public class ReturnAmountParityTest {
+    private static final String URL = System.getProperty("vmms.test.mysql.url");
+    private static final String USER = System.getProperty("vmms.test.mysql.user");
+    private static final String PASSWORD = System.getProperty("vmms.test.mysql.password");
+
+    public static void main(String[] args) throws Exception {
+        if (URL == null || URL.trim().isEmpty()) {
+            System.out.println("ReturnAmountParityTest skipped: set -Dvmms.test.mysql.url to a database loaded from vmms.sql");
+            return;
+        }
+        System.setProperty("db.url", URL);
+        if (USER != null) {
+            System.setProperty("db.user", USER);
+        }
+        if (PASSWORD != null) {
+            System.setProperty("db.password", PASSWORD);
+        }
+
+        try (Connection con = DriverManager.getConnection(URL, USER, PASSWORD)) {
+            Fixture fixture = new Fixture(con);
+            try {
+                fixture.insert();
+                List<Integer> ids = new ArrayList<>(fixture.returnIds);
+                try (Statement st = con.createStatement();
+                     ResultSet rs = st.executeQuery("SELECT return_id FROM returns ORDER BY return_id DESC LIMIT 1000")) {
+                    while (rs.next()) {
+                        if (!ids.contains(rs.getInt(1))) {
+                            ids.add(rs.getInt(1));
+                        }
+                    }
+                }
+                matchesTheStoredFunction(con, ids);
+                pricesEachItemFromItsOwnOrderLine(con, fixture);
+                restocksOnlyTheReturnedLines(con, fixture);
+            } finally {
+                fixture.delete();
+            }
+        }
+        System.out.println("ReturnAmountParityTest passed");
+    }
+
+    static void matchesTheStoredFunction(Connection con, List<Integer> returnIds) throws SQLException {
+        IntDoubleMap amounts = new ReturnImplementor().calculateReturnAmounts(returnIds);
+        try (PreparedStatement ps = con.prepareStatement("SELECT fn_calculate_return_amount(?)")) {
+            for (int returnId : returnIds) {
+                ps.setInt(1, returnId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    BigDecimal expected = rs.getBigDecimal(1);
+                    BigDecimal actual = BigDecimal.valueOf(amounts.get(returnId, -1)).setScale(2, RoundingMode.HALF_UP);
+                    check(expected.compareTo(actual) == 0,
+                            "return " + returnId + ": fn_calculate_return_amount " + expected + ", calculateReturnAmounts " + actual);
+                }
+            }
+        }
+    }
+
+    // Returns of one product ordered as 1 box at 50.00 and 3 units at 12.34 must not mix the two lines
+    static void pricesEachItemFromItsOwnOrderLine(Connection con, Fixture fixture) throws SQLException {
+        String[] expected = { "99.99", "24.68", "50.00", "74.68", "99.99", "0.00", "0.00" };
+        for (int i = 0; i < expected.length; i++) {
+            int returnId = fixture.returnIds.get(i);
+            BigDecimal amount = storedAmount(con, returnId);
+            check(new BigDecimal(expected[i]).compareTo(amount) == 0,
+                    "return " + returnId + " (fixture " + i + ") is " + amount + ", expected " + expected[i]);
+        }
+    }
+
+    // Approving 1 box (12 per box) and 2 units of the split product puts back 14 units, nothing else
+    static void restocksOnlyTheReturnedLines(Connection con, Fixture fixture) throws SQLException {
+        int p1 = fixture.productIds.get(0);
+        int p2 = fixture.productIds.get(1);
+        int before1 = stock(con, p1);
+        int before2 = stock(con, p2);
+        try (CallableStatement cs = con.prepareCall("{CALL sp_approve_return(?, ?)}")) {
+            cs.setInt(1, fixture.boxAndUnits);
+            cs.registerOutParameter(2, Types.VARCHAR);
+            cs.execute();
+            check(cs.getString(2).contains("approved"), "approval failed: " + cs.getString(2));
+        }
+        check(stock(con, p1) - before1 == 14, "approval put back " + (stock(con, p1) - before1) + " units, expected 14");
+        check(stock(con, p2) == before2, "approval changed the stock of a product that was not returned");
+    }
+
+    private static BigDecimal storedAmount(Connection con, int returnId) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("SELECT fn_calculate_return_amount(?)")) {
+            ps.setInt(1, returnId);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getBigDecimal(1);
+            }
+        }
+    }
+
+    private static int stock(Connection con, int productId) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("SELECT stock_quantity FROM products WHERE product_id = ?")) {
+            ps.setInt(1, productId);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    // One vendor, one order and seven returns of its own, raised through sp_raise_return_request
+    private static final class Fixture {
+        private final Connection con;
+        private final List<Integer> returnIds = new ArrayList<>();
+        private final List<Integer> productIds = new ArrayList<>();
+        private int userId;
+        private int orderId;
+        private int boxAndUnits;
+
+        Fixture(Connection con) {
+            this.con = con;
+        }
+
+        void insert() throws SQLException {
+            userId = insertRow("INSERT INTO users (username, password_hash, role) VALUES (?, 'x', 'Vendor')",
+                    "parity-" + System.nanoTime());
+            int vendorId = insertRow("INSERT INTO vendors (user_id, name) VALUES (?, 'Parity test')", userId);
+            for (int i = 0; i < 3; i++) {
+                productIds.add(insertRow("INSERT INTO products (name, unit_price, box_price, qty_per_box) VALUES (?, 12.34, 99.99, 12)",
+                        "Parity product " + i));
+            }
+            int p1 = productIds.get(0);
+            int p2 = productIds.get(1);
+            int p3 = productIds.get(2);
+            orderId = insertRow("INSERT INTO orders (vendor_id, order_date, total_amount) VALUES (?, NOW(), 0)", vendorId);
+            orderItem(p1, 3, "unit", "12.34");
+            orderItem(p1, 1, "box", "50.00");   // the same product on a second line
+            orderItem(p2, 2, "box", "99.99");
+
+            newReturn(item(p2, 1, "box"));
+            newReturn(item(p1, 2, "unit"));
+            newReturn(item(p1, 1, "box"));
+            boxAndUnits = newReturn(item(p1, 1, "box") + "," + item(p1, 2, "unit"));
+            newReturn(item(p2, 1, "box") + "," + item(p3, 5, "unit"));   // p3 is not in the order
+            newReturn(item(p2, 1, "unit"));   // p2 was only ordered by the box
+            newReturn("");   // no items
+        }
+
+        private static String item(int productId, int qty, String mode) {
+            return "{\"product_id\": " + productId + ", \"qty\": " + qty + ", \"mode\": \"" + mode + "\"}";
+        }
+
+        private void orderItem(int productId, int qty, String mode, String price) throws SQLException {
+            try (PreparedStatement ps = con.prepareStatement(
+                    "INSERT INTO order_items (order_id, product_id, qty, mode, price) VALUES (?, ?, ?, ?, ?)")) {
+                ps.setInt(1, orderId);
+                ps.setInt(2, productId);
+                ps.setInt(3, qty);
+                ps.setString(4, mode);
+                ps.setBigDecimal(5, new BigDecimal(price));
+                ps.executeUpdate();
+            }
+        }
+
+        private int newReturn(String itemsJson) throws SQLException {
+            try (CallableStatement cs = con.prepareCall("{CALL sp_raise_return_request(?, ?, ?, ?, ?)}")) {
+                cs.setInt(1, orderId);
+                cs.setString(2, "[" + itemsJson + "]");
+                cs.setString(3, "Parity test");
+                cs.registerOutParameter(4, Types.INTEGER);
+                cs.registerOutParameter(5, Types.VARCHAR);
+                cs.execute();
+                int returnId = cs.getInt(4);
+                returnIds.add(returnId);
+                return returnId;
+            }
+        }
+
+        private int insertRow(String sql, Object param) throws SQLException {
+            try (PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                ps.setObject(1, param);
+                ps.executeUpdate();
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    keys.next();
+                    return keys.getInt(1);
+                }
+            }
+        }
+
+        // Deleting the order and the user cascades to everything else; safe after a partial insert()
+        void delete() throws SQLException {
+            try (PreparedStatement order = con.prepareStatement("DELETE FROM orders WHERE order_id = ?");
+                 PreparedStatement product = con.prepareStatement("DELETE FROM products WHERE product_id = ?");
+                 PreparedStatement user = con.prepareStatement("DELETE FROM users WHERE user_id = ?")) {
+                order.setInt(1, orderId);
+                order.executeUpdate();
+                for (int productId : productIds) {
+                    product.setInt(1, productId);
+                    product.executeUpdate();
+                }
+                user.setInt(1, userId);
+                user.executeUpdate();
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import implementor.StockReservations;
+
+/**
+ * Concurrency checks for StockReservations against an in-memory database
+ * ({@link StubDriver}): 64 threads ordering the same product must never sell
+ * more than its stock, the stock written back must match what was sold, and
+ * a node that does not hold the stock lease must not take any stock.
+ *
+ * Run with: java StockReservationsTest
+ */
+public class StockReservationsTest {
+    private static final int PRODUCT_ID = 7;
+    private static final long STOCK = 1000;
+    private static final int THREADS = 64;
+    private static final int ORDERS_PER_THREAD = 200;
+    private static final long UNITS_PER_ORDER = 3;
+    private static final long LEASE_MS = 10_000;
+
+    private static final AtomicLong dbStock = new AtomicLong(STOCK);
+    private static final AtomicBoolean leaseFree = new AtomicBoolean(true);
+
+    public static void main(String[] args) throws Exception {
+        StubDriver.Database db = StubDriver.database("stock")
+                .answer((sql, params) -> StubDriver.rows(new String[] { "stock_quantity" }, new Object[] { dbStock.get() }))
+                .onUpdate((sql, params) -> {
+                    if (sql.contains("stock_lease")) {
+                        return leaseFree.get() ? 1 : 0;
+                    }
+                    if (sql.contains("stock_quantity - ?")) {
+                        long sold = ((Number) params.get(0)).longValue();
+                        long left = dbStock.get();
+                        if (left < sold) {
+                            return 0;
+                        }
+                        dbStock.addAndGet(-sold);
+                        return 1;
+                    }
+                    if (sql.contains("stock_quantity = 0")) {
+                        dbStock.set(0);
+                    }
+                    return 1;
+                });
+        System.setProperty("db.url", db.url());
+
+        neverOversells();
+        clampsAShortfallToZero();
+        refusesStockWithoutTheLease();
+        System.out.println("StockReservationsTest passed");
+    }
+
+    static void neverOversells() throws Exception {
+        StockReservations stock = new StockReservations(60_000, 0, LEASE_MS);
+        AtomicLong sold = new AtomicLong();
+        AtomicLong refused = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            done.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                    StockReservations.Reservation r = stock.reserve(new int[] { PRODUCT_ID },
+                            new long[] { UNITS_PER_ORDER }, 1);
+                    if (r == null) {
+                        refused.incrementAndGet();
+                    } else if (i % 5 == 0) {
+                        stock.release(r);   // an order that failed after reserving
+                    } else {
+                        stock.commit(r);
+                        sold.addAndGet(UNITS_PER_ORDER);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : done) {
+            f.get();
+        }
+        pool.shutdown();
+
+        check(sold.get() <= STOCK, "sold " + sold.get() + " of " + STOCK + " units");
+        check(refused.get() > 0, "demand exceeded stock, so some orders must be refused");
+        check(sold.get() + stock.available(PRODUCT_ID) == STOCK,
+                "sold " + sold.get() + " + free " + stock.available(PRODUCT_ID) + " != " + STOCK);
+        check(stock.flush(), "flush failed");
+        check(dbStock.get() == STOCK - sold.get(), "stock_quantity " + dbStock.get() + " after selling " + sold.get());
+    }
+
+    // An admin lowers stock_quantity below what this node has sold but not yet written
+    static void clampsAShortfallToZero() {
+        dbStock.set(10);
+        StockReservations stock = new StockReservations(60_000, 0, LEASE_MS);
+        StockReservations.Reservation r = stock.reserve(new int[] { PRODUCT_ID }, new long[] { 8 }, 1);
+        check(r != null, "8 of 10 units should be reservable");
+        stock.commit(r);
+        dbStock.set(5);
+        check(stock.flush(), "flush failed");
+        check(dbStock.get() == 0, "stock_quantity went to " + dbStock.get() + " instead of 0");
+        check(stock.available(PRODUCT_ID) == 0, "free stock " + stock.available(PRODUCT_ID) + " after a shortfall");
+    }
+
+    // Another node holds the lease: nothing may be reserved here, whatever the counters say
+    static void refusesStockWithoutTheLease() {
+        dbStock.set(10);
+        leaseFree.set(false);
+        try {
+            StockReservations stock = new StockReservations(60_000, 0, LEASE_MS);
+            check(stock.reserve(new int[] { PRODUCT_ID }, new long[] { 1 }, 1) == null, "reserved stock without the lease");
+            check(!stock.holdForCart(1, PRODUCT_ID, 1), "held stock for a cart without the lease");
+            check(stock.available(PRODUCT_ID) == 10, "free stock changed to " + stock.available(PRODUCT_ID));
+        } finally {
+            leaseFree.set(true);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
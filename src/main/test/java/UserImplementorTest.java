@@ -0,0 +1,54 @@
+
+import java.util.ArrayList;
+import java.util.List;
+
+import implementor.UserImplementor;
+import model.User;
+
+/**
+ * getAllUsersByRole must load every user, contact included, in one query
+ * however many users there are (no per-user contact lookups), checked with
+ * {@link TestDatabaseUtil} against an in-memory database ({@link StubDriver}).
+ *
+ * Run with: java UserImplementorTest
+ */
+public class UserImplementorTest {
+    private static final int VENDORS = 500;
+
+    public static void main(String[] args) throws Exception {
+        StubDriver.Database db = StubDriver.database("users");
+        db.answer((sql, params) -> {
+            if (!sql.contains("FROM users")) {
+                return StubDriver.none();
+            }
+            List<Object[]> rows = new ArrayList<>();
+            for (int id = 1; id <= VENDORS; id++) {
+                rows.add(new Object[] { id, "vendor" + id, "hash", params.get(0), null, "98400" + id });
+            }
+            return StubDriver.rows(new String[] { "user_id", "username", "password_hash", "role", "last_login", "contact" },
+                    rows.toArray(new Object[0][]));
+        });
+        System.setProperty("db.url", db.url());
+
+        loadsAllUsersOfARoleInOneQuery(db);
+        System.out.println("UserImplementorTest passed");
+    }
+
+    static void loadsAllUsersOfARoleInOneQuery(StubDriver.Database db) throws Exception {
+        UserImplementor users = new UserImplementor();
+        users.getAllUsersByRole("Vendor");   // warm the pool and its statement cache
+        db.reset();
+
+        List<User> vendors = TestDatabaseUtil.assertQueryCount(1, () -> users.getAllUsersByRole("Vendor"));
+        check(db.executions() == 1, "database saw " + db.executions() + " queries: " + db.executed());
+        check(vendors.size() == VENDORS, "loaded " + vendors.size() + " of " + VENDORS + " vendors");
+        String contact = vendors.get(VENDORS - 1).getContact();
+        check(("98400" + VENDORS).equals(contact), "contact not loaded with the user: " + contact);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory JDBC driver for tests that run without MySQL.
+ *
+ * Each {@link Database} answers the URL jdbc:stub:&lt;name&gt;. Queries are
+ * answered by the database's QueryHandler and updates by its UpdateHandler,
+ * both given the SQL text and the bound parameters; every execution is
+ * counted and its SQL recorded, so a test can tell how many round-trips a
+ * call made and which database served them.
+ *
+ * <pre>
+ * StubDriver.Database db = StubDriver.database("primary")
+ *         .answer((sql, params) -&gt; StubDriver.rows(new String[] { "stock_quantity" }, new Object[] { 100L }));
+ * System.setProperty("db.url", db.url());
+ * </pre>
+ */
+public final class StubDriver implements Driver {
+    private static final String PREFIX = "jdbc:stub:";
+    private static final Map<String, Database> DATABASES = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            DriverManager.registerDriver(new StubDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Answers a query. */
+    public interface QueryHandler {
+        Rows query(String sql, List<Object> params) throws SQLException;
+    }
+
+    /** Applies an update; returns the update count. */
+    public interface UpdateHandler {
+        int update(String sql, List<Object> params) throws SQLException;
+    }
+
+    /** The database for jdbc:stub:name, created empty on first use. */
+    public static Database database(String name) {
+        return DATABASES.computeIfAbsent(name, Database::new);
+    }
+
+    /** A result with the given column labels and rows. */
+    public static Rows rows(String[] columns, Object[]... rows) {
+        return new Rows(columns, Arrays.asList(rows));
+    }
+
+    /** A result with no rows. */
+    public static Rows none() {
+        return new Rows(new String[0], Collections.<Object[]>emptyList());
+    }
+
+    public static final class Database {
+        private final String name;
+        private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        private final LongAdder executions = new LongAdder();
+        private final AtomicInteger generatedKeys = new AtomicInteger();
+        private volatile QueryHandler queries = (sql, params) -> none();
+        private volatile UpdateHandler updates = (sql, params) -> 1;
+
+        private Database(String name) {
+            this.name = name;
+        }
+
+        public String url() {
+            return PREFIX + name;
+        }
+
+        public Database answer(QueryHandler handler) {
+            this.queries = handler;
+            return this;
+        }
+
+        public Database onUpdate(UpdateHandler handler) {
+            this.updates = handler;
+            return this;
+        }
+
+        /** Statements executed so far; a batch counts once. */
+        public long executions() {
+            return executions.sum();
+        }
+
+        /** SQL of every execution so far, oldest first. */
+        public List<String> executed() {
+            synchronized (executed) {
+                return new ArrayList<>(executed);
+            }
+        }
+
+        public void reset() {
+            executed.clear();
+            executions.reset();
+        }
+
+        private void record(String sql) {
+            executions.increment();
+            executed.add(sql);
+        }
+    }
+
+    /** Column labels and rows of a query result. */
+    public static final class Rows {
+        private final String[] columns;
+        private final List<Object[]> rows;
+
+        private Rows(String[] columns, List<Object[]> rows) {
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        private int column(String label) throws SQLException {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase(label)) {
+                    return i + 1;
+                }
+            }
+            throw new SQLException("No column " + label + " in " + Arrays.toString(columns));
+        }
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        return acceptsURL(url) ? connection(database(url.substring(PREFIX.length()))) : null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static Connection connection(Database db) {
+        boolean[] state = { true, false };   // autoCommit, closed
+        return proxy(Connection.class, (p, m, args) -> {
+            switch (m.getName()) {
+                case "prepareStatement":
+                case "prepareCall":
+                    return statement(db, (String) args[0]);
+                case "getAutoCommit": return state[0];
+                case "setAutoCommit": state[0] = (Boolean) args[0]; return null;
+                case "isClosed": return state[1];
+                case "close": state[1] = true; return null;
+                case "isValid": return !state[1];
+                default: return defaultValue(m.getReturnType());
+            }
+        });
+    }
+
+    private static PreparedStatement statement(Database db, String sql) {
+        Map<Integer, Object> params = new TreeMap<>();
+        List<List<Object>> batch = new ArrayList<>();
+        Rows[] keys = { none() };
+        return proxy(java.sql.CallableStatement.class, (p, m, args) -> {
+            String name = m.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+                    && !name.equals("setFetchSize") && !name.equals("setMaxRows") && !name.equals("setQueryTimeout")) {
+                params.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                return null;
+            }
+            switch (name) {
+                case "clearParameters": params.clear(); return null;
+                case "addBatch": batch.add(new ArrayList<>(params.values())); return null;
+                case "clearBatch": batch.clear(); return null;
+                case "executeQuery":
+                    db.record(sql);
+                    return resultSet(db.queries.query(sql, new ArrayList<>(params.values())));
+                case "executeUpdate": {
+                    db.record(sql);
+                    int count = db.updates.update(sql, new ArrayList<>(params.values()));
+                    keys[0] = rows(new String[] { "GENERATED_KEY" }, new Object[] { db.generatedKeys.incrementAndGet() });
+                    return count;
+                }
+                case "executeBatch": {
+                    db.record(sql);
+                    int[] counts = new int[batch.size()];
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] = db.updates.update(sql, batch.get(i));
+                    }
+                    batch.clear();
+                    return counts;
+                }
+                case "execute":
+                    db.record(sql);
+                    db.updates.update(sql, new ArrayList<>(params.values()));
+                    return false;
+                case "getGeneratedKeys": return resultSet(keys[0]);
+                default: return defaultValue(m.getReturnType());
+            }
+        });
+    }
+
+    private static ResultSet resultSet(Rows rows) {
+        int[] cursor = { -1 };
+        boolean[] wasNull = { false };
+        return proxy(ResultSet.class, (p, m, args) -> {
+            String name = m.getName();
+            if (name.equals("next")) {
+                return ++cursor[0] < rows.rows.size();
+            }
+            if (name.equals("wasNull")) {
+                return wasNull[0];
+            }
+            if (name.startsWith("get") && args != null && args.length >= 1
+                    && (args[0] instanceof Integer || args[0] instanceof String)) {
+                int column = args[0] instanceof Integer ? (Integer) args[0] : rows.column((String) args[0]);
+                Object value = rows.rows.get(cursor[0])[column - 1];
+                wasNull[0] = value == null;
+                return convert(value, m.getReturnType());
+            }
+            return defaultValue(m.getReturnType());
+        });
+    }
+
+    private static Object convert(Object value, Class<?> type) {
+        if (value == null) {
+            return defaultValue(type);
+        }
+        if (type == int.class) return ((Number) value).intValue();
+        if (type == long.class) return ((Number) value).longValue();
+        if (type == double.class) return ((Number) value).doubleValue();
+        if (type == boolean.class) return value instanceof Boolean ? value : ((Number) value).intValue() != 0;
+        if (type == String.class) return value.toString();
+        if (type == BigDecimal.class) return value instanceof BigDecimal ? value : new BigDecimal(value.toString());
+        if (type == Timestamp.class) return value instanceof Timestamp ? value : new Timestamp(((java.util.Date) value).getTime());
+        return value;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0;
+        if (type == float.class) return 0f;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubDriver.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+}
@@ -1,4 +1,66 @@
 
+import java.util.concurrent.Callable;
+
+import db_config.ConnectionPool;
+import db_config.GetConnection;
+import db_config.ReadWriteRouter;
+
+/**
+ * Query-count assertions for tests, so N+1 lookups cannot creep back in.
+ *
+ * Counts the statement executions (execute, executeQuery, executeUpdate,
+ * executeBatch) through the connection pools, primary and replica, while the
+ * given call runs. A statement prepared once and executed in a loop counts
+ * once per execution. The counters are global, so run these checks while
+ * nothing else is using the database.
+ *
+ * <pre>
+ * List&lt;User&gt; vendors = TestDatabaseUtil.assertQueryCount(1,
+ *         () -&gt; new UserImplementor().getAllUsersByRole("Vendor"));
+ * </pre>
+ */
 public class TestDatabaseUtil {
 
+    private TestDatabaseUtil() {
+    }
+
+    /** Statements executed so far through the application's pools. */
+    public static long statementsExecuted() {
+        ReadWriteRouter router = GetConnection.getRouter();
+        long total = router.getPrimary().getStats().getStatementsExecuted();
+        ConnectionPool replica = router.getReplica();
+        if (replica != null) {
+            total += replica.getStats().getStatementsExecuted();
+        }
+        return total;
+    }
+
+    /** Runs call and returns how many statements it executed. */
+    public static long countQueries(Runnable call) {
+        long before = statementsExecuted();
+        call.run();
+        return statementsExecuted() - before;
+    }
+
+    /** Runs call, fails unless it executed exactly expected statements, and returns its result. */
+    public static <T> T assertQueryCount(long expected, Callable<T> call) throws Exception {
+        long before = statementsExecuted();
+        T result = call.call();
+        long actual = statementsExecuted() - before;
+        if (actual != expected) {
+            throw new AssertionError("Expected " + expected + " queries but " + actual + " were issued");
+        }
+        return result;
+    }
+
+    /** Runs call, fails if it executed more than max statements, and returns its result. */
+    public static <T> T assertMaxQueries(long max, Callable<T> call) throws Exception {
+        long before = statementsExecuted();
+        T result = call.call();
+        long actual = statementsExecuted() - before;
+        if (actual > max) {
+            throw new AssertionError("Expected at most " + max + " queries but " + actual + " were issued");
+        }
+        return result;
+    }
 }
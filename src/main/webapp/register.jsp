@@ -1,7 +1,7 @@
 <%@ taglib prefix="fmt" uri="http://java.sun.com/jsp/jstl/fmt" %>
 <%-- Set the language and message bundle at the top of the page --%>
 <fmt:setLocale value="${sessionScope.userLanguage}" />
-<fmt:setBundle basename="messages" />
+<fmt:setBundle basename="i18n.messages" />
 
 <div class="form-container">
     <h2><fmt:message key="register.title"/></h2>